@@ -0,0 +1,122 @@
+package com.dev.sweproject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.function.IntFunction;
+
+/**
+ * The ChunkInputStream class reads the chunks of a document in order as a single stream.
+ * Only a fixed number of chunks are requested ahead of the one being read, so the memory
+ * held by a stream does not depend on the size of the document while the next chunks are
+ * still read in parallel.
+ */
+public final class ChunkInputStream extends InputStream {
+
+  private final int chunkCount;
+  private final IntFunction<CompletableFuture<byte[]>> chunkReader;
+  private final int readAhead;
+  private final ArrayDeque<CompletableFuture<byte[]>> pending = new ArrayDeque<>();
+  private int requested;
+  private long skip;
+  private byte[] current = new byte[0];
+  private int position;
+
+  /**
+   * Creates a stream over the given number of chunks, requesting the first ones at once.
+   *
+   * @param chunkCount An int representing the number of chunks.
+   * @param chunkReader An IntFunction starting the read of the chunk at an index.
+   * @param readAhead An int representing how many chunks may be requested at a time.
+   */
+  public ChunkInputStream(int chunkCount, IntFunction<CompletableFuture<byte[]>> chunkReader,
+                          int readAhead) {
+    this(chunkCount, chunkReader, readAhead, 0);
+  }
+
+  /**
+   * Creates a stream over the given number of chunks that starts a number of bytes into
+   * them, the bytes skipped are dropped as the chunks arrive rather than waited for here.
+   *
+   * @param chunkCount An int representing the number of chunks.
+   * @param chunkReader An IntFunction starting the read of the chunk at an index.
+   * @param readAhead An int representing how many chunks may be requested at a time.
+   * @param skip A long representing the number of bytes to skip.
+   */
+  public ChunkInputStream(int chunkCount, IntFunction<CompletableFuture<byte[]>> chunkReader,
+                          int readAhead, long skip) {
+    this.chunkCount = chunkCount;
+    this.chunkReader = chunkReader;
+    this.readAhead = Math.max(1, readAhead);
+    this.skip = skip;
+    request();
+  }
+
+  @Override
+  public int read() throws IOException {
+    if (!advance()) {
+      return -1;
+    }
+    return current[position++] & 0xFF;
+  }
+
+  @Override
+  public int read(byte[] buffer, int offset, int length) throws IOException {
+    if (length == 0) {
+      return 0;
+    }
+    if (!advance()) {
+      return -1;
+    }
+    int count = Math.min(length, current.length - position);
+    System.arraycopy(current, position, buffer, offset, count);
+    position += count;
+    return count;
+  }
+
+  @Override
+  public int available() {
+    return current.length - position;
+  }
+
+  @Override
+  public void close() {
+    for (CompletableFuture<byte[]> chunk : pending) {
+      chunk.cancel(false);
+    }
+    pending.clear();
+    requested = chunkCount;
+    current = new byte[0];
+    position = 0;
+  }
+
+  //moves to the next chunk with bytes left, false at the end of the last chunk
+  private boolean advance() throws IOException {
+    while (position == current.length) {
+      if (pending.isEmpty()) {
+        return false;
+      }
+      try {
+        current = pending.poll().get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while reading a chunk");
+      } catch (ExecutionException e) {
+        throw new IOException("A chunk could not be read", e.getCause());
+      }
+      position = (int) Math.min(skip, current.length);
+      skip -= position;
+      request();
+    }
+    return true;
+  }
+
+  private void request() {
+    while (requested < chunkCount && pending.size() < readAhead) {
+      pending.add(chunkReader.apply(requested++));
+    }
+  }
+}
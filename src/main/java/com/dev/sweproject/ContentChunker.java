@@ -0,0 +1,140 @@
+package com.dev.sweproject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * The ContentChunker class splits contents into chunks whose boundaries depend on the
+ * contents themselves rather than on their offsets, following FastCDC. A boundary is placed
+ * where a rolling gear hash of the last 64 bytes matches a mask, so an edit only moves the
+ * boundaries next to it and the chunks of the unchanged regions of two similar files are
+ * identical, which lets them be stored once.
+ *
+ * <p>
+ * Chunks are at least a quarter and at most four times the average size. Between the
+ * minimum and the average size a stricter mask is used and past the average a looser one,
+ * which keeps most chunks close to the average size.
+ * </p>
+ *
+ * <p>
+ * A ContentChunker instance scans contents a buffer at a time, so that an upload can be
+ * chunked while it is read.
+ * </p>
+ */
+public final class ContentChunker {
+
+  //one random value per byte, the seed is fixed as boundaries must never change
+  private static final long[] GEAR = new long[256];
+
+  static {
+    Random random = new Random(0x4344_4331L);
+    for (int i = 0; i < GEAR.length; i++) {
+      GEAR[i] = random.nextLong();
+    }
+  }
+
+  private final int minSize;
+  private final int averageSize;
+  private final int maxSize;
+  private final long strictMask;
+  private final long looseMask;
+  //the number of bytes of the current chunk scanned so far and their hash
+  private int position;
+  private long hash;
+
+  /**
+   * Creates a chunker for contents scanned a buffer at a time, which finds the same
+   * boundaries as scanning the contents at once.
+   *
+   * @param averageSize An int representing the average chunk size, at least 64 bytes.
+   * @throws IllegalArgumentException If the average size is below 64 bytes.
+   */
+  public ContentChunker(int averageSize) {
+    if (averageSize < 64) {
+      throw new IllegalArgumentException("The average chunk size must be at least 64 bytes");
+    }
+    int bits = 31 - Integer.numberOfLeadingZeros(averageSize);
+    //the masks test the high bits, which depend on the last 64 bytes hashed
+    this.strictMask = -1L << (64 - bits - 2);
+    this.looseMask = -1L << (64 - bits + 2);
+    this.minSize = averageSize / 4;
+    this.averageSize = averageSize;
+    this.maxSize = averageSize * 4;
+  }
+
+  /**
+   * Scans the next bytes of the contents for the end of the current chunk. When one is
+   * found the bytes after it belong to a new chunk, which the next call starts scanning.
+   *
+   * @param bytes A byte[] holding the next bytes of the contents.
+   * @param offset An int representing the index of the first byte to scan.
+   * @param length An int representing the number of bytes to scan.
+   * @return An int representing the index just past the end of the current chunk, or -1
+   *         if the chunk continues past the bytes scanned.
+   */
+  public int findBoundary(byte[] bytes, int offset, int length) {
+    int end = offset + length;
+    int i = offset;
+    //the first bytes of a chunk are never a boundary and are not hashed
+    if (position < minSize) {
+      int skipped = Math.min(minSize - position, length);
+      position += skipped;
+      i += skipped;
+    }
+    for (; i < end; i++) {
+      hash = (hash << 1) + GEAR[bytes[i] & 0xFF];
+      long mask = position < averageSize ? strictMask : looseMask;
+      position++;
+      if ((hash & mask) == 0 || position == maxSize) {
+        position = 0;
+        hash = 0;
+        return i + 1;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Finds the chunk boundaries of the contents.
+   *
+   * @param contents A byte[] representing the contents to split.
+   * @param averageSize An int representing the average chunk size, at least 64 bytes.
+   * @return An int[] holding the end offset of every chunk in order, the last being the
+   *         length of the contents, empty for empty contents.
+   */
+  public static int[] boundaries(byte[] contents, int averageSize) {
+    ContentChunker chunker = new ContentChunker(averageSize);
+    int[] ends = new int[contents.length / chunker.minSize + 1];
+    int count = 0;
+    int start = 0;
+    while (start < contents.length) {
+      int end = chunker.findBoundary(contents, start, contents.length - start);
+      if (end < 0) {
+        end = contents.length;
+      }
+      ends[count++] = end;
+      start = end;
+    }
+    return Arrays.copyOf(ends, count);
+  }
+
+  /**
+   * Splits the contents into chunks.
+   *
+   * @param contents A byte[] representing the contents to split.
+   * @param averageSize An int representing the average chunk size, at least 64 bytes.
+   * @return A List of the chunks in order, which concatenated are the contents.
+   */
+  public static List<byte[]> split(byte[] contents, int averageSize) {
+    int[] ends = boundaries(contents, averageSize);
+    List<byte[]> chunks = new ArrayList<>(ends.length);
+    int start = 0;
+    for (int end : ends) {
+      chunks.add(Arrays.copyOfRange(contents, start, end));
+      start = end;
+    }
+    return chunks;
+  }
+}
@@ -0,0 +1,434 @@
+package com.dev.sweproject;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Locale;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * The ContentCodec enum describes how the contents of a document are stored in the
+ * database. Stored contents are a string starting with '!' followed by the Base64 encoding
+ * of a header, the codec's id and the original length as a varint, and the codec's output.
+ *
+ * <p>
+ * Contents stored before codecs existed are a string starting with '#' followed by the
+ * Base64 encoding of the raw contents, decode accepts both forms.
+ * </p>
+ */
+public enum ContentCodec {
+
+  /**
+   * Stores the contents as they are.
+   */
+  RAW(0) {
+    @Override
+    byte[] compress(byte[] contents, int level) {
+      return contents;
+    }
+
+    @Override
+    OutputStream compressor(OutputStream out, int level) {
+      return out;
+    }
+
+    @Override
+    InputStream decompress(InputStream payload) {
+      return payload;
+    }
+  },
+
+  /**
+   * Compresses the contents with DEFLATE at the configured level.
+   */
+  DEFLATE(1) {
+    @Override
+    byte[] compress(byte[] contents, int level) {
+      Deflater deflater = new Deflater(level);
+      try {
+        deflater.setInput(contents);
+        deflater.finish();
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(contents.length / 2 + 16);
+        byte[] buffer = new byte[8192];
+        while (!deflater.finished()) {
+          compressed.write(buffer, 0, deflater.deflate(buffer));
+        }
+        return compressed.toByteArray();
+      } finally {
+        deflater.end();
+      }
+    }
+
+    @Override
+    OutputStream compressor(OutputStream out, int level) {
+      Deflater deflater = new Deflater(level);
+      return new DeflaterOutputStream(out, deflater, 8192) {
+        @Override
+        public void close() throws IOException {
+          try {
+            super.close();
+          } finally {
+            deflater.end();
+          }
+        }
+      };
+    }
+
+    @Override
+    InputStream decompress(InputStream payload) {
+      return new InflaterInputStream(payload, new Inflater());
+    }
+  },
+
+  /**
+   * Compresses the contents with GZIP at the configured level.
+   */
+  GZIP(2) {
+    @Override
+    byte[] compress(byte[] contents, int level) {
+      ByteArrayOutputStream compressed = new ByteArrayOutputStream(contents.length / 2 + 32);
+      try (GZIPOutputStream gzip = new LevelGzipOutputStream(compressed, 512, level)) {
+        gzip.write(contents);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      return compressed.toByteArray();
+    }
+
+    @Override
+    OutputStream compressor(OutputStream out, int level) throws IOException {
+      return new LevelGzipOutputStream(out, 8192, level);
+    }
+
+    @Override
+    InputStream decompress(InputStream payload) throws IOException {
+      return new GZIPInputStream(payload);
+    }
+  };
+
+  /**
+   * The prefix of contents stored through a codec.
+   */
+  public static final String PREFIX = "!";
+
+  /**
+   * The prefix of contents stored as plain Base64, as well as of the file strings
+   * returned by the API.
+   */
+  public static final String LEGACY_PREFIX = "#";
+
+  private final int id;
+
+  ContentCodec(int id) {
+    this.id = id;
+  }
+
+  abstract byte[] compress(byte[] contents, int level);
+
+  //wraps out in a stream compressing what is written to it, closing it finishes the output
+  abstract OutputStream compressor(OutputStream out, int level) throws IOException;
+
+  abstract InputStream decompress(InputStream payload) throws IOException;
+
+  /**
+   * Encodes contents for storage. Contents of a type that is already compressed are
+   * stored raw, as are contents the codec does not make smaller.
+   *
+   * @param contents A byte[] representing the contents to store.
+   * @param contentType A String representing the contents' media type, or null if unknown.
+   * @param level An int representing the compression level, from 0 (none) to 9 (smallest).
+   * @return A String representing the stored form of the contents.
+   */
+  public String encode(byte[] contents, String contentType, int level) {
+    ContentCodec codec = this;
+    byte[] payload = contents;
+    if (this != RAW && !isCompressed(contents, contentType)) {
+      byte[] compressed = compress(contents, level);
+      if (compressed.length < contents.length) {
+        payload = compressed;
+      } else {
+        codec = RAW;
+      }
+    } else {
+      codec = RAW;
+    }
+
+    ByteArrayOutputStream stored = new ByteArrayOutputStream(payload.length + 6);
+    stored.write(codec.id);
+    writeVarint(stored, contents.length);
+    stored.write(payload, 0, payload.length);
+    return PREFIX + Base64.getEncoder().encodeToString(stored.toByteArray());
+  }
+
+  /**
+   * Starts encoding contents of a known length that are written a buffer at a time, so
+   * they are compressed and Base64 encoded while they are read rather than afterwards.
+   *
+   * @param length An int representing the length of the contents.
+   * @param contentType A String representing the contents' media type, or null if unknown.
+   * @param level An int representing the compression level, from 0 (none) to 9 (smallest).
+   * @return An Encoder to write the contents to.
+   */
+  public Encoder encoder(int length, String contentType, int level) {
+    return new Encoder(this, length, contentType, level);
+  }
+
+  /**
+   * Decodes stored contents, in either the codec or the legacy form.
+   *
+   * @param stored A String representing the stored form of the contents.
+   * @return A byte[] representing the original contents.
+   * @throws IllegalArgumentException If the stored contents are malformed.
+   */
+  public static byte[] decode(String stored) {
+    if (stored == null || stored.length() <= 1) {
+      return new byte[0];
+    }
+    byte[] bytes = Base64.getDecoder().decode(stored.substring(1));
+    if (!stored.startsWith(PREFIX)) {
+      return bytes;
+    }
+
+    int[] cursor = {1};
+    ContentCodec codec = forId(bytes.length == 0 ? -1 : bytes[0]);
+    int length = readVarint(bytes, cursor);
+    if (codec == RAW) {
+      if (bytes.length - cursor[0] != length) {
+        throw new IllegalArgumentException("The stored contents are truncated");
+      }
+      return Arrays.copyOfRange(bytes, cursor[0], bytes.length);
+    }
+    byte[] contents = new byte[length];
+    try (InputStream in = codec.decompress(
+        new ByteArrayInputStream(bytes, cursor[0], bytes.length - cursor[0]))) {
+      if (in.readNBytes(contents, 0, length) != length || in.read() != -1) {
+        throw new IllegalArgumentException("The stored contents do not match their length");
+      }
+    } catch (IOException e) {
+      throw new IllegalArgumentException("The stored contents are malformed", e);
+    }
+    return contents;
+  }
+
+  /**
+   * Converts stored contents to the '#' prefixed Base64 file string returned by the API.
+   *
+   * @param stored A String representing the stored form of the contents.
+   * @return A String representing the contents as a file string.
+   */
+  public static String toFileString(String stored) {
+    if (stored == null || stored.isEmpty()) {
+      return LEGACY_PREFIX;
+    }
+    if (stored.startsWith(LEGACY_PREFIX)) {
+      return stored;
+    }
+    return LEGACY_PREFIX + Base64.getEncoder().encodeToString(decode(stored));
+  }
+
+  /**
+   * Looks up a codec by its name, ignoring case.
+   *
+   * @param name A String representing the codec's name, "raw", "deflate" or "gzip".
+   * @return The matching ContentCodec.
+   * @throws IllegalArgumentException If no codec has that name.
+   */
+  public static ContentCodec forName(String name) {
+    return valueOf(name.trim().toUpperCase(Locale.ROOT));
+  }
+
+  //GZIPOutputStream takes no level, its deflater is set to one before anything is deflated
+  private static final class LevelGzipOutputStream extends GZIPOutputStream {
+    private LevelGzipOutputStream(OutputStream out, int size, int level) throws IOException {
+      super(out, size);
+      def.setLevel(level);
+    }
+  }
+
+  /**
+   * The Encoder class encodes contents written a buffer at a time into the form encode
+   * gives them. The codec is chosen from the first buffer, which is expected to hold the
+   * start of the contents where compressed formats have their signature. Contents that do
+   * not have the announced length, or that the codec does not make smaller, are encoded
+   * again from the full contents when finished.
+   */
+  public static final class Encoder {
+    private final ContentCodec codec;
+    private final int length;
+    private final String contentType;
+    private final int level;
+    private ByteArrayOutputStream stored;
+    private CountingOutputStream encoded;
+    private OutputStream payload;
+    private boolean compressing;
+    private long written;
+
+    private Encoder(ContentCodec codec, int length, String contentType, int level) {
+      this.codec = codec;
+      this.length = length;
+      this.contentType = contentType;
+      this.level = level;
+    }
+
+    /**
+     * Encodes the next bytes of the contents.
+     *
+     * @param bytes A byte[] holding the next bytes of the contents.
+     * @param offset An int representing the index of the first byte to encode.
+     * @param count An int representing the number of bytes to encode.
+     */
+    public void write(byte[] bytes, int offset, int count) {
+      try {
+        if (payload == null) {
+          start(Arrays.copyOfRange(bytes, offset, offset + Math.min(count, 8)));
+        }
+        payload.write(bytes, offset, count);
+        written += count;
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    /**
+     * Finishes the encoding.
+     *
+     * @param contents A byte[] representing all the contents written, encoded again if
+     *                 the encoding written can not be used.
+     * @return A String representing the stored form of the contents.
+     */
+    public String finish(byte[] contents) {
+      if (payload == null) {
+        return codec.encode(contents, contentType, level);
+      }
+      try {
+        payload.close();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      if (written != length) {
+        return codec.encode(contents, contentType, level);
+      }
+      if (compressing && encoded.count - encoded.headerLength >= length) {
+        return RAW.encode(contents, contentType, level);
+      }
+      return stored.toString(StandardCharsets.ISO_8859_1);
+    }
+
+    private void start(byte[] head) throws IOException {
+      compressing = codec != RAW && !isCompressed(head, contentType);
+      ContentCodec chosen = compressing ? codec : RAW;
+      ByteArrayOutputStream header = new ByteArrayOutputStream(6);
+      header.write(chosen.id);
+      writeVarint(header, length);
+
+      int expected = (compressing ? length / 2 : length) + 16;
+      stored = new ByteArrayOutputStream(expected / 3 * 4 + 4);
+      stored.write(PREFIX.charAt(0));
+      encoded = new CountingOutputStream(Base64.getEncoder().wrap(stored), header.size());
+      encoded.write(header.toByteArray());
+      payload = chosen.compressor(encoded, level);
+    }
+  }
+
+  //counts the bytes written through it, as FilterOutputStream writes arrays a byte at a time
+  private static final class CountingOutputStream extends FilterOutputStream {
+    private final int headerLength;
+    private long count;
+
+    private CountingOutputStream(OutputStream out, int headerLength) {
+      super(out);
+      this.headerLength = headerLength;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      out.write(b);
+      count++;
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+      out.write(bytes, offset, length);
+      count += length;
+    }
+  }
+
+  //types whose contents are compressed already, recognized by media type or by signature
+  static boolean isCompressed(byte[] contents, String contentType) {
+    if (contentType != null) {
+      String type = contentType.toLowerCase(Locale.ROOT);
+      if (type.startsWith("image/") || type.startsWith("video/") || type.startsWith("audio/")
+          || type.contains("zip") || type.contains("compressed") || type.contains("zstd")
+          || type.contains("openxmlformats") || type.contains("opendocument")) {
+        return !type.equals("image/svg+xml") && !type.equals("image/bmp");
+      }
+    }
+    return startsWith(contents, 0x1F, 0x8B)             // gzip
+        || startsWith(contents, 0x50, 0x4B, 0x03, 0x04) // zip, docx, xlsx, jar
+        || startsWith(contents, 0x28, 0xB5, 0x2F, 0xFD) // zstd
+        || startsWith(contents, 0x89, 0x50, 0x4E, 0x47) // png
+        || startsWith(contents, 0xFF, 0xD8, 0xFF)       // jpeg
+        || startsWith(contents, 0x37, 0x7A, 0xBC, 0xAF); // 7z
+  }
+
+  private static boolean startsWith(byte[] contents, int... signature) {
+    if (contents.length < signature.length) {
+      return false;
+    }
+    for (int i = 0; i < signature.length; i++) {
+      if ((contents[i] & 0xFF) != signature[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static ContentCodec forId(int id) {
+    for (ContentCodec codec : values()) {
+      if (codec.id == id) {
+        return codec;
+      }
+    }
+    throw new IllegalArgumentException("Unknown content codec: " + id);
+  }
+
+  private static void writeVarint(ByteArrayOutputStream out, int value) {
+    int remaining = value;
+    while ((remaining & ~0x7F) != 0) {
+      out.write((remaining & 0x7F) | 0x80);
+      remaining >>>= 7;
+    }
+    out.write(remaining);
+  }
+
+  private static int readVarint(byte[] data, int[] cursor) {
+    int value = 0;
+    int shift = 0;
+    while (true) {
+      if (cursor[0] >= data.length || shift > 28) {
+        throw new IllegalArgumentException("The stored contents are malformed");
+      }
+      int b = data[cursor[0]++];
+      value |= (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        if (value < 0) {
+          throw new IllegalArgumentException("The stored contents are malformed");
+        }
+        return value;
+      }
+      shift += 7;
+    }
+  }
+}
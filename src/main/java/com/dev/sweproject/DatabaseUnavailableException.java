@@ -0,0 +1,20 @@
+package com.dev.sweproject;
+
+/**
+ * The DatabaseUnavailableException class reports a Firebase operation that failed because
+ * the database could not be reached, as opposed to one the database refused, or that was
+ * refused because too many operations are already waiting on it. Handlers answer it with
+ * 503 Service Unavailable, since the same request may succeed once the connection recovers
+ * or the operations before it finish.
+ */
+public class DatabaseUnavailableException extends RuntimeException {
+
+  /**
+   * Creates the exception with the message of the failed operation.
+   *
+   * @param message A String describing the operation and why it failed.
+   */
+  public DatabaseUnavailableException(String message) {
+    super(message);
+  }
+}
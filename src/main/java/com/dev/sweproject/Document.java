@@ -1,13 +1,17 @@
 package com.dev.sweproject;
 
+import com.google.firebase.database.Exclude;
 import com.google.firebase.database.annotations.NotNull;
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.StringReader;
-import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Base64;
 import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Random;
 import org.springframework.web.multipart.MultipartFile;
 
@@ -19,11 +23,16 @@ public class Document {
 
   private String userId;
   private String clientId;
+  //the contents are held in one form only, raw bytes or the '#' prefixed Base64 file string
   private byte[] fileContents;
   private String thisfileContents;
   private String docId;
   private String title;
   private int wordCount;
+  private int versionCount;
+  private long size;
+  private long timestamp;
+  private String contentHash;
   private ArrayList<Document> previousVersions;
   private static final Random RANDOM = new Random();
 
@@ -52,12 +61,9 @@ public class Document {
     this.wordCount = wordCount;
     this.previousVersions = new ArrayList<>(DOC_ID_LENGTH);
     this.previousVersions.add(new Document());
-    this.fileContents = new byte[0];
-    this.thisfileContents = "#";
-    if (file != null) {
-      this.fileContents = file.getBytes();
-      this.thisfileContents = "#" + Base64.getEncoder().encodeToString(fileContents);
-    }
+    this.fileContents = file == null ? new byte[0] : file.getBytes();
+    this.size = fileContents.length;
+    this.timestamp = System.currentTimeMillis();
   }
 
   /**
@@ -78,12 +84,9 @@ public class Document {
     this.wordCount = 0;
     this.previousVersions = new ArrayList<>(DOC_ID_LENGTH);
     this.previousVersions.add(new Document());
-    this.fileContents = new byte[0];
-    this.thisfileContents = "#";
-    if (file != null) {
-      this.fileContents = file.getBytes();
-      this.thisfileContents = "#" + Base64.getEncoder().encodeToString(fileContents);
-    }
+    this.fileContents = file == null ? new byte[0] : file.getBytes();
+    this.size = fileContents.length;
+    this.timestamp = System.currentTimeMillis();
   }
 
   /**
@@ -108,12 +111,9 @@ public class Document {
     this.title = title;
     this.wordCount = wordCount;
     this.previousVersions = previousVersions;
-    this.fileContents = new byte[0];
-    this.thisfileContents = "#";
-    if (file != null) {
-      this.fileContents = file.getBytes();
-      this.thisfileContents = "#" + Base64.getEncoder().encodeToString(fileContents);
-    }
+    this.fileContents = file == null ? new byte[0] : file.getBytes();
+    this.size = fileContents.length;
+    this.timestamp = System.currentTimeMillis();
   }
 
   //A Private constructor meant only for internal use: factory pattern
@@ -124,7 +124,6 @@ public class Document {
     this.title = "";
     this.wordCount = 0;
     this.fileContents = new byte[0];
-    this.thisfileContents = "#";
   }
 
   /**
@@ -244,7 +243,10 @@ public class Document {
    * @return an int representing how many words exist
    */
   public String getFileString() {
-    return this.thisfileContents;
+    if (thisfileContents != null) {
+      return thisfileContents;
+    }
+    return "#" + Base64.getEncoder().encodeToString(fileContents);
   }
 
   /**
@@ -254,6 +256,80 @@ public class Document {
    */
   public void setFileString(String newString) {
     this.thisfileContents = newString;
+    this.fileContents = null;
+    this.contentHash = null;
+    this.size = decodedLength(newString);
+  }
+
+  /**
+   * Reassigns the file's contents from raw bytes.
+   *
+   * @param contents A byte[] representing the file's contents.
+   */
+  public void setContents(byte[] contents) {
+    setContents(contents, null);
+  }
+
+  /**
+   * Reassigns the file's contents from raw bytes whose digest is already known, so that
+   * they are not hashed again.
+   *
+   * @param contents A byte[] representing the file's contents.
+   * @param contentHash A String representing the SHA-256 digest of the contents in
+   *                    hexadecimal, or null to compute it when needed.
+   */
+  public void setContents(byte[] contents, String contentHash) {
+    this.fileContents = contents;
+    this.thisfileContents = null;
+    this.contentHash = contentHash;
+    this.size = contents.length;
+  }
+
+  /**
+   * Records the size and digest of contents stored without the document holding them, as
+   * for uploads streamed into the database a chunk at a time. The contents then read as
+   * empty.
+   *
+   * @param size A long representing the size of the contents in bytes.
+   * @param contentHash A String representing the SHA-256 digest of the contents in
+   *                    hexadecimal.
+   */
+  public void setStoredContents(long size, String contentHash) {
+    this.fileContents = new byte[0];
+    this.thisfileContents = null;
+    this.contentHash = contentHash;
+    this.size = size;
+  }
+
+  /**
+   * Computes how many bytes a file string holds without decoding it.
+   *
+   * @param fileString A String representing '#' followed by the Base64 encoded contents.
+   * @return a long representing the length of the decoded contents
+   */
+  public static long decodedLength(String fileString) {
+    if (fileString == null || fileString.length() <= 1) {
+      return 0;
+    }
+    int padding = fileString.endsWith("==") ? 2 : fileString.endsWith("=") ? 1 : 0;
+    return (fileString.length() - 1) / 4L * 3 - padding;
+  }
+
+  /**
+   * Retrieves the document's contents as raw bytes, decoding them only when the document
+   * holds its contents as a file string.
+   *
+   * @return a byte[] holding the contents of the document
+   */
+  @Exclude
+  public byte[] getContents() {
+    if (fileContents != null) {
+      return fileContents;
+    }
+    if (thisfileContents.length() <= 1) {
+      return new byte[0];
+    }
+    return Base64.getDecoder().decode(thisfileContents.substring(1));
   }
 
   /**
@@ -265,6 +341,95 @@ public class Document {
     this.wordCount = wordCount;
   }
 
+  /**
+   * Retrieves how many previous versions of the document are on record. Documents loaded
+   * without their version history report the count stored in their metadata.
+   *
+   * @return an int representing the number of previous versions
+   */
+  public int getVersionCount() {
+    if (previousVersions == null) {
+      return this.versionCount;
+    }
+    return previousVersions.size() - 1;
+  }
+
+  /**
+   * Updates the number of previous versions on record, used when the version
+   * history itself is not loaded.
+   *
+   * @param versionCount count of previous versions
+   */
+  public void setVersionCount(int versionCount) {
+    this.versionCount = versionCount;
+  }
+
+  /**
+   * Retrieves the size of the document's contents.
+   *
+   * @return a long representing the size of the contents in bytes
+   */
+  public long getSize() {
+    return this.size;
+  }
+
+  /**
+   * Retrieves when this version of the document was uploaded.
+   *
+   * @return a long representing the upload time in milliseconds since the epoch
+   */
+  public long getTimestamp() {
+    return this.timestamp;
+  }
+
+  /**
+   * Retrieves the SHA-256 digest of the document's contents, two documents with the same
+   * digest have the same contents.
+   *
+   * @return a String representing the digest in hexadecimal
+   */
+  public String getContentHash() {
+    if (contentHash == null) {
+      contentHash = hashContents(getContents());
+    }
+    return contentHash;
+  }
+
+  /**
+   * Computes the SHA-256 digest of a file's contents.
+   *
+   * @param contents A byte[] representing the contents.
+   * @return a String representing the digest in hexadecimal
+   */
+  public static String hashContents(byte[] contents) {
+    try {
+      return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(contents));
+    } catch (NoSuchAlgorithmException e) {
+      //every Java platform is required to support SHA-256
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Builds the metadata stored for the document, everything except the file's
+   * contents and its previous versions.
+   *
+   * @return A Map containing the metadata of the document.
+   */
+  public Map<String, Object> toMetadata() {
+    Map<String, Object> metadata = new LinkedHashMap<>();
+    metadata.put("userId", userId);
+    metadata.put("clientId", clientId);
+    metadata.put("docId", docId);
+    metadata.put("title", title);
+    metadata.put("wordCount", wordCount);
+    metadata.put("versionCount", getVersionCount());
+    metadata.put("size", size);
+    metadata.put("timestamp", timestamp);
+    metadata.put("contentHash", getContentHash());
+    return metadata;
+  }
+
   /**
    * Gives a String representation of the object.
    *
@@ -279,8 +444,9 @@ public class Document {
    * Converts a HashMap in JSON format to a Document object.
    *
    * @param map A HashMap containing key-value pairs representing document attributes.
-   *            Required keys: "userId," "clientId," "docId," "title," "previousVersions,"
-   *            "fileString," and "wordCount."
+   *            Required keys: "userId," "clientId," "docId," "title," and "wordCount."
+   *            Metadata read without contents carries "versionCount" in place of
+   *            "previousVersions" and "fileString."
    * @return A Document wrapper type created from the provided HashMap.
    * @throws IOException If an IO error occurs during document creation.
    */
@@ -291,22 +457,32 @@ public class Document {
     String title = (String) map.get("title");
     ArrayList<Document> previous = (ArrayList<Document>) map.get("previousVersions");
     String fileString = (String) map.get("fileString");
-    byte[] fileContents;
-    if (fileString != null) {
-      fileContents = Base64.getDecoder().decode(fileString.substring(1));
-    } else {
-      fileContents = new byte[0];
-    }
     int wordCount = ((Long) map.get("wordCount")).intValue();
 
-    return new Document(userId, clientId, createFile(fileContents, title), docId,
-        title, wordCount, previous);
+    //the file string is kept as it is, it is only decoded if the raw contents are needed
+    Document document = new Document(userId, clientId, null, docId, title, wordCount,
+        previous);
+    if (fileString != null) {
+      document.setFileString(fileString);
+    }
+    if (map.get("versionCount") != null) {
+      document.setVersionCount(((Long) map.get("versionCount")).intValue());
+    }
+    if (map.get("size") != null) {
+      document.size = (Long) map.get("size");
+    }
+    document.timestamp = map.get("timestamp") == null ? 0 : (Long) map.get("timestamp");
+    if (fileString == null) {
+      document.contentHash = (String) map.get("contentHash");
+    }
+    return document;
   }
 
   /**
    * Indicates whether some other object is "equal to" this Document.
    * Two Document objects are considered equal if they have the same word count, title,
-   * document ID, client ID, and user ID.
+   * document ID, client ID, user ID and contents, the contents are compared by their
+   * digests.
    *
    * @param o The object to compare for equality.
    * @return {@code true} if the objects are equal; {@code false} otherwise.
@@ -326,50 +502,22 @@ public class Document {
         && this.getDocId().equals(other.getDocId())
         && this.getClientId().equals(other.getClientId())
         && this.getUserId().equals(other.getUserId())
-        && this.getFileString().equals(other.getFileString());
+        && this.getContentHash().equals(other.getContentHash());
   }
 
   @Override
   public int hashCode() {
-    return super.hashCode() + 1;
+    return Objects.hash(wordCount, title, docId, clientId, userId, getContentHash());
   }
 
   /**
-   * Counts the words in a file.
+   * Counts the words in a file, the runs of characters separated by whitespace.
    *
    * @param contents The contents in a file
    * @return The word count
    */
   public static int countWords(byte[] contents) {
-    int wordCount = 0;
-
-    try {
-      try (StringReader stringReader = new StringReader(
-          new String(contents, StandardCharsets.UTF_8));
-           BufferedReader reader = new BufferedReader(stringReader)) {
-
-        String line = reader.readLine();
-        while (line != null) {
-          String[] words = line.split("\\s+"); // splits by spaces
-          wordCount += countNonEmpty(words);
-          line = reader.readLine();
-        }
-      }
-    } catch (IOException e) {
-      e.printStackTrace();
-    }
-
-    return wordCount;
-  }
-
-  private static int countNonEmpty(String[] words) {
-    int count = 0;
-    for (String word : words) {
-      if (!word.isEmpty()) {
-        count++;
-      }
-    }
-    return count;
+    return WordCounter.count(contents);
   }
 
   /**
@@ -426,7 +574,7 @@ public class Document {
       slashLocation = userId.indexOf("/", start);
     }
 
-    result.append("There is/are ").append(previousVersions.size() - 1)
+    result.append("There is/are ").append(getVersionCount())
         .append(" previous versions on record");
 
     return result.toString();
@@ -489,7 +637,7 @@ public class Document {
     resultBuilder.append("\n");
 
     //logic dealing with version counts
-    int versionCountDiff = (this.previousVersions.size() - 1) - (other.previousVersions.size() - 1);
+    int versionCountDiff = this.getVersionCount() - other.getVersionCount();
     if (versionCountDiff > 0) {
       resultBuilder.append(this.getTitle()).append(hasString).append(versionCountDiff)
               .append(" more versions than ").append(other.getTitle());
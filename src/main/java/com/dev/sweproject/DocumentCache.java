@@ -0,0 +1,332 @@
+package com.dev.sweproject;
+
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.ValueEventListener;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.BiFunction;
+
+/**
+ * The DocumentCache class holds the metadata and current contents of recently read
+ * documents in memory, keyed by network and document ID. It is bounded by an estimate of
+ * the bytes held rather than by the number of documents, evicting the least recently used
+ * documents once the bound is exceeded.
+ *
+ * <p>
+ * Every cached document is watched through a ValueEventListener on its own metadata, so
+ * that only the metadata of cached documents is synchronized rather than whole networks. A
+ * document changed or removed by another instance is dropped from the cache, and its
+ * listener is detached once it is evicted or invalidated. Writes made through this instance
+ * invalidate the documents they touch, and a read that was started before its document was
+ * invalidated is never cached, so a read following a write made on the same instance always
+ * observes that write. Invalidations are stamped per document and per network, so writes to
+ * other documents do not keep a document from being cached.
+ * </p>
+ */
+public class DocumentCache {
+
+  //estimated size of the metadata of a document, excluding its strings
+  private static final long METADATA_BYTES = 256;
+
+  //invalidation stamps kept before they are folded into the floor
+  private static final int MAX_STAMPS = 10_000;
+
+  private final long maxBytes;
+  private final BiFunction<String, String, DatabaseReference> documentReference;
+  private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private final Map<String, String> titles = new HashMap<>();
+  private final Map<String, ValueEventListener> listeners = new HashMap<>();
+  //the generation each document, and each network, was last invalidated in
+  private final Map<String, Long> invalidatedDocuments = new HashMap<>();
+  private final Map<String, Long> invalidatedNetworks = new HashMap<>();
+  private long bytes;
+  private long generation;
+  //reads started before the floor are refused, the stamps before it having been dropped
+  private long floor;
+  private long hits;
+  private long misses;
+  private long evictions;
+  private long invalidations;
+
+  /**
+   * Creates a cache holding at most the given number of bytes.
+   *
+   * @param maxBytes A long representing the bound on the bytes held, 0 disables the cache.
+   * @param documentReference A BiFunction giving the reference of a document's metadata from
+   *                          its network and ID, used to watch it for changes, or null to
+   *                          not watch documents.
+   */
+  public DocumentCache(long maxBytes,
+                       BiFunction<String, String, DatabaseReference> documentReference) {
+    this.maxBytes = maxBytes;
+    this.documentReference = documentReference;
+  }
+
+  /**
+   * Looks up the metadata of a cached document by its title.
+   *
+   * @param collectionName A String representing the network the document belongs to.
+   * @param title A String representing the title of the document.
+   * @return The DataSnapshot of the document's metadata, or null if it is not cached.
+   */
+  public synchronized DataSnapshot getMetadata(String collectionName, String title) {
+    String key = titles.get(key(collectionName, title));
+    Entry entry = key == null ? null : entries.get(key);
+    if (entry == null) {
+      misses++;
+      return null;
+    }
+    hits++;
+    return entry.metadata;
+  }
+
+  /**
+   * Looks up the current contents of a cached document.
+   *
+   * @param collectionName A String representing the network the document belongs to.
+   * @param documentId A String representing the ID of the document.
+   * @return A String representing the document's file string, or null if it is not cached.
+   */
+  public synchronized String getContents(String collectionName, String documentId) {
+    Entry entry = entries.get(key(collectionName, documentId));
+    if (entry == null || entry.contents == null) {
+      misses++;
+      return null;
+    }
+    hits++;
+    return entry.contents;
+  }
+
+  /**
+   * Returns the current generation of the cache, to be passed to the put methods by reads
+   * started now. The generation changes with every invalidation, a read is only refused when
+   * its own document or network was invalidated after the generation it started in.
+   *
+   * @return A long representing the current generation.
+   */
+  public synchronized long generation() {
+    return generation;
+  }
+
+  /**
+   * Caches the metadata of a document unless the document was invalidated since the read
+   * that produced it started.
+   *
+   * @param collectionName A String representing the network the document belongs to.
+   * @param documentSnapshot A DataSnapshot of the document's metadata.
+   * @param readGeneration A long representing the generation when the read started.
+   */
+  public synchronized void putMetadata(String collectionName, DataSnapshot documentSnapshot,
+                                       long readGeneration) {
+    String title = documentSnapshot.child("title").getValue(String.class);
+    String key = key(collectionName, documentSnapshot.getKey());
+    if (isStale(collectionName, key, readGeneration) || maxBytes <= 0 || title == null) {
+      return;
+    }
+    Entry previous = entries.get(key);
+    if (previous != null && Objects.equals(previous.metadata.getValue(),
+        documentSnapshot.getValue())) {
+      return;
+    }
+    remove(key);
+    Entry entry = new Entry(collectionName, documentSnapshot.getKey(), title,
+        documentSnapshot);
+    entries.put(key, entry);
+    titles.put(key(collectionName, title), key);
+    watch(entry);
+    bytes += entry.weight;
+    evict();
+  }
+
+  /**
+   * Caches the contents of a document whose metadata is cached unless the document was
+   * invalidated since the read that produced them started.
+   *
+   * @param collectionName A String representing the network the document belongs to.
+   * @param documentId A String representing the ID of the document.
+   * @param contents A String representing the document's file string.
+   * @param readGeneration A long representing the generation when the read started.
+   */
+  public synchronized void putContents(String collectionName, String documentId,
+                                       String contents, long readGeneration) {
+    String key = key(collectionName, documentId);
+    Entry entry = entries.get(key);
+    if (isStale(collectionName, key, readGeneration) || entry == null
+        || entry.contents != null) {
+      return;
+    }
+    entry.contents = contents;
+    entry.weight += contents.length();
+    bytes += contents.length();
+    evict();
+  }
+
+  /**
+   * Drops a document from the cache.
+   *
+   * @param collectionName A String representing the network the document belongs to.
+   * @param documentId A String representing the ID of the document.
+   */
+  public synchronized void invalidate(String collectionName, String documentId) {
+    String key = key(collectionName, documentId);
+    stamp(invalidatedDocuments, key);
+    if (remove(key)) {
+      invalidations++;
+    }
+  }
+
+  /**
+   * Drops every document of a network from the cache.
+   *
+   * @param collectionName A String representing the network.
+   */
+  public synchronized void invalidateNetwork(String collectionName) {
+    stamp(invalidatedNetworks, collectionName);
+    Iterator<Entry> iterator = entries.values().iterator();
+    while (iterator.hasNext()) {
+      Entry entry = iterator.next();
+      if (entry.collectionName.equals(collectionName)) {
+        iterator.remove();
+        forget(entry);
+        invalidations++;
+      }
+    }
+  }
+
+  /**
+   * Reports the hits, misses, evictions and invalidations counted so far along with the
+   * number of documents and bytes currently held.
+   *
+   * @return A Map from the name of each statistic to its value.
+   */
+  public synchronized Map<String, Long> getStatistics() {
+    Map<String, Long> statistics = new LinkedHashMap<>();
+    statistics.put("hits", hits);
+    statistics.put("misses", misses);
+    statistics.put("evictions", evictions);
+    statistics.put("invalidations", invalidations);
+    statistics.put("documents", (long) entries.size());
+    statistics.put("bytes", bytes);
+    statistics.put("maxBytes", maxBytes);
+    return statistics;
+  }
+
+  //whether the document or its network was invalidated after the read started
+  private boolean isStale(String collectionName, String key, long readGeneration) {
+    return readGeneration < floor
+        || invalidatedDocuments.getOrDefault(key, Long.MIN_VALUE) >= readGeneration
+        || invalidatedNetworks.getOrDefault(collectionName, Long.MIN_VALUE) >= readGeneration;
+  }
+
+  //the stamps are bounded by dropping them all, refusing every read started before then
+  private void stamp(Map<String, Long> stamps, String key) {
+    if (stamps.size() >= MAX_STAMPS) {
+      invalidatedDocuments.clear();
+      invalidatedNetworks.clear();
+      floor = generation;
+    }
+    stamps.put(key, generation++);
+  }
+
+  private void evict() {
+    Iterator<Entry> iterator = entries.values().iterator();
+    while (bytes > maxBytes && iterator.hasNext()) {
+      Entry eldest = iterator.next();
+      iterator.remove();
+      forget(eldest);
+      evictions++;
+    }
+  }
+
+  private boolean remove(String key) {
+    Entry entry = entries.remove(key);
+    if (entry == null) {
+      return false;
+    }
+    forget(entry);
+    return true;
+  }
+
+  //releases everything held for an entry already removed from entries
+  private void forget(Entry entry) {
+    bytes -= entry.weight;
+    String titleKey = key(entry.collectionName, entry.title);
+    String key = key(entry.collectionName, entry.documentId);
+    if (key.equals(titles.get(titleKey))) {
+      titles.remove(titleKey);
+    }
+    unwatch(entry, key);
+  }
+
+  //the first event describes the document as it was when the watch started
+  private void watch(Entry entry) {
+    if (documentReference == null) {
+      return;
+    }
+    String key = key(entry.collectionName, entry.documentId);
+    ValueEventListener listener = new ValueEventListener() {
+      @Override
+      public void onDataChange(DataSnapshot snapshot) {
+        invalidateIfChanged(entry, snapshot);
+      }
+
+      @Override
+      public void onCancelled(DatabaseError databaseError) {
+        System.out.println("Stopped watching " + key + ": " + databaseError.getMessage());
+        synchronized (DocumentCache.this) {
+          listeners.remove(key);
+          invalidate(entry.collectionName, entry.documentId);
+        }
+      }
+    };
+    listeners.put(key, listener);
+    documentReference.apply(entry.collectionName, entry.documentId)
+        .addValueEventListener(listener);
+  }
+
+  private void unwatch(Entry entry, String key) {
+    ValueEventListener listener = listeners.remove(key);
+    if (listener != null) {
+      documentReference.apply(entry.collectionName, entry.documentId)
+          .removeEventListener(listener);
+    }
+  }
+
+  //only the entry the listener was attached for is dropped, not one that replaced it
+  private synchronized void invalidateIfChanged(Entry watched, DataSnapshot snapshot) {
+    String key = key(watched.collectionName, watched.documentId);
+    if (entries.get(key) == watched
+        && !Objects.equals(watched.metadata.getValue(), snapshot.getValue())) {
+      invalidate(watched.collectionName, watched.documentId);
+    }
+  }
+
+  private static String key(String collectionName, String child) {
+    return collectionName + "/" + child;
+  }
+
+  private static final class Entry {
+    private final String collectionName;
+    private final String documentId;
+    private final String title;
+    private final DataSnapshot metadata;
+    private String contents;
+    private long weight;
+
+    private Entry(String collectionName, String documentId, String title,
+                  DataSnapshot metadata) {
+      this.collectionName = collectionName;
+      this.documentId = documentId;
+      this.title = title;
+      this.metadata = metadata;
+      Object userId = metadata.child("userId").getValue();
+      this.weight = METADATA_BYTES + title.length()
+          + (userId == null ? 0 : userId.toString().length());
+    }
+  }
+}
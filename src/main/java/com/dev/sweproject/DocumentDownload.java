@@ -0,0 +1,176 @@
+package com.dev.sweproject;
+
+import com.google.firebase.database.DataSnapshot;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+
+/**
+ * The DocumentDownload class resolves a download of a stored document from its metadata
+ * and the request's headers, before any contents are read: whether the user may read the
+ * document, whether the copy they hold is still current and which bytes to send. Both the
+ * servlet and the reactive stack answer /download-doc from it, so they answer alike.
+ *
+ * <p>
+ * An If-None-Match matching the document's ETag is answered with 304 Not Modified, and a
+ * single byte Range, unless an If-Range names another ETag, with 206 Partial Content or
+ * 416 Range Not Satisfiable when it starts past the end of the document.
+ * </p>
+ */
+public final class DocumentDownload {
+
+  private static final String NOT_OWNER = "You do not have ownership of this document";
+
+  private final HttpStatus status;
+  private final HttpHeaders headers;
+  private final String message;
+  private final boolean contents;
+  private final long offset;
+  private final long length;
+
+  private DocumentDownload(HttpStatus status, HttpHeaders headers, String message,
+                           boolean contents, long offset, long length) {
+    this.status = status;
+    this.headers = headers;
+    this.message = message;
+    this.contents = contents;
+    this.offset = offset;
+    this.length = length;
+  }
+
+  /**
+   * Resolves the download of a document found by searchForDocument.
+   *
+   * @param dataSnapshot A DataSnapshot of the document's metadata, which may not exist.
+   * @param documentName A String representing the name the document is downloaded as.
+   * @param yourUserId A String representing the user downloading the document.
+   * @param requestHeaders The HttpHeaders of the request.
+   * @return A DocumentDownload describing the response.
+   * @throws IOException If the document's metadata can not be read.
+   */
+  public static DocumentDownload resolve(DataSnapshot dataSnapshot, String documentName,
+                                         String yourUserId, HttpHeaders requestHeaders)
+      throws IOException {
+    if (!dataSnapshot.exists()) {
+      return new DocumentDownload(HttpStatus.OK, new HttpHeaders(), null, false, 0, -1);
+    }
+    Map<String, Object> metadata = (Map<String, Object>) dataSnapshot.getValue();
+    Document myDocument = Document.convertToDocument(new HashMap<>(metadata));
+    if (!FirebaseService.hasUser(myDocument.getUserId(), yourUserId)) {
+      return new DocumentDownload(HttpStatus.FORBIDDEN, new HttpHeaders(), NOT_OWNER, false,
+          0, -1);
+    }
+
+    String entityTag = SweProjectApplication.contentTag(metadata);
+    HttpHeaders headers = new HttpHeaders();
+    if (SweProjectApplication.isNotModified(requestHeaders, entityTag)) {
+      headers.setETag(entityTag);
+      return new DocumentDownload(HttpStatus.NOT_MODIFIED, headers, null, false, 0, -1);
+    }
+    headers.setContentDispositionFormData("attachment", documentName);
+    headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
+    if (entityTag != null) {
+      headers.setETag(entityTag);
+    }
+    long offset = 0;
+    long length = -1;
+    HttpRange range = null;
+    if (dataSnapshot.hasChild("size")) {
+      length = myDocument.getSize();
+      headers.set(HttpHeaders.ACCEPT_RANGES, "bytes");
+      range = requestedRange(requestHeaders, entityTag);
+    }
+    if (range != null) {
+      long size = length;
+      offset = range.getRangeStart(size);
+      if (offset >= size) {
+        HttpHeaders unsatisfiable = new HttpHeaders();
+        unsatisfiable.set(HttpHeaders.CONTENT_RANGE, "bytes */" + size);
+        return new DocumentDownload(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE, unsatisfiable,
+            null, false, 0, -1);
+      }
+      length = range.getRangeEnd(size) - offset + 1;
+      headers.set(HttpHeaders.CONTENT_RANGE,
+          "bytes " + offset + "-" + (offset + length - 1) + "/" + size);
+    }
+    if (length >= 0) {
+      headers.setContentLength(length);
+    }
+    return new DocumentDownload(range != null ? HttpStatus.PARTIAL_CONTENT : HttpStatus.OK,
+        headers, null, true, offset, length);
+  }
+
+  //the single range requested, null when the whole document is to be sent, as it is for
+  //malformed or multiple ranges and for an If-Range naming another ETag
+  private static HttpRange requestedRange(HttpHeaders requestHeaders, String entityTag) {
+    String ifRange = requestHeaders.getFirst(HttpHeaders.IF_RANGE);
+    if (ifRange != null && !ifRange.equals(entityTag)) {
+      return null;
+    }
+    try {
+      List<HttpRange> ranges = requestHeaders.getRange();
+      return ranges.size() == 1 ? ranges.get(0) : null;
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Returns the status of the response.
+   *
+   * @return The HttpStatus of the response.
+   */
+  public HttpStatus getStatus() {
+    return status;
+  }
+
+  /**
+   * Returns the headers of the response.
+   *
+   * @return The HttpHeaders of the response.
+   */
+  public HttpHeaders getHeaders() {
+    return headers;
+  }
+
+  /**
+   * Returns the text the response explains a refusal with.
+   *
+   * @return A String representing the message, or null if the download is not refused.
+   */
+  public String getMessage() {
+    return message;
+  }
+
+  /**
+   * Tells whether the response carries the document's contents.
+   *
+   * @return {@code true} if the contents are sent; {@code false} otherwise.
+   */
+  public boolean hasContents() {
+    return contents;
+  }
+
+  /**
+   * Returns the offset of the first byte of the contents sent.
+   *
+   * @return A long representing the offset.
+   */
+  public long getOffset() {
+    return offset;
+  }
+
+  /**
+   * Returns the number of bytes of the contents sent.
+   *
+   * @return A long representing the length, or -1 if the size of the document is unknown.
+   */
+  public long getLength() {
+    return length;
+  }
+}
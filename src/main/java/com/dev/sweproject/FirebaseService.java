@@ -5,16 +5,42 @@ import com.google.firebase.database.DataSnapshot;
 import com.google.firebase.database.DatabaseError;
 import com.google.firebase.database.DatabaseReference;
 import com.google.firebase.database.FirebaseDatabase;
+import com.google.firebase.database.MutableData;
+import com.google.firebase.database.Query;
+import com.google.firebase.database.Transaction;
 import com.google.firebase.database.ValueEventListener;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.zip.Deflater;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MaxUploadSizeExceededException;
 import org.springframework.web.multipart.MultipartFile;
 
 /**
@@ -40,14 +66,265 @@ public class FirebaseService {
    */
   public static final int NETWORK_ID_LENGTH = 3;
 
+  /**
+   * The root node holding the lookup indexes of every network, stored as
+   * index/{networkId}/titles/{encodedTitle} = docId and
+   * index/{networkId}/users/{encodedUserId}/{docId} = title. While the first upload of a
+   * title is being committed its entry holds the claim {docId, commit}, with the time it
+   * was claimed, until the update writing the document replaces it with the docId.
+   */
+  public static final String INDEX_COLLECTION = "index";
+
+  /**
+   * The layout version of the network indexes, networks marked with an older
+   * version are rebuilt (and their documents migrated) from a full scan the next time
+   * they are searched.
+   */
+  public static final int INDEX_VERSION = 3;
+
+  /**
+   * The root node holding the current contents of every document, stored as
+   * contents/{networkId}/{docId} = the contents encoded by a ContentCodec, or a '#' prefixed
+   * Base64 file string for contents stored before codecs existed. The document node in the
+   * network itself only holds the document's metadata.
+   */
+  public static final String CONTENTS_COLLECTION = "contents";
+
+  /**
+   * The root node holding the contents of previous versions, stored as
+   * versions/{networkId}/{docId}/{revisionNumber}. A version is either a full copy, stored
+   * like the current contents, or a "^" prefixed Base64 VersionDelta against the next newer
+   * version, the newest version's delta being against the current contents.
+   */
+  public static final String VERSIONS_COLLECTION = "versions";
+
+  /**
+   * The root node holding the chunks of contents larger than the chunk size, stored once
+   * per network as chunks/{networkId}/{hash} = {data, size, owners}, where hash is the
+   * SHA-256 digest of the chunk, data the chunk encoded by a ContentCodec and
+   * owners/{docId}/{"current" or revisionNumber} an entry for every manifest listing it,
+   * or owners/{uploadId}/pending while a streamed upload has not committed its manifest.
+   * A chunked document's contents node, or a chunked version's node, holds its manifest,
+   * the hashes of its chunks in order, and the metadata of a chunked document records its
+   * chunkCount. Chunks without owners are removed once the manifests listing them are.
+   */
+  public static final String CHUNKS_COLLECTION = "chunks";
+
+  /**
+   * Every KEYFRAME_INTERVAL-th version is stored in full instead of as a delta, so
+   * reconstructing any version applies at most KEYFRAME_INTERVAL - 1 deltas.
+   */
+  public static final int KEYFRAME_INTERVAL = 10;
+
+  private static final String DELTA_PREFIX = "^";
+
+  private static final String CURRENT_OWNER = "current";
+
+  private static final String PENDING_OWNER = "pending";
+
+  /**
+   * The number of chunks read ahead of the one being consumed when a document is streamed.
+   */
+  public static final int READ_AHEAD_CHUNKS = 4;
+
+  //the chunks of a streamed upload being stored at a time, which bounds the memory it holds
+  private static final int WRITE_AHEAD_CHUNKS = 8;
+
+  //the SDK rejects writes over 16MB, chunks are written in updates of at most this size
+  private static final int MAX_UPDATE_BYTES = 8 << 20;
+
+  /**
+   * The root node holding the metadata of previous versions, stored as
+   * history/{networkId}/{docId}/{revisionNumber} = metadata.
+   */
+  public static final String HISTORY_COLLECTION = "history";
+
+  /**
+   * The root node holding the resumable upload sessions of every network, stored as
+   * uploads/{networkId}/{sessionId} = {documentName, userId, contentType, created, parts},
+   * where parts/{partNumber} = {hash, size} for every part uploaded so far. The parts are
+   * stored as chunks owned by owners/{sessionId}/pending/{partNumber} until the session is
+   * committed or aborted. A streamed upload records the chunks it stores the same way, as
+   * uploads/{networkId}/{uploadId} = {created, parts}, so that an upload that never ends
+   * is aborted like a session left behind. The sessions are indexed on created, see
+   * database.rules.json.
+   */
+  public static final String UPLOADS_COLLECTION = "uploads";
+
+  /**
+   * The root node listing every network that has had upload sessions, stored as
+   * uploadNetworks/{networkId} = true, from which the expired sessions are found.
+   */
+  public static final String UPLOAD_NETWORKS_COLLECTION = "uploadNetworks";
+
+  /**
+   * The largest part of a resumable upload accepted.
+   */
+  public static final int MAX_PART_BYTES = 4 << 20;
+
+  /**
+   * The highest part number of a resumable upload, parts are numbered from 1.
+   */
+  public static final int MAX_UPLOAD_PARTS = 10_000;
+
+  //sessions left this long are aborted by abortExpiredUploads
+  private static final long UPLOAD_SESSION_TTL_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+  /**
+   * The result of uploadFile when the uploaded contents match the document's current
+   * contents, in which case nothing is written.
+   */
+  public static final String DUPLICATE_UPLOAD = "File already exists!";
+
+  /**
+   * The field of a document's metadata claiming its next version for an upload being
+   * committed, holding the time it was claimed. It is set in a transaction finding the
+   * metadata as the upload read it, and removed by the update writing the version.
+   */
+  public static final String COMMIT_CLAIM = "commit";
+
+  //a claim this old was left by an upload that failed before writing its version
+  private static final long COMMIT_CLAIM_TTL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+  //an upload losing the claim looks the document up again, waiting longer every attempt
+  private static final int MAX_COMMIT_ATTEMPTS = 5;
+  private static final long COMMIT_BACKOFF_MILLIS = 100;
+
+  //the result of an upload attempt whose claim was lost to a concurrent upload
+  private static final Object VERSION_CONFLICT = new Object();
+
+  /**
+   * The executor CPU-bound continuations run on: decoding and encoding contents, rebuilding
+   * versions, converting and serializing documents. Firebase completes every read on its
+   * single event thread, a continuation left on it holds back the results of all other
+   * reads until it returns.
+   */
+  public static final Executor COMPUTE_EXECUTOR = new ForkJoinPool(
+      Runtime.getRuntime().availableProcessors());
+
+  private static final int UPLOAD_THREADS = 16;
+  private static final int UPLOAD_QUEUE = 64;
+
+  /**
+   * The executor uploads block on, off the request threads: the reading of streamed bodies
+   * and parts, and the commits of upload sessions, each waiting for the chunks it stores.
+   * Its threads and the uploads waiting for one are bounded, an upload beyond them is
+   * refused with a DatabaseUnavailableException.
+   */
+  public static final Executor UPLOAD_EXECUTOR = newUploadExecutor();
+
+  private static final String TITLE_INDEX = "titles";
+  private static final String USER_INDEX = "users";
+  private static final String INDEX_VERSION_KEY = "version";
+
+  //networks whose index is known to be complete, avoids re-reading the version marker
+  private final Set<String> indexedNetworks;
+
+  private final DocumentCache documentCache;
+
+  //reads in flight by the path and parameters of the query they read, shared by identical
+  //concurrent reads
+  private final Map<String, InFlightRead> inFlightReads;
+  private final long coalescingWindowNanos;
+  private final AtomicLong coalescedReads;
+
+  private final ContentCodec contentCodec;
+  private final int compressionLevel;
+  private final int chunkSize;
+  private final long maxUploadBytes;
+  private final long operationTimeoutMillis;
+  //the service a view made by within reads and writes through, the service itself otherwise
+  private final FirebaseService source;
+  //whether this is such a view, whose operations fail by the System.nanoTime() deadline
+  private final boolean bounded;
+  private final long deadline;
+
   /**
    * Creates an instance of the Firebase Service.
    *
    * @param firebaseApp A `FirebaseApp` object representing the Firebase configuration.
+   * @param cacheMaxBytes A long representing how many bytes of documents may be cached.
+   * @param coalescingWindowMillis A long representing for how long after a read starts
+   *                               identical reads share it, 0 disables coalescing.
+   * @param contentCodec A String naming the ContentCodec new contents are stored with.
+   * @param compressionLevel An int representing the codec's compression level, 0 to 9.
+   * @param chunkSize An int representing the size in bytes above which contents are chunked,
+   *                  which is also the average size of the chunks.
+   * @param maxUploadBytes A long representing the largest streamed upload accepted.
+   * @param operationTimeoutMillis A long representing how long a read or write may wait for
+   *                               Firebase before it fails, 0 waits indefinitely.
    */
   @Autowired
-  public FirebaseService(FirebaseApp firebaseApp) {
+  public FirebaseService(FirebaseApp firebaseApp,
+                         @Value("${document.cache.max-bytes:67108864}") long cacheMaxBytes,
+                         @Value("${firebase.read.coalescing-window-ms:200}")
+                         long coalescingWindowMillis,
+                         @Value("${content.codec:deflate}") String contentCodec,
+                         @Value("${content.compression-level:6}") int compressionLevel,
+                         @Value("${content.chunk-size:65536}") int chunkSize,
+                         @Value("${upload.max-bytes:268435456}") long maxUploadBytes,
+                         @Value("${firebase.timeout-ms:10000}") long operationTimeoutMillis) {
+    if (compressionLevel < Deflater.NO_COMPRESSION
+        || compressionLevel > Deflater.BEST_COMPRESSION) {
+      throw new IllegalArgumentException("content.compression-level must be from "
+          + Deflater.NO_COMPRESSION + " to " + Deflater.BEST_COMPRESSION + ", not "
+          + compressionLevel);
+    }
     this.firebaseApp = firebaseApp;
+    this.indexedNetworks = ConcurrentHashMap.newKeySet();
+    this.inFlightReads = new ConcurrentHashMap<>();
+    this.coalescedReads = new AtomicLong();
+    this.source = this;
+    this.bounded = false;
+    this.deadline = 0;
+    this.operationTimeoutMillis = operationTimeoutMillis;
+    this.chunkSize = chunkSize;
+    this.maxUploadBytes = maxUploadBytes;
+    this.contentCodec = ContentCodec.forName(contentCodec);
+    this.compressionLevel = compressionLevel;
+    this.coalescingWindowNanos = TimeUnit.MILLISECONDS.toNanos(coalescingWindowMillis);
+    this.documentCache = new DocumentCache(cacheMaxBytes, (collectionName, documentId) ->
+        getDatabaseReference().child(collectionName).child(documentId));
+  }
+
+  //a view of source, sharing its connection, cache and reads in flight
+  private FirebaseService(FirebaseService source, long deadline) {
+    this.firebaseApp = source.firebaseApp;
+    this.indexedNetworks = source.indexedNetworks;
+    this.documentCache = source.documentCache;
+    this.inFlightReads = source.inFlightReads;
+    this.coalescingWindowNanos = source.coalescingWindowNanos;
+    this.coalescedReads = source.coalescedReads;
+    this.contentCodec = source.contentCodec;
+    this.compressionLevel = source.compressionLevel;
+    this.chunkSize = source.chunkSize;
+    this.maxUploadBytes = source.maxUploadBytes;
+    this.operationTimeoutMillis = source.operationTimeoutMillis;
+    this.source = source;
+    this.bounded = true;
+    this.deadline = deadline;
+  }
+
+  /**
+   * Returns a view of the service bounded by a deadline: every read and write it issues,
+   * including those issued later on by the operations started through it, fails with a
+   * TimeoutException once the deadline has passed, if that comes before firebase.timeout-ms.
+   * Handlers bind the service to the deadline of their request, so that the work of a
+   * request does not go on once it has been answered. A write that failed this way may
+   * still be applied once the connection recovers, its outcome is unknown. Reads shared
+   * with other callers go on until they complete for the others.
+   *
+   * @param timeoutMillis A long representing the time left before the deadline, in
+   *                      milliseconds.
+   * @return A FirebaseService sharing the state of this one, bounded by the deadline.
+   */
+  public FirebaseService within(long timeoutMillis) {
+    long viewDeadline = System.nanoTime()
+        + TimeUnit.MILLISECONDS.toNanos(Math.max(0, timeoutMillis));
+    if (bounded && viewDeadline - deadline >= 0) {
+      return this;
+    }
+    return new FirebaseService(bounded ? source : this, viewDeadline);
   }
 
   /**
@@ -57,6 +334,9 @@ public class FirebaseService {
    * @return A reference to the Firebase Realtime Database.
    */
   public DatabaseReference getDatabaseReference() {
+    if (bounded) {
+      return source.getDatabaseReference();
+    }
     FirebaseDatabase database = FirebaseDatabase.getInstance(firebaseApp);
     return database.getReference();
   }
@@ -76,22 +356,26 @@ public class FirebaseService {
 
     CompletableFuture<Object> resultFuture = new CompletableFuture<>();
 
+    //reads started before the write must not be shared with reads after it
+    forgetReads(collectionName + "/" + key);
     collectionReference.child(key).setValue(value, (error, ref) -> {
       if (error != null) {
         String errorMessage = "Data could not be added: " + error.getMessage();
         System.out.println(errorMessage);
-        resultFuture.completeExceptionally(new RuntimeException(errorMessage));
+        resultFuture.completeExceptionally(databaseFailure(error, errorMessage));
       } else {
         System.out.println("Data added successfully.");
+        invalidateDocuments(Set.of(collectionName + "/" + key));
         resultFuture.complete(value);
       }
     });
 
-    return resultFuture;
+    return withTimeout(resultFuture);
   }
 
   /**
-   * Retrieves the all entries that are associated with the specified user.
+   * Retrieves the all entries that are associated with the specified user. Only the
+   * user's slice of the network index and the documents listed in it are read.
    *
    * @param collectionName A String denoting which collection this entry belongs to.
    * @param user A String denoting which user to use during comparison.
@@ -99,39 +383,30 @@ public class FirebaseService {
    *         or completes exceptionally with an error message.
    */
   public CompletableFuture<Object> collectEntries(String collectionName, String user) {
-    CompletableFuture<Object> resultFuture = new CompletableFuture<>();
-    List<DataSnapshot> matchingEntries = new ArrayList<>();
-
     if (user.isEmpty()) {
-      resultFuture.complete(matchingEntries);
-      return resultFuture;
+      return CompletableFuture.completedFuture(new ArrayList<>());
     }
 
-    DatabaseReference databaseReference = getDatabaseReference();
-    DatabaseReference collectionReference = databaseReference.child(collectionName);
-
-    collectionReference.addListenerForSingleValueEvent(new ValueEventListener() {
-      @Override
-      public void onDataChange(DataSnapshot dataSnapshot) {
-        for (DataSnapshot subcollection : dataSnapshot.getChildren()) {
-          if (subcollection.hasChild("userId")) {
-            String userIdValue = subcollection.child("userId").getValue(String.class);
-            if (userIdValue != null && userIdValue.contains(user)) {
-              matchingEntries.add(subcollection);
-            }
-          }
-        }
-
-        resultFuture.complete(matchingEntries);
+    return readUserIndex(collectionName, user).thenCompose(entries -> {
+      if (entries == null) {
+        return scanForUser(collectionName, user);
       }
 
-      @Override
-      public void onCancelled(DatabaseError databaseError) {
-        resultFuture.completeExceptionally(databaseError.toException());
+      List<CompletableFuture<DataSnapshot>> reads = new ArrayList<>();
+      for (DataSnapshot entry : entries.getChildren()) {
+        reads.add(readSnapshot(collectionName + "/" + entry.getKey()));
       }
-    });
-
-    return resultFuture;
+      return CompletableFuture.allOf(reads.toArray(new CompletableFuture[0])).thenApply(done -> {
+        List<DataSnapshot> matchingEntries = new ArrayList<>();
+        for (CompletableFuture<DataSnapshot> read : reads) {
+          DataSnapshot subcollection = read.join();
+          if (hasUser(subcollection.child("userId").getValue(String.class), user)) {
+            matchingEntries.add(subcollection);
+          }
+        }
+        return matchingEntries;
+      });
+    }).thenApply(matchingEntries -> (Object) matchingEntries);
   }
 
   /**
@@ -148,19 +423,21 @@ public class FirebaseService {
 
     CompletableFuture<String> resultFuture = new CompletableFuture<>();
 
+    forgetReads(collectionName + "/" + key);
     collectionReference.child(key).removeValue((error, ref) -> {
       if (error != null) {
         String errorMessage = "Data could not be removed: " + error.getMessage();
         System.out.println(errorMessage);
-        resultFuture.completeExceptionally(new RuntimeException(errorMessage));
+        resultFuture.completeExceptionally(databaseFailure(error, errorMessage));
       } else {
         String successMessage = "Data removed successfully.";
         System.out.println(successMessage);
+        invalidateDocuments(Set.of(collectionName + "/" + key));
         resultFuture.complete(successMessage);
       }
     });
 
-    return resultFuture;
+    return withTimeout(resultFuture);
   }
 
   /**
@@ -171,24 +448,29 @@ public class FirebaseService {
    *         creation or completes exceptionally with an error message.
    */
   public CompletableFuture<String> createCollection(String collectionName) {
-    DatabaseReference databaseReference = getDatabaseReference();
     Map<String, Object> collectionData = new HashMap<>();
     collectionData.put(collectionName, "");
+    collectionData.put(indexPath(collectionName, INDEX_VERSION_KEY), INDEX_VERSION);
+    for (String path : collectionData.keySet()) {
+      forgetReads(path);
+    }
 
     CompletableFuture<String> resultFuture = new CompletableFuture<>();
 
+    DatabaseReference databaseReference = getDatabaseReference();
     databaseReference.updateChildren(collectionData, (error, ref) -> {
       if (error != null) {
         String errorMessage = "Collection could not be created: " + error.getMessage();
         System.out.println(errorMessage);
-        resultFuture.completeExceptionally(new RuntimeException(errorMessage));
+        resultFuture.completeExceptionally(databaseFailure(error, errorMessage));
       } else {
         System.out.println("Collection created successfully: " + collectionName);
+        indexedNetworks.add(collectionName);
         resultFuture.complete(collectionName);
       }
     });
 
-    return resultFuture;
+    return withTimeout(resultFuture);
   }
 
   /**
@@ -204,18 +486,20 @@ public class FirebaseService {
 
     CompletableFuture<String> resultFuture = new CompletableFuture<>();
 
+    forgetReads(collectionName);
     collectionReference.removeValue((error, ref) -> {
       if (error != null) {
         String errorMessage = "Error deleting documents in collection: " + error.getMessage();
         System.out.println(errorMessage);
-        resultFuture.completeExceptionally(new RuntimeException(errorMessage));
+        resultFuture.completeExceptionally(databaseFailure(error, errorMessage));
       } else {
         System.out.println("Collection deleted successfully: " + collectionName);
+        documentCache.invalidateNetwork(collectionName);
         resultFuture.complete(collectionName);
       }
     });
 
-    return resultFuture;
+    return withTimeout(resultFuture);
   }
 
   /**
@@ -234,18 +518,20 @@ public class FirebaseService {
 
     CompletableFuture<Object> resultFuture = new CompletableFuture<>();
 
+    forgetReads(collectionName + "/" + key);
     entryReference.setValue(newValue, (error, ref) -> {
       if (error != null) {
         String errorMessage = "Value could not be changed: " + error.getMessage();
         System.out.println(errorMessage);
-        resultFuture.completeExceptionally(new RuntimeException(errorMessage));
+        resultFuture.completeExceptionally(databaseFailure(error, errorMessage));
       } else {
         System.out.println("Value was changed successfully: " + newValue);
+        invalidateDocuments(Set.of(collectionName + "/" + key));
         resultFuture.complete(newValue);
       }
     });
 
-    return resultFuture;
+    return withTimeout(resultFuture);
   }
 
   /**
@@ -257,32 +543,15 @@ public class FirebaseService {
    *         completes exceptionally with an error message if the value is not found.
    */
   public CompletableFuture<Object> getEntry(String collectionName, String key) {
-    CompletableFuture<Object> future = new CompletableFuture<>();
-
-    DatabaseReference databaseReference = getDatabaseReference();
-    DatabaseReference collectionReference = databaseReference.child(collectionName);
-    DatabaseReference entryReference = collectionReference.child(key);
-
-    entryReference.addListenerForSingleValueEvent(new ValueEventListener() {
-      @Override
-      public void onDataChange(DataSnapshot dataSnapshot) {
-        Object value = dataSnapshot.getValue();
-        if (value != null) {
-          System.out.println("The value has been successfully retrieved");
-          System.out.println(value.toString());
-          future.complete(value);
-        } else {
-          future.completeExceptionally(new RuntimeException("Value not found."));
-        }
-      }
-
-      @Override
-      public void onCancelled(DatabaseError databaseError) {
-        future.completeExceptionally(new RuntimeException(databaseError.getMessage()));
+    return readSnapshot(collectionName + "/" + key).thenCompose(dataSnapshot -> {
+      Object value = dataSnapshot.getValue();
+      if (value == null) {
+        return CompletableFuture.failedFuture(new RuntimeException("Value not found."));
       }
+      System.out.println("The value has been successfully retrieved");
+      System.out.println(value.toString());
+      return CompletableFuture.completedFuture(value);
     });
-
-    return future;
   }
 
   /**
@@ -302,7 +571,11 @@ public class FirebaseService {
   }
 
   /**
-   * Searches for a specific document within Firebase.
+   * Searches for a specific document within Firebase. The title index of the network is
+   * consulted first so only the index entry and the matching document are read, the whole
+   * network is only scanned when the network has not been indexed yet or the entry is stale,
+   * in which case the index is repaired from that scan. Documents read recently are served
+   * from the document cache without reading the database.
    *
    * @param collectionName A String representing the name of the collection to search in.
    * @param title A String representing the title of the document to search for.
@@ -310,123 +583,1968 @@ public class FirebaseService {
    *     is found, or null.
    */
   public CompletableFuture<DataSnapshot> searchForDocument(String collectionName, String title) {
-    CompletableFuture<DataSnapshot> future = new CompletableFuture<>();
-    DatabaseReference databaseReference = getDatabaseReference();
-    DatabaseReference collectionReference = databaseReference.child(collectionName);
+    DataSnapshot cached = documentCache.getMetadata(collectionName, title);
+    if (cached != null) {
+      return CompletableFuture.completedFuture(cached);
+    }
+    long generation = documentCache.generation();
+    return lookupDocument(collectionName, title).thenApply(documentSnapshot -> {
+      if (documentSnapshot != null && !isLegacy(documentSnapshot)) {
+        documentCache.putMetadata(collectionName, documentSnapshot, generation);
+      }
+      return documentSnapshot;
+    });
+  }
 
-    ValueEventListener titleListener = new ValueEventListener() {
-      @Override
-      public void onDataChange(DataSnapshot collectionSnapshot) {
-        for (DataSnapshot documentSnapshot : collectionSnapshot.getChildren()) {
-          String documentTitle = documentSnapshot.child("title").getValue(String.class);
+  private CompletableFuture<DataSnapshot> lookupDocument(String collectionName, String title) {
+    String entryPath = titleIndexPath(collectionName, title);
 
-          if (documentTitle != null && documentTitle.equals(title)) {
-            future.complete(documentSnapshot);
-            return;
-          }
+    return readSnapshot(entryPath).thenCompose(entrySnapshot -> {
+      if (entrySnapshot.hasChild(COMMIT_CLAIM)) {
+        //the document is being uploaded for the first time and is not written yet
+        return CompletableFuture.completedFuture(null);
+      }
+      String documentId = entrySnapshot.getValue(String.class);
+      if (documentId == null) {
+        return isNetworkIndexed(collectionName).thenCompose(indexed -> indexed
+            ? CompletableFuture.completedFuture(null)
+            : scanForDocument(collectionName, title));
+      }
+
+      return readSnapshot(collectionName + "/" + documentId).thenCompose(documentSnapshot -> {
+        String documentTitle = documentSnapshot.child("title").getValue(String.class);
+        if (title.equals(documentTitle)) {
+          return CompletableFuture.completedFuture(documentSnapshot);
+        }
+        //the entry outlived its document, drop it and fall back to the scan
+        forgetReads(entryPath);
+        getDatabaseReference().child(entryPath).removeValueAsync();
+        return scanForDocument(collectionName, title);
+      });
+    });
+  }
+
+  /**
+   * Rebuilds the title index of a network from a full scan of its documents. Networks
+   * created before the index existed are backfilled automatically the first time they
+   * are searched, this can be used to backfill them ahead of time.
+   *
+   * @param collectionName A String representing the network to index.
+   * @return A CompletableFuture that completes with the number of documents indexed
+   *         or completes exceptionally with an error message.
+   */
+  public CompletableFuture<Integer> rebuildIndex(String collectionName) {
+    return readSnapshot(collectionName).thenCompose(collectionSnapshot ->
+        writeIndex(collectionName, collectionSnapshot));
+  }
+
+  /**
+   * Encodes a value so that it can be used as a single key in the database, escaping the
+   * characters Firebase does not allow in keys ('.', '#', '$', '[', ']', '/' and control
+   * characters) as well as the '%' escape character itself.
+   *
+   * @param key A String representing the value to encode.
+   * @return A String that is safe to use as a database key, "%" for an empty value.
+   */
+  public static String encodeKey(String key) {
+    if (key.isEmpty()) {
+      return "%";
+    }
+    StringBuilder encoded = new StringBuilder(key.length());
+    for (int i = 0; i < key.length(); i++) {
+      char c = key.charAt(i);
+      if (c == '%' || c == '.' || c == '#' || c == '$' || c == '[' || c == ']' || c == '/'
+          || c < 0x20 || c == 0x7F) {
+        encoded.append('%').append(String.format("%02X", (int) c));
+      } else {
+        encoded.append(c);
+      }
+    }
+    return encoded.toString();
+  }
+
+  //scans the whole network for the title and repairs the index from the same snapshot
+  private CompletableFuture<DataSnapshot> scanForDocument(String collectionName, String title) {
+    return readSnapshot(collectionName).thenApply(collectionSnapshot -> {
+      writeIndex(collectionName, collectionSnapshot);
+      migrateDocuments(collectionName, collectionSnapshot);
+      for (DataSnapshot documentSnapshot : collectionSnapshot.getChildren()) {
+        String documentTitle = documentSnapshot.child("title").getValue(String.class);
+
+        if (documentTitle != null && documentTitle.equals(title)) {
+          return documentSnapshot;
         }
-        future.complete(null);
+      }
+      return null;
+    });
+  }
+
+  //entries are written one path at a time so concurrent uploads are never overwritten
+  private CompletableFuture<Integer> writeIndex(String collectionName,
+                                                DataSnapshot collectionSnapshot) {
+    Map<String, Object> updates = new HashMap<>();
+    int indexed = 0;
+    for (DataSnapshot documentSnapshot : collectionSnapshot.getChildren()) {
+      String documentTitle = documentSnapshot.child("title").getValue(String.class);
+      if (documentTitle != null) {
+        updates.put(titleIndexPath(collectionName, documentTitle), documentSnapshot.getKey());
+        putUserEntries(updates, collectionName, documentSnapshot.getKey(),
+            documentSnapshot.child("userId").getValue(String.class), documentTitle);
+        indexed++;
+      }
+    }
+    updates.put(indexPath(collectionName, INDEX_VERSION_KEY), INDEX_VERSION);
+
+    int total = indexed;
+    return updatePaths(updates).thenApply(ignored -> {
+      indexedNetworks.add(collectionName);
+      System.out.println("Index rebuilt for " + collectionName + ": " + total + " documents");
+      return total;
+    });
+  }
+
+  private CompletableFuture<Boolean> isNetworkIndexed(String collectionName) {
+    if (indexedNetworks.contains(collectionName)) {
+      return CompletableFuture.completedFuture(true);
+    }
+    return readSnapshot(indexPath(collectionName, INDEX_VERSION_KEY)).thenApply(versionSnapshot -> {
+      Long version = versionSnapshot.getValue(Long.class);
+      boolean indexed = version != null && version >= INDEX_VERSION;
+      if (indexed) {
+        indexedNetworks.add(collectionName);
+      }
+      return indexed;
+    });
+  }
+
+  //adds (or with a null value removes) an index entry for each user of the document
+  private static void putUserEntries(Map<String, Object> updates, String collectionName,
+                                     String documentId, String userIds, Object value) {
+    if (userIds == null) {
+      return;
+    }
+    for (String user : userIds.split("/")) {
+      if (!user.isEmpty()) {
+        updates.put(userIndexPath(collectionName, user, documentId), value);
+      }
+    }
+  }
+
+  private static String indexPath(String collectionName, String child) {
+    return INDEX_COLLECTION + "/" + collectionName + "/" + child;
+  }
+
+  private static String titleIndexPath(String collectionName, String title) {
+    return indexPath(collectionName, TITLE_INDEX + "/" + encodeKey(title));
+  }
+
+  //reads a single value of the location at path, relative to the root
+  private CompletableFuture<DataSnapshot> readSnapshot(String path) {
+    return readSnapshot(path, "", location -> location);
+  }
+
+  //reads a single value of a query of the location at path, parameters describing the
+  //query's ordering and bounds so that only identical queries are shared; concurrent reads
+  //of the same query share one read started within the coalescing window
+  private CompletableFuture<DataSnapshot> readSnapshot(String path, String parameters,
+                                                       Function<DatabaseReference, Query> query) {
+    if (coalescingWindowNanos <= 0) {
+      return readOnce(query.apply(getDatabaseReference().child(path)), timeoutMillis(true));
+    }
+    String key = parameters.isEmpty() ? path : path + "#" + parameters;
+    long now = System.nanoTime();
+    InFlightRead[] started = new InFlightRead[1];
+    InFlightRead shared = inFlightReads.compute(key, (readKey, inFlight) -> {
+      if (inFlight != null && now - inFlight.startedAt <= coalescingWindowNanos) {
+        return inFlight;
+      }
+      started[0] = new InFlightRead(path, now, new CompletableFuture<>());
+      return started[0];
+    });
+
+    if (started[0] != null) {
+      InFlightRead read = started[0];
+      readOnce(query.apply(getDatabaseReference().child(path)), timeoutMillis(false))
+          .whenComplete((snapshot, error) -> {
+            inFlightReads.remove(key, read);
+            if (error != null) {
+              read.future.completeExceptionally(error);
+            } else {
+              read.future.complete(snapshot);
+            }
+          });
+    } else {
+      coalescedReads.incrementAndGet();
+    }
+    //each caller gets its own future so one caller cannot complete it for the others, the
+    //read itself is not bounded by the deadline of the view that started it
+    return bounded ? withTimeout(shared.future.copy()) : shared.future.copy();
+  }
+
+  //stops sharing the reads in flight at, above or below a path about to be written, reads
+  //of other locations are unaffected by the write and stay shared
+  private void forgetReads(String path) {
+    if (inFlightReads.isEmpty()) {
+      return;
+    }
+    inFlightReads.values().removeIf(read -> read.path.equals(path)
+        || read.path.startsWith(path + "/") || path.startsWith(read.path + "/"));
+  }
+
+  //a read that fails or times out removes its listener, which would otherwise stay
+  //registered until the connection answers
+  private CompletableFuture<DataSnapshot> readOnce(Query query, long timeoutMillis) {
+    CompletableFuture<DataSnapshot> future = new CompletableFuture<>();
+
+    ValueEventListener listener = new ValueEventListener() {
+      @Override
+      public void onDataChange(DataSnapshot dataSnapshot) {
+        future.complete(dataSnapshot);
       }
 
       @Override
       public void onCancelled(DatabaseError databaseError) {
-        future.completeExceptionally(new RuntimeException(databaseError.getMessage()));
+        future.completeExceptionally(databaseFailure(databaseError,
+            databaseError.getMessage()));
       }
     };
+    query.addListenerForSingleValueEvent(listener);
+    //callers see a failure once the listener is removed
+    return withTimeout(future, timeoutMillis).whenComplete((snapshot, error) -> {
+      if (error != null) {
+        query.removeEventListener(listener);
+      }
+    });
+  }
+
+  //applies all the updates atomically, keys are paths relative to the root
+  //the cached documents written to are invalidated once the update completes
+  private CompletableFuture<Void> updatePaths(Map<String, Object> updates) {
+    CompletableFuture<Void> resultFuture = new CompletableFuture<>();
+
+    //reads started before the write must not be shared with reads after it
+    for (String path : updates.keySet()) {
+      forgetReads(path);
+    }
+    getDatabaseReference().updateChildren(updates, (error, ref) -> {
+      invalidateDocuments(updates.keySet());
+      if (error != null) {
+        String errorMessage = "Data could not be updated: " + error.getMessage();
+        System.out.println(errorMessage);
+        resultFuture.completeExceptionally(databaseFailure(error, errorMessage));
+      } else {
+        resultFuture.complete(null);
+      }
+    });
+
+    return withTimeout(resultFuture);
+  }
+
+  //the SDK retries a stalled connection indefinitely, so every read and write is failed
+  //with a TimeoutException once it has waited operationTimeoutMillis, or once the deadline
+  //of a view has passed; a write that timed out may still be applied once the connection
+  //recovers
+  private <T> CompletableFuture<T> withTimeout(CompletableFuture<T> operation) {
+    return withTimeout(operation, timeoutMillis(true));
+  }
+
+  private static <T> CompletableFuture<T> withTimeout(CompletableFuture<T> operation,
+                                                      long timeoutMillis) {
+    if (timeoutMillis == Long.MAX_VALUE) {
+      return operation;
+    }
+    return operation.orTimeout(timeoutMillis, TimeUnit.MILLISECONDS);
+  }
 
-    collectionReference.addListenerForSingleValueEvent(titleListener);
+  //how long an operation started now may wait, Long.MAX_VALUE for indefinitely; only the
+  //operations of a view alone, not those shared with other callers, end at its deadline
+  private long timeoutMillis(boolean ownOperation) {
+    long timeoutMillis = operationTimeoutMillis <= 0 ? Long.MAX_VALUE : operationTimeoutMillis;
+    if (bounded && ownOperation) {
+      long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+      timeoutMillis = Math.min(timeoutMillis, Math.max(0, remainingMillis));
+    }
+    return timeoutMillis;
+  }
+
+  //errors of the connection rather than of the operation are reported as unavailability
+  private static RuntimeException databaseFailure(DatabaseError error, String message) {
+    switch (error.getCode()) {
+      case DatabaseError.DISCONNECTED:
+      case DatabaseError.MAX_RETRIES:
+      case DatabaseError.UNAVAILABLE:
+      case DatabaseError.NETWORK_ERROR:
+        return new DatabaseUnavailableException(message);
+      default:
+        return new RuntimeException(message);
+    }
+  }
+
+  //only the metadata ({net}/{docId}) and contents of a document are cached, a path below
+  //them, like a field of the metadata, invalidates the document it belongs to
+  private void invalidateDocuments(Set<String> paths) {
+    for (String path : paths) {
+      String[] segments = path.split("/");
+      int offset = segments[0].equals(CONTENTS_COLLECTION) ? 1 : 0;
+      boolean otherCollection = segments[0].equals(INDEX_COLLECTION)
+          || segments[0].equals(VERSIONS_COLLECTION) || segments[0].equals(HISTORY_COLLECTION)
+          || segments[0].equals(CHUNKS_COLLECTION) || segments[0].equals(UPLOADS_COLLECTION);
+      if (!otherCollection && segments.length > offset + 1) {
+        documentCache.invalidate(segments[offset], segments[offset + 1]);
+      }
+    }
+  }
 
-    return future;
+  /**
+   * Reports the statistics of the document cache, its hits, misses, evictions and
+   * invalidations along with how many documents and bytes it currently holds, and how many
+   * reads were served by sharing an identical read already in flight.
+   *
+   * @return A Map from the name of each statistic to its value.
+   */
+  public Map<String, Long> getCacheStatistics() {
+    Map<String, Long> statistics = documentCache.getStatistics();
+    statistics.put("coalescedReads", coalescedReads.get());
+    return statistics;
   }
 
   /**
    * Uploads a file to Firebase and stores it as a document in the specified collection.
+   * The document is looked up once, that single lookup decides whether the upload is a
+   * duplicate and which version it follows, and everything is then written in one atomic
+   * multi-path update. Duplicates are detected by comparing the SHA-256 digest of the
+   * upload with the digest stored in the document's metadata. A new version is only written
+   * once a transaction has claimed it on the metadata the lookup found, an upload losing the
+   * claim to a concurrent upload is looked up again and follows the version written by it.
    *
    * @param file The MultipartFile representing the file to be uploaded.
    * @param collectionName A String representing the name of the collection to upload the file to.
    * @param fileName A String representing the name of the file.
    * @param userId A String representing the user ID.
-   * @return A CompletableFuture object that may complete with a result upon successful
-   *         upload or an error message.
+   * @return A CompletableFuture object that may complete with the uploaded Document,
+   *         DUPLICATE_UPLOAD if the contents are unchanged, or an error message.
    * @throws IOException If an IO error occurs during the upload process.
    */
   public CompletableFuture<Object> uploadFile(MultipartFile file, String collectionName,
                                               String fileName, String userId) throws IOException {
+    //the upload is read once, which also hashes, counts and encodes or chunks it
+    IngestedUpload upload = IngestedUpload.read(file, contentCodec, compressionLevel,
+        chunkSize);
+    return commitUpload(collectionName, fileName, userId, upload, new HashMap<>());
+  }
 
-    CompletableFuture<DataSnapshot> doesExist = searchForDocument(collectionName, fileName);
-    DataSnapshot dataSnapshot;
-    Document previousDoc = null;
+  /**
+   * Uploads a file read from a stream, storing the chunks of contents above the chunk size
+   * as they are read so that the file is never held in memory as a whole. The chunks are
+   * owned by the upload until the document is written like uploadFile writes it, in the
+   * same update that hands them over to the document, and are released if it fails.
+   *
+   * @param contents An InputStream of the file's contents, which is left open.
+   * @param size A long representing the announced size of the file, or -1 if unknown.
+   * @param contentType A String representing the file's media type, or null if unknown.
+   * @param collectionName A String representing the name of the collection to upload the file to.
+   * @param fileName A String representing the name of the file.
+   * @param userId A String representing the user ID.
+   * @return A CompletableFuture object that may complete with the uploaded Document,
+   *         DUPLICATE_UPLOAD if the contents are unchanged, or an error message.
+   * @throws IOException If the file can not be read or its chunks can not be stored.
+   * @throws MaxUploadSizeExceededException If the file is larger than the maximum upload size,
+   *                                        checked against the announced size up front.
+   */
+  public CompletableFuture<Object> uploadStream(InputStream contents, long size,
+                                                String contentType, String collectionName,
+                                                String fileName, String userId)
+      throws IOException {
+    if (size > maxUploadBytes) {
+      throw new MaxUploadSizeExceededException(maxUploadBytes);
+    }
+    return streamUpload(contents, contentType, collectionName, fileName, userId,
+        new HashMap<>());
+  }
 
+  //streams the contents into chunks owned by a new upload id and commits them along with
+  //the given updates, which are also written if the upload turns out to be a duplicate
+  private CompletableFuture<Object> streamUpload(InputStream contents, String contentType,
+                                                 String collectionName,
+                                                 String fileName, String userId,
+                                                 Map<String, Object> updates)
+      throws IOException {
+    String uploadId = "upload-" + UUID.randomUUID();
+    long created = System.currentTimeMillis();
+    List<String> stored = new ArrayList<>();
+    IngestedUpload upload;
     try {
-      dataSnapshot = doesExist.get();
-      if (dataSnapshot != null) {
-        previousDoc = Document.convertToDocument((HashMap<String, Object>) dataSnapshot.getValue());
-      }
-    } catch (Exception e) {
-      System.out.println(e.getMessage());
+      upload = IngestedUpload.stream(contents, maxUploadBytes, contentType, contentCodec,
+          compressionLevel, chunkSize, (hash, chunk) -> {
+            stored.add(hash);
+            //the chunk is recorded as a part of the upload in the update owning it
+            Map<String, Object> owners = new HashMap<>();
+            owners.put(pendingPath(collectionName, hash, uploadId), true);
+            owners.put(sessionPath(collectionName, uploadId) + "/created", created);
+            owners.put(uploadNetworkPath(collectionName), true);
+            owners.put(partPath(collectionName, uploadId, stored.size()) + "/hash", hash);
+            return storeChunks(collectionName, Map.of(hash, chunk), owners, contentType);
+          }, WRITE_AHEAD_CHUNKS);
+    } catch (IOException | RuntimeException e) {
+      abortStream(collectionName, uploadId, stored);
+      throw e;
     }
 
-    //If a previous document exists uses its attributes
-    String documentId = previousDoc == null ? Document.generateDocumentId()
-        : previousDoc.getDocId();
-
-    Document documentToUpload;
-
-    if (previousDoc != null) {
-      documentToUpload = new Document(previousDoc.getUserId(), collectionName, file, documentId,
-          fileName, Document.countWords(file.getBytes()), previousDoc.getPreviousVersions());
-      previousDoc.setPreviousVersions(null);
+    Map<String, Object> commitUpdates = new HashMap<>(updates);
+    if (!stored.isEmpty()) {
+      commitUpdates.put(sessionPath(collectionName, uploadId), null);
+    }
+    for (String hash : stored) {
+      commitUpdates.put(pendingPath(collectionName, hash, uploadId), null);
+    }
+    return commitUpload(collectionName, fileName, userId, upload, commitUpdates)
+        .thenCompose(result -> DUPLICATE_UPLOAD.equals(result) && !updates.isEmpty()
+            ? updatePaths(updates).thenApply(done -> result)
+            : CompletableFuture.completedFuture(result))
+        .whenComplete((result, error) -> {
+          if (error != null || DUPLICATE_UPLOAD.equals(result)) {
+            abortStream(collectionName, uploadId, stored);
+          }
+        });
+  }
 
-      // do not track duplicate documents
-      if (!documentToUpload.equals(previousDoc)) {
-        documentToUpload.addPreviousVersion(previousDoc);
-      }
-    } else {
-      documentToUpload = new Document(userId, collectionName, file, documentId,
-          fileName, Document.countWords(file.getBytes()));
+  //removes the record of a streamed upload along with its ownership of the chunks it
+  //stored, a record left by an upload that could not be aborted expires like a session
+  private void abortStream(String collectionName, String uploadId, List<String> hashes) {
+    if (hashes.isEmpty()) {
+      return;
     }
+    Map<String, Object> releases = new HashMap<>();
+    releases.put(sessionPath(collectionName, uploadId), null);
+    for (String hash : hashes) {
+      releases.put(pendingPath(collectionName, hash, uploadId), null);
+    }
+    updatePaths(releases).thenRun(() -> collectChunks(collectionName, hashes));
+  }
 
-    return addEntry(collectionName, documentId, documentToUpload);
+  /**
+   * Starts a resumable upload of a file. Its parts are then uploaded with uploadPart, in any
+   * order and again after a failure, until commitUploadSession writes the file like
+   * uploadFile does. Sessions left for a day are aborted by abortExpiredUploads.
+   *
+   * @param collectionName A String representing the name of the collection to upload the file to.
+   * @param fileName A String representing the name of the file.
+   * @param userId A String representing the user ID.
+   * @param contentType A String representing the file's media type, or null if unknown.
+   * @return A CompletableFuture that completes with the id of the new session.
+   */
+  public CompletableFuture<String> createUploadSession(String collectionName, String fileName,
+                                                       String userId, String contentType) {
+    Map<String, Object> session = new HashMap<>();
+    session.put("documentName", fileName);
+    session.put("userId", userId);
+    session.put("contentType", contentType);
+    session.put("created", System.currentTimeMillis());
+
+    String sessionId = "session-" + UUID.randomUUID();
+    return updatePaths(Map.of(sessionPath(collectionName, sessionId), session,
+        uploadNetworkPath(collectionName), true)).thenApply(done -> sessionId);
   }
 
   /**
-   * Retrieves all document titles from the documents associated with the specified user.
+   * Stores a part of a resumable upload. The part is verified against the hash the client
+   * computed, so a part corrupted on the way is rejected rather than committed. Uploading
+   * a part again is harmless: the same contents store nothing new and other contents
+   * replace the part. The part is set in a transaction, so of two uploads of the same part
+   * the one replaced is known and its chunk released.
    *
-   * @param collectionName A String denoting which collection this entry belongs to.
-   * @param userId A String denoting which user to use during comparison.
-   * @return A CompletableFuture that completes with the values upon successful addition
-   *         or completes exceptionally with an error message.
+   * @param collectionName A String representing the network of the session.
+   * @param sessionId A String representing the session id.
+   * @param partNumber An int representing the part's position in the file, from 1.
+   * @param part A byte array of the part's contents.
+   * @param partHash A String representing the hex SHA-256 digest of the part.
+   * @return A CompletableFuture that completes with true once the part is stored, or false
+   *         if there is no such session.
+   * @throws IllegalArgumentException If the part number is out of range, the part is
+   *                                  larger than MAX_PART_BYTES or does not match its hash.
    */
-  public CompletableFuture<List<String>> getDocumentTitles(String collectionName,
-                                                           String userId) {
-    CompletableFuture<List<String>> future = new CompletableFuture<>();
+  public CompletableFuture<Boolean> uploadPart(String collectionName, String sessionId,
+                                               int partNumber, byte[] part, String partHash) {
+    if (partNumber < 1 || partNumber > MAX_UPLOAD_PARTS) {
+      throw new IllegalArgumentException("Part numbers range from 1 to " + MAX_UPLOAD_PARTS);
+    }
+    if (part.length > MAX_PART_BYTES) {
+      throw new IllegalArgumentException("Parts are at most " + MAX_PART_BYTES + " bytes");
+    }
+    String hash = Document.hashContents(part);
+    if (!hash.equalsIgnoreCase(partHash)) {
+      throw new IllegalArgumentException("Part " + partNumber + " does not match its hash");
+    }
 
-    DatabaseReference databaseReference = getDatabaseReference();
-    DatabaseReference networkReference = databaseReference.child(collectionName);
+    //only the fields needed are read, a session may list thousands of parts
+    String sessionPath = sessionPath(collectionName, sessionId);
+    CompletableFuture<DataSnapshot> created = readSnapshot(sessionPath + "/created");
+    CompletableFuture<DataSnapshot> contentType = readSnapshot(sessionPath + "/contentType");
+    CompletableFuture<DataSnapshot> previous = readSnapshot(
+        partPath(collectionName, sessionId, partNumber) + "/hash");
+    return CompletableFuture.allOf(created, contentType, previous).thenCompose(read -> {
+      if (!created.join().exists()) {
+        return CompletableFuture.completedFuture(false);
+      }
+      String previousHash = previous.join().getValue(String.class);
+      if (hash.equals(previousHash)) {
+        return CompletableFuture.completedFuture(true);
+      }
 
-    networkReference.addListenerForSingleValueEvent(new ValueEventListener() {
-      @Override
-      public void onDataChange(DataSnapshot dataSnapshot) {
-        List<String> titles = new ArrayList<>();
+      //the chunk is owned by the part, so releasing it leaves other parts of the same hash
+      return storeChunks(collectionName, Map.of(hash, part),
+          Map.of(pendingPath(collectionName, hash, sessionId) + "/" + partNumber, true),
+          contentType.join().getValue(String.class))
+          .thenCompose(stored -> setPart(collectionName, sessionId, partNumber, hash,
+              part.length))
+          .thenApply(replaced -> {
+            if (replaced != null) {
+              releasePart(collectionName, sessionId, partNumber, replaced);
+            }
+            return true;
+          });
+    });
+  }
 
-        for (DataSnapshot docSnapshot : dataSnapshot.getChildren()) {
-          String docUserId = docSnapshot.child("userId").getValue(String.class);
-          if (docUserId != null && docUserId.contains(userId)) {
+  //sets a part in a transaction and completes with the hash it replaced, or null
+  private CompletableFuture<String> setPart(String collectionName, String sessionId,
+                                            int partNumber, String hash, int size) {
+    String path = partPath(collectionName, sessionId, partNumber);
+    CompletableFuture<String> future = new CompletableFuture<>();
+    String[] replaced = new String[1];
+
+    getDatabaseReference().child(path).runTransaction(new Transaction.Handler() {
+      @Override
+      public Transaction.Result doTransaction(MutableData currentData) {
+        replaced[0] = currentData.child("hash").getValue(String.class);
+        currentData.child("hash").setValue(hash);
+        currentData.child("size").setValue(size);
+        return Transaction.success(currentData);
+      }
+
+      @Override
+      public void onComplete(DatabaseError databaseError, boolean committed,
+                             DataSnapshot currentData) {
+        forgetReads(path);
+        if (databaseError != null) {
+          future.completeExceptionally(databaseFailure(databaseError,
+              databaseError.getMessage()));
+        } else {
+          future.complete(hash.equals(replaced[0]) ? null : replaced[0]);
+        }
+      }
+    });
+
+    return withTimeout(future);
+  }
+
+  private void releasePart(String collectionName, String sessionId, int partNumber,
+                           String hash) {
+    Map<String, Object> release = new HashMap<>();
+    release.put(pendingPath(collectionName, hash, sessionId) + "/" + partNumber, null);
+    updatePaths(release).thenRun(() -> collectChunks(collectionName, List.of(hash)));
+  }
+
+  /**
+   * Retrieves a resumable upload session, from which a client resuming an upload learns
+   * which parts are already stored.
+   *
+   * @param collectionName A String representing the network of the session.
+   * @param sessionId A String representing the session id.
+   * @return A CompletableFuture that completes with a Map of the session's sessionId,
+   *         documentName, userId, created time and parts, a List of the partNumber, hash
+   *         and size of every part stored in order, or with null if there is no such session.
+   */
+  public CompletableFuture<Map<String, Object>> getUploadSession(String collectionName,
+                                                                 String sessionId) {
+    return readSession(collectionName, sessionId).thenApply(session -> {
+      if (session == null) {
+        return null;
+      }
+      List<Map<String, Object>> parts = new ArrayList<>();
+      for (DataSnapshot partSnapshot : session.child("parts").getChildren()) {
+        Map<String, Object> part = new LinkedHashMap<>();
+        part.put("partNumber", Integer.valueOf(partSnapshot.getKey()));
+        part.put("hash", partSnapshot.child("hash").getValue(String.class));
+        part.put("size", partSnapshot.child("size").getValue(Long.class));
+        parts.add(part);
+      }
+      parts.sort((a, b) -> Integer.compare((int) a.get("partNumber"),
+          (int) b.get("partNumber")));
+
+      Map<String, Object> result = new LinkedHashMap<>();
+      result.put("sessionId", sessionId);
+      result.put("documentName", session.child("documentName").getValue(String.class));
+      result.put("userId", session.child("userId").getValue(String.class));
+      result.put("created", session.child("created").getValue(Long.class));
+      result.put("parts", parts);
+      return result;
+    });
+  }
+
+  /**
+   * Commits a resumable upload, streaming its parts in order into the file's chunks and
+   * writing the document like uploadFile does, in the same update that removes the session
+   * and releases its parts. The parts are read on UPLOAD_EXECUTOR once the session is,
+   * so the caller does not wait. A session whose commit fails is kept so the commit can be
+   * retried. The future fails with an IOException if the session or its parts can not be
+   * read or stored, an IllegalStateException if any of the parts from 1 to partCount is
+   * missing and a MaxUploadSizeExceededException if the parts exceed the maximum upload size.
+   *
+   * @param collectionName A String representing the network of the session.
+   * @param sessionId A String representing the session id.
+   * @param partCount An int representing the number of parts of the file.
+   * @return A CompletableFuture that may complete with the uploaded Document,
+   *         DUPLICATE_UPLOAD if the contents are unchanged, null if there is no such
+   *         session, or an error message.
+   */
+  public CompletableFuture<Object> commitUploadSession(String collectionName, String sessionId,
+                                                       int partCount) {
+    return readSession(collectionName, sessionId).thenComposeAsync(session -> {
+      if (session == null) {
+        return CompletableFuture.completedFuture(null);
+      }
+      try {
+        return commitSession(collectionName, session, partCount);
+      } catch (IOException | RuntimeException e) {
+        return CompletableFuture.failedFuture(e);
+      }
+    }, UPLOAD_EXECUTOR);
+  }
+
+  //a refused upload is reported like an unreachable database, answered with 503 so that
+  //the client retries once the uploads before it have finished
+  private static Executor newUploadExecutor() {
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(UPLOAD_THREADS, UPLOAD_THREADS,
+        1, TimeUnit.MINUTES, new ArrayBlockingQueue<>(UPLOAD_QUEUE), task -> {
+          Thread thread = new Thread(task, "upload");
+          thread.setDaemon(true);
+          return thread;
+        }, (task, refusing) -> {
+          throw new DatabaseUnavailableException("Too many uploads are in progress");
+        });
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  //streams the parts of a session into the document, blocking while they are read
+  private CompletableFuture<Object> commitSession(String collectionName, DataSnapshot session,
+                                                  int partCount) throws IOException {
+    Map<Integer, String> parts = partHashes(session);
+    List<Integer> missing = new ArrayList<>();
+    String[] hashes = new String[Math.max(0, partCount)];
+    for (int partNumber = 1; partNumber <= partCount; partNumber++) {
+      hashes[partNumber - 1] = parts.get(partNumber);
+      if (hashes[partNumber - 1] == null) {
+        missing.add(partNumber);
+      }
+    }
+    if (partCount < 1 || !missing.isEmpty()) {
+      throw new IllegalStateException("Missing parts " + (partCount < 1 ? "1" : missing));
+    }
+    long size = 0;
+    for (int partNumber = 1; partNumber <= partCount; partNumber++) {
+      Long partSize = session.child("parts/" + partNumber + "/size").getValue(Long.class);
+      size += partSize == null ? 0 : partSize;
+    }
+    if (size > maxUploadBytes) {
+      throw new MaxUploadSizeExceededException(maxUploadBytes);
+    }
+
+    try (InputStream contents = new ChunkInputStream(partCount,
+        index -> readChunk(collectionName, hashes[index]), READ_AHEAD_CHUNKS)) {
+      return streamUpload(contents, session.child("contentType").getValue(String.class),
+          collectionName, session.child("documentName").getValue(String.class),
+          session.child("userId").getValue(String.class),
+          sessionRemoval(collectionName, session))
+          .whenComplete((result, error) -> {
+            if (error == null) {
+              collectChunks(collectionName, new HashSet<>(parts.values()));
+            }
+          });
+    }
+  }
+
+  /**
+   * Aborts a resumable upload, removing the session and the parts no document shares.
+   *
+   * @param collectionName A String representing the network of the session.
+   * @param sessionId A String representing the session id.
+   * @return A CompletableFuture that completes with true once the session is removed, or
+   *         false if there is no such session.
+   */
+  public CompletableFuture<Boolean> abortUploadSession(String collectionName,
+                                                       String sessionId) {
+    return readSession(collectionName, sessionId).thenCompose(session -> session == null
+        ? CompletableFuture.completedFuture(false)
+        : endSession(collectionName, session).thenApply(done -> true));
+  }
+
+  /**
+   * Aborts the upload sessions, and the records of streamed uploads, left for a day in
+   * every network that has had uploads. Runs every upload.expiry-interval-ms rather than on
+   * the request path, the sessions of a network are found through its index on created.
+   */
+  @Scheduled(initialDelayString = "${upload.expiry-interval-ms:3600000}",
+      fixedDelayString = "${upload.expiry-interval-ms:3600000}")
+  public void abortExpiredUploads() {
+    long cutoff = System.currentTimeMillis() - UPLOAD_SESSION_TTL_MILLIS;
+    readSnapshot(UPLOAD_NETWORKS_COLLECTION).thenAccept(networks -> {
+      for (DataSnapshot network : networks.getChildren()) {
+        abortExpiredSessions(network.getKey(), cutoff);
+      }
+    }).exceptionally(e -> {
+      System.out.println("Networks with uploads could not be read: " + e.getMessage());
+      return null;
+    });
+  }
+
+  private void abortExpiredSessions(String collectionName, long cutoff) {
+    readSnapshot(UPLOADS_COLLECTION + "/" + collectionName, "created<=" + cutoff,
+        uploads -> uploads.orderByChild("created").endAt(cutoff)).thenAccept(sessions -> {
+          for (DataSnapshot session : sessions.getChildren()) {
+            endSession(collectionName, session);
+          }
+        }).exceptionally(e -> {
+          System.out.println("Expired upload sessions could not be aborted: " + e.getMessage());
+          return null;
+        });
+  }
+
+  private CompletableFuture<Void> endSession(String collectionName, DataSnapshot session) {
+    Set<String> hashes = new HashSet<>(partHashes(session).values());
+    return updatePaths(sessionRemoval(collectionName, session))
+        .thenRun(() -> collectChunks(collectionName, hashes));
+  }
+
+  private CompletableFuture<DataSnapshot> readSession(String collectionName, String sessionId) {
+    return readSnapshot(sessionPath(collectionName, sessionId))
+        .thenApply(session -> session.exists() ? session : null);
+  }
+
+  //removes the session and its ownership of its parts, leaving the chunks to be collected
+  private static Map<String, Object> sessionRemoval(String collectionName,
+                                                    DataSnapshot session) {
+    Map<String, Object> updates = new HashMap<>();
+    updates.put(sessionPath(collectionName, session.getKey()), null);
+    for (String hash : partHashes(session).values()) {
+      updates.put(pendingPath(collectionName, hash, session.getKey()), null);
+    }
+    return updates;
+  }
+
+  //the hash of every part of a session by part number
+  private static Map<Integer, String> partHashes(DataSnapshot session) {
+    Map<Integer, String> parts = new HashMap<>();
+    for (DataSnapshot part : session.child("parts").getChildren()) {
+      String hash = part.child("hash").getValue(String.class);
+      if (hash != null) {
+        parts.put(Integer.valueOf(part.getKey()), hash);
+      }
+    }
+    return parts;
+  }
+
+  private CompletableFuture<Object> commitUpload(String collectionName, String fileName,
+                                                 String userId, IngestedUpload upload,
+                                                 Map<String, Object> updates) {
+    return commitUpload(collectionName, fileName, userId, upload, updates, 1);
+  }
+
+  //an upload that lost the claim on the next version to a concurrent upload is attempted
+  //again, so that it follows the version the other upload wrote
+  private CompletableFuture<Object> commitUpload(String collectionName, String fileName,
+                                                 String userId, IngestedUpload upload,
+                                                 Map<String, Object> updates, int attempt) {
+    return attemptUpload(collectionName, fileName, userId, upload, new HashMap<>(updates))
+        .thenCompose(result -> {
+          if (result != VERSION_CONFLICT) {
+            return CompletableFuture.completedFuture(result);
+          }
+          if (attempt >= MAX_COMMIT_ATTEMPTS) {
+            return CompletableFuture.failedFuture(new ConcurrentModificationException(
+                "The document " + fileName + " is being uploaded concurrently"));
+          }
+          return CompletableFuture.runAsync(() -> { }, CompletableFuture.delayedExecutor(
+              COMMIT_BACKOFF_MILLIS * attempt, TimeUnit.MILLISECONDS)).thenCompose(waited ->
+              commitUpload(collectionName, fileName, userId, upload, updates, attempt + 1));
+        });
+  }
+
+  //looks the document up once, that single lookup decides whether the upload is a duplicate
+  //and which version it follows, the updates are written along with the upload
+  private CompletableFuture<Object> attemptUpload(String collectionName, String fileName,
+                                                  String userId, IngestedUpload upload,
+                                                  Map<String, Object> updates) {
+    return searchForDocument(collectionName, fileName).thenComposeAsync(dataSnapshot -> {
+      try {
+        if (dataSnapshot == null) {
+          String documentId = Document.generateDocumentId();
+          Document documentToUpload = new Document(userId, collectionName, null,
+              documentId, fileName, upload.getWordCount());
+          setUploadContents(documentToUpload, upload);
+          return claimTitle(collectionName, fileName, documentId).thenCompose(claimed -> {
+            if (!claimed) {
+              //the retry finds the document the other upload created and follows it
+              return CompletableFuture.completedFuture(VERSION_CONFLICT);
+            }
+            return writeUpload(collectionName, documentToUpload, upload, updates,
+                new HashMap<>(), new HashMap<>(), List.of()).whenComplete((result, error) -> {
+                  if (error != null) {
+                    releaseTitle(collectionName, fileName, documentId);
+                  }
+                });
+          });
+        }
+        Document previousDoc = Document.convertToDocument(
+            (HashMap<String, Object>) dataSnapshot.getValue());
+        Document documentToUpload = new Document(previousDoc.getUserId(), collectionName,
+            null, previousDoc.getDocId(), previousDoc.getTitle(), upload.getWordCount(), null);
+        setUploadContents(documentToUpload, upload);
+
+        // do not track duplicate documents, the stored digest spares reading the contents
+        String storedHash = dataSnapshot.child("contentHash").getValue(String.class);
+        if (upload.getContentHash().equals(storedHash)) {
+          return CompletableFuture.completedFuture(DUPLICATE_UPLOAD);
+        }
+        CompletableFuture<List<String>> previousManifest = readManifest(collectionName,
+            dataSnapshot);
+        //chunked contents become a version listing the same chunks, they need not be read
+        CompletableFuture<byte[]> previousContents = storedHash != null
+            && chunkCount(dataSnapshot) > 0 ? CompletableFuture.completedFuture(null)
+            : getDocumentBytes(collectionName, dataSnapshot);
+        //the delta to the previous version is encoded off the event thread
+        return previousContents.thenCompose(contents ->
+            previousManifest.thenComposeAsync(manifest -> {
+              try {
+                return uploadVersion(collectionName, dataSnapshot, previousDoc,
+                    documentToUpload, upload, contents, manifest, updates);
+              } catch (IOException e) {
+                return CompletableFuture.failedFuture(e);
+              }
+            }, COMPUTE_EXECUTOR));
+      } catch (IOException e) {
+        return CompletableFuture.failedFuture(e);
+      }
+    }, COMPUTE_EXECUTOR);
+  }
+
+  private static void setUploadContents(Document document, IngestedUpload upload) {
+    if (upload.getContents() == null) {
+      document.setStoredContents(upload.getSize(), upload.getContentHash());
+    } else {
+      document.setContents(upload.getContents(), upload.getContentHash());
+    }
+  }
+
+
+  //chains the upload onto the document found by the lookup, previousContents is null when
+  //the document is chunked and its digest known
+  private CompletableFuture<Object> uploadVersion(String collectionName,
+                                                  DataSnapshot dataSnapshot,
+                                                  Document previousDoc,
+                                                  Document documentToUpload,
+                                                  IngestedUpload upload,
+                                                  byte[] previousContents,
+                                                  List<String> previousManifest,
+                                                  Map<String, Object> updates)
+      throws IOException {
+    if (previousContents != null) {
+      previousDoc.setContents(previousContents);
+      //documents stored before digests were recorded are compared by their contents
+      if (upload.getContentHash().equals(previousDoc.getContentHash())) {
+        return CompletableFuture.completedFuture(DUPLICATE_UPLOAD);
+      }
+    }
+
+    if (isLegacy(dataSnapshot)) {
+      putLegacyVersions(updates, collectionName, dataSnapshot);
+    }
+    String documentId = previousDoc.getDocId();
+    int versionCount = previousDoc.getVersionCount() + 1;
+    Map<String, byte[]> chunks = new HashMap<>();
+    Object storedVersion = encodeVersion(upload.getContents(), previousContents,
+        previousManifest, versionCount, chunks);
+    putVersion(updates, collectionName, documentId, previousDoc, versionCount, storedVersion);
+    Map<String, Object> owners = new HashMap<>();
+    if (storedVersion instanceof List) {
+      putOwners(owners, collectionName, documentId, String.valueOf(versionCount),
+          (List<String>) storedVersion);
+    }
+    documentToUpload.setVersionCount(versionCount);
+    return claimVersion(collectionName, dataSnapshot).thenCompose(claimed -> {
+      if (!claimed) {
+        //the retry must not find the version it lost in the cache
+        documentCache.invalidate(collectionName, documentId);
+        return CompletableFuture.completedFuture(VERSION_CONFLICT);
+      }
+      return writeUpload(collectionName, documentToUpload, upload, updates, chunks, owners,
+          previousManifest).whenComplete((result, error) -> {
+            if (error != null) {
+              releaseClaim(collectionName, documentId);
+            }
+          });
+    });
+  }
+
+  //claims the next version in a transaction finding the metadata as the upload read it,
+  //so of two uploads following the same version only one writes it
+  private CompletableFuture<Boolean> claimVersion(String collectionName,
+                                                  DataSnapshot dataSnapshot) {
+    Object expected = withoutClaim(dataSnapshot.getValue());
+    CompletableFuture<Boolean> future = new CompletableFuture<>();
+    boolean[] claimed = new boolean[1];
+
+    getDatabaseReference().child(collectionName + "/" + dataSnapshot.getKey())
+        .runTransaction(new Transaction.Handler() {
+          @Override
+          public Transaction.Result doTransaction(MutableData currentData) {
+            claimed[0] = false;
+            if (currentData.getValue() == null) {
+              //run against an empty local copy first, it is run again with the stored value
+              return Transaction.success(currentData);
+            }
+            long now = System.currentTimeMillis();
+            Long claimedAt = currentData.child(COMMIT_CLAIM).getValue(Long.class);
+            if (claimedAt != null && now - claimedAt < COMMIT_CLAIM_TTL_MILLIS
+                || !Objects.equals(withoutClaim(currentData.getValue()), expected)) {
+              return Transaction.abort();
+            }
+            currentData.child(COMMIT_CLAIM).setValue(now);
+            claimed[0] = true;
+            return Transaction.success(currentData);
+          }
+
+          @Override
+          public void onComplete(DatabaseError databaseError, boolean committed,
+                                 DataSnapshot currentData) {
+            if (databaseError != null) {
+              future.completeExceptionally(databaseFailure(databaseError,
+                  databaseError.getMessage()));
+            } else {
+              future.complete(committed && claimed[0]);
+            }
+          }
+        });
+
+    return withTimeout(future);
+  }
+
+  //claims the title index entry of a document not uploaded yet in a transaction, so of two
+  //first uploads of a title only one creates the document; a claim left by an upload that
+  //failed may be taken over once it has expired
+  private CompletableFuture<Boolean> claimTitle(String collectionName, String title,
+                                                String documentId) {
+    CompletableFuture<Boolean> future = new CompletableFuture<>();
+    boolean[] claimed = new boolean[1];
+
+    getDatabaseReference().child(titleIndexPath(collectionName, title))
+        .runTransaction(new Transaction.Handler() {
+          @Override
+          public Transaction.Result doTransaction(MutableData currentData) {
+            claimed[0] = false;
+            long now = System.currentTimeMillis();
+            if (currentData.getValue() != null) {
+              Long claimedAt = currentData.child(COMMIT_CLAIM).getValue(Long.class);
+              if (claimedAt == null || now - claimedAt < COMMIT_CLAIM_TTL_MILLIS) {
+                return Transaction.abort();
+              }
+            }
+            Map<String, Object> claim = new HashMap<>();
+            claim.put("docId", documentId);
+            claim.put(COMMIT_CLAIM, now);
+            currentData.setValue(claim);
+            claimed[0] = true;
+            return Transaction.success(currentData);
+          }
+
+          @Override
+          public void onComplete(DatabaseError databaseError, boolean committed,
+                                 DataSnapshot currentData) {
+            if (databaseError != null) {
+              future.completeExceptionally(databaseFailure(databaseError,
+                  databaseError.getMessage()));
+            } else {
+              future.complete(committed && claimed[0]);
+            }
+          }
+        });
+
+    return withTimeout(future);
+  }
+
+  //a failed first upload removes its claim on the title, unless it was taken over
+  private void releaseTitle(String collectionName, String title, String documentId) {
+    getDatabaseReference().child(titleIndexPath(collectionName, title))
+        .runTransaction(new Transaction.Handler() {
+          @Override
+          public Transaction.Result doTransaction(MutableData currentData) {
+            if (currentData.getValue() == null) {
+              return Transaction.success(currentData);
+            }
+            if (!currentData.hasChild(COMMIT_CLAIM)
+                || !documentId.equals(currentData.child("docId").getValue(String.class))) {
+              return Transaction.abort();
+            }
+            currentData.setValue(null);
+            return Transaction.success(currentData);
+          }
+
+          @Override
+          public void onComplete(DatabaseError databaseError, boolean committed,
+                                 DataSnapshot currentData) {
+            if (databaseError != null) {
+              System.out.println("Title claim could not be released: "
+                  + databaseError.getMessage());
+            }
+          }
+        });
+  }
+
+  //a failed update leaves the claim, which is removed rather than left to expire
+  private void releaseClaim(String collectionName, String documentId) {
+    Map<String, Object> release = new HashMap<>();
+    release.put(collectionName + "/" + documentId + "/" + COMMIT_CLAIM, null);
+    updatePaths(release).exceptionally(error -> {
+      System.out.println("Claim could not be released: " + error.getMessage());
+      return null;
+    });
+  }
+
+  private static Object withoutClaim(Object metadata) {
+    if (!(metadata instanceof Map)) {
+      return metadata;
+    }
+    Map<Object, Object> fields = new HashMap<>((Map<?, ?>) metadata);
+    fields.remove(COMMIT_CLAIM);
+    return fields;
+  }
+
+  //the chunks listed by the new manifests are stored and owned before the update is
+  //committed, the chunks only the previous manifest listed are released after it
+  private CompletableFuture<Object> writeUpload(String collectionName, Document document,
+                                                IngestedUpload upload,
+                                                Map<String, Object> updates,
+                                                Map<String, byte[]> chunks,
+                                                Map<String, Object> owners,
+                                                List<String> previousManifest) {
+    String documentId = document.getDocId();
+    Map<String, Object> metadata = document.toMetadata();
+    List<String> manifest = upload.getManifest();
+    if (upload.isChunked()) {
+      chunks.putAll(upload.getChunks());
+      putOwners(owners, collectionName, documentId, CURRENT_OWNER, manifest);
+      metadata.put("chunkCount", manifest.size());
+      updates.put(contentsPath(collectionName, documentId), manifest);
+    } else {
+      updates.put(contentsPath(collectionName, documentId), upload.getStoredContents());
+    }
+    Set<String> released = new HashSet<>(previousManifest);
+    released.removeAll(manifest);
+    for (String hash : released) {
+      updates.put(ownerPath(collectionName, hash, documentId) + "/" + CURRENT_OWNER, null);
+    }
+    updates.put(collectionName + "/" + documentId, metadata);
+    updates.put(titleIndexPath(collectionName, document.getTitle()), documentId);
+    putUserEntries(updates, collectionName, documentId, document.getUserId(),
+        document.getTitle());
+
+    return storeChunks(collectionName, chunks, owners, upload.getContentType())
+        .thenCompose(ignored -> updatePaths(updates))
+        .thenApply(ignored -> {
+          System.out.println("Data added successfully.");
+          collectChunks(collectionName, released);
+          return document;
+        });
+  }
+
+  //splits contents into chunks, adding them to chunks by hash, and returns their manifest
+  private List<String> splitChunks(byte[] contents, Map<String, byte[]> chunks) {
+    List<String> manifest = new ArrayList<>();
+    for (byte[] chunk : ContentChunker.split(contents, chunkSize)) {
+      String hash = Document.hashContents(chunk);
+      chunks.putIfAbsent(hash, chunk);
+      manifest.add(hash);
+    }
+    return manifest;
+  }
+
+  private static void putOwners(Map<String, Object> owners, String collectionName,
+                                String documentId, String owner, List<String> manifest) {
+    for (String hash : manifest) {
+      owners.put(ownerPath(collectionName, hash, documentId) + "/" + owner, true);
+    }
+  }
+
+  //owning the chunks first keeps them from being collected while they are checked, the
+  //chunks found missing are then written, in updates small enough for the SDK
+  private CompletableFuture<Void> storeChunks(String collectionName, Map<String, byte[]> chunks,
+                                              Map<String, Object> owners, String contentType) {
+    if (chunks.isEmpty()) {
+      //the chunks of a streamed upload or of a chunked version are stored already
+      return owners.isEmpty() ? CompletableFuture.completedFuture(null) : updatePaths(owners);
+    }
+    DatabaseReference databaseReference = getDatabaseReference();
+    return updatePaths(owners).thenCompose(owned -> {
+      Map<String, CompletableFuture<DataSnapshot>> sizes = new HashMap<>();
+      for (String hash : chunks.keySet()) {
+        sizes.put(hash, readSnapshot(chunkPath(collectionName, hash) + "/size"));
+      }
+      return CompletableFuture.allOf(sizes.values().toArray(new CompletableFuture[0]))
+          .thenCompose(checked -> {
+            List<CompletableFuture<Void>> writes = new ArrayList<>();
+            Map<String, Object> batch = new HashMap<>();
+            int batchBytes = 0;
+            for (Map.Entry<String, CompletableFuture<DataSnapshot>> size : sizes.entrySet()) {
+              if (size.getValue().join().exists()) {
+                continue;
+              }
+              byte[] chunk = chunks.get(size.getKey());
+              String stored = encodeContents(chunk, contentType);
+              if (batchBytes + stored.length() > MAX_UPDATE_BYTES && !batch.isEmpty()) {
+                writes.add(updatePaths(batch));
+                batch = new HashMap<>();
+                batchBytes = 0;
+              }
+              String path = chunkPath(collectionName, size.getKey());
+              batch.put(path + "/data", stored);
+              batch.put(path + "/size", chunk.length);
+              batchBytes += stored.length();
+            }
+            if (!batch.isEmpty()) {
+              writes.add(updatePaths(batch));
+            }
+            return CompletableFuture.allOf(writes.toArray(new CompletableFuture[0]));
+          });
+    });
+  }
+
+  /**
+   * Removes the given chunks of a network that no manifest lists any more. A chunk is
+   * removed in a transaction that finds it without owners, so a chunk owned again in the
+   * meantime is kept.
+   *
+   * @param collectionName A String representing the network the chunks belong to.
+   * @param hashes A Collection of the hashes of the chunks that may be unreferenced.
+   * @return A CompletableFuture that completes with the number of chunks removed.
+   */
+  public CompletableFuture<Integer> collectChunks(String collectionName,
+                                                  Collection<String> hashes) {
+    DatabaseReference databaseReference = getDatabaseReference();
+    List<CompletableFuture<Boolean>> collections = new ArrayList<>();
+    for (String hash : hashes) {
+      DatabaseReference chunkReference = databaseReference.child(
+          chunkPath(collectionName, hash));
+      collections.add(readSnapshot(chunkPath(collectionName, hash) + "/owners")
+          .thenCompose(owners -> owners.exists() ? CompletableFuture.completedFuture(false)
+              : removeUnowned(chunkReference)));
+    }
+
+    return CompletableFuture.allOf(collections.toArray(new CompletableFuture[0])).handle(
+        (done, error) -> {
+          int collected = 0;
+          for (CompletableFuture<Boolean> collection : collections) {
+            if (!collection.isCompletedExceptionally() && collection.join()) {
+              collected++;
+            }
+          }
+          if (error != null) {
+            System.out.println("Chunks could not be collected: " + error.getMessage());
+          }
+          if (collected > 0) {
+            System.out.println("Collected " + collected + " chunks in " + collectionName);
+          }
+          return collected;
+        });
+  }
+
+  private CompletableFuture<Boolean> removeUnowned(DatabaseReference chunkReference) {
+    CompletableFuture<Boolean> future = new CompletableFuture<>();
+    boolean[] removed = new boolean[1];
+
+    chunkReference.runTransaction(new Transaction.Handler() {
+      @Override
+      public Transaction.Result doTransaction(MutableData currentData) {
+        removed[0] = false;
+        if (currentData.getValue() == null) {
+          return Transaction.success(currentData);
+        }
+        if (currentData.hasChild("owners")) {
+          return Transaction.abort();
+        }
+        currentData.setValue(null);
+        removed[0] = true;
+        return Transaction.success(currentData);
+      }
+
+      @Override
+      public void onComplete(DatabaseError databaseError, boolean committed,
+                             DataSnapshot currentData) {
+        if (databaseError != null) {
+          future.completeExceptionally(databaseFailure(databaseError,
+              databaseError.getMessage()));
+        } else {
+          future.complete(committed && removed[0]);
+        }
+      }
+    });
+
+    return withTimeout(future);
+  }
+
+  /**
+   * Retrieves the current contents of a document found by searchForDocument.
+   *
+   * @param collectionName A String representing the network the document belongs to.
+   * @param documentSnapshot A DataSnapshot of the document's metadata.
+   * @return A CompletableFuture that completes with the document's file string
+   *         or completes exceptionally with an error message.
+   */
+  public CompletableFuture<String> getDocumentContents(String collectionName,
+                                                      DataSnapshot documentSnapshot) {
+    if (chunkCount(documentSnapshot) > 0) {
+      return getDocumentBytes(collectionName, documentSnapshot).thenApplyAsync(contents ->
+          ContentCodec.LEGACY_PREFIX + Base64.getEncoder().encodeToString(contents),
+          COMPUTE_EXECUTOR);
+    }
+    return readStoredContents(collectionName, documentSnapshot)
+        .thenApplyAsync(ContentCodec::toFileString, COMPUTE_EXECUTOR);
+  }
+
+  /**
+   * Retrieves the current contents of a document found by searchForDocument as raw bytes.
+   *
+   * @param collectionName A String representing the network the document belongs to.
+   * @param documentSnapshot A DataSnapshot of the document's metadata.
+   * @return A CompletableFuture that completes with the document's contents
+   *         or completes exceptionally with an error message.
+   */
+  public CompletableFuture<byte[]> getDocumentBytes(String collectionName,
+                                                    DataSnapshot documentSnapshot) {
+    if (chunkCount(documentSnapshot) == 0) {
+      return readStoredContents(collectionName, documentSnapshot)
+          .thenApplyAsync(ContentCodec::decode, COMPUTE_EXECUTOR);
+    }
+    return concatenate(getDocumentChunks(collectionName, documentSnapshot));
+  }
+
+  /**
+   * Retrieves the current contents of a document found by searchForDocument as a list of
+   * chunks in order. Every chunk is requested at once, so the chunks can be consumed in
+   * order while later ones are still being read. Documents that are not chunked are
+   * returned as a single chunk.
+   *
+   * @param collectionName A String representing the network the document belongs to.
+   * @param documentSnapshot A DataSnapshot of the document's metadata.
+   * @return A List of CompletableFutures that each complete with a chunk of the contents
+   *         or complete exceptionally with an error message.
+   */
+  public List<CompletableFuture<byte[]>> getDocumentChunks(String collectionName,
+                                                          DataSnapshot documentSnapshot) {
+    int chunkCount = chunkCount(documentSnapshot);
+    if (chunkCount == 0) {
+      return List.of(getDocumentBytes(collectionName, documentSnapshot));
+    }
+    List<CompletableFuture<byte[]>> chunks = new ArrayList<>(chunkCount);
+    for (int index = 0; index < chunkCount; index++) {
+      chunks.add(new CompletableFuture<>());
+    }
+    readManifest(collectionName, documentSnapshot).whenComplete((manifest, error) -> {
+      for (int index = 0; index < chunkCount; index++) {
+        CompletableFuture<byte[]> chunk = chunks.get(index);
+        if (error != null) {
+          chunk.completeExceptionally(error);
+        } else if (index >= manifest.size()) {
+          chunk.completeExceptionally(new IllegalStateException("The manifest is truncated"));
+        } else {
+          readChunk(collectionName, manifest.get(index)).whenComplete((contents, chunkError) -> {
+            if (chunkError != null) {
+              chunk.completeExceptionally(chunkError);
+            } else {
+              chunk.complete(contents);
+            }
+          });
+        }
+      }
+    });
+    return chunks;
+  }
+
+  /**
+   * Opens the current contents of a document found by searchForDocument as a stream. The
+   * chunks of a chunked document are read as the stream is consumed, at most
+   * READ_AHEAD_CHUNKS of them ahead of the one being read, so the memory held by the stream
+   * stays bounded however large the document is. A stream starting past the first byte
+   * finds its first chunk from the stored chunk sizes and reads none of the chunks before it.
+   *
+   * @param collectionName A String representing the network the document belongs to.
+   * @param documentSnapshot A DataSnapshot of the document's metadata.
+   * @param offset A long representing the first byte of the contents to stream.
+   * @return A CompletableFuture that completes with a stream of the document's contents
+   *         or completes exceptionally with an error message.
+   */
+  public CompletableFuture<InputStream> openDocument(String collectionName,
+                                                     DataSnapshot documentSnapshot,
+                                                     long offset) {
+    if (chunkCount(documentSnapshot) == 0) {
+      return getDocumentBytes(collectionName, documentSnapshot).thenApply(contents -> {
+        ByteArrayInputStream stream = new ByteArrayInputStream(contents);
+        stream.skip(offset);
+        return stream;
+      });
+    }
+    return readManifest(collectionName, documentSnapshot).thenCompose(manifest -> {
+      CompletableFuture<long[]> sizes = offset == 0
+          ? CompletableFuture.completedFuture(new long[0])
+          : readChunkSizes(collectionName, manifest);
+      return sizes.thenApply(chunkSizes -> {
+        int first = 0;
+        long skipped = 0;
+        while (first < chunkSizes.length && skipped + chunkSizes[first] <= offset) {
+          skipped += chunkSizes[first++];
+        }
+        int firstChunk = first;
+        return new ChunkInputStream(manifest.size() - firstChunk, index -> readChunk(
+            collectionName, manifest.get(firstChunk + index)), READ_AHEAD_CHUNKS,
+            offset - skipped);
+      });
+    });
+  }
+
+  private CompletableFuture<long[]> readChunkSizes(String collectionName,
+                                                   List<String> manifest) {
+    List<CompletableFuture<DataSnapshot>> sizes = new ArrayList<>(manifest.size());
+    for (String hash : manifest) {
+      sizes.add(readSnapshot(chunkPath(collectionName, hash) + "/size"));
+    }
+    return CompletableFuture.allOf(sizes.toArray(new CompletableFuture[0])).thenApply(done -> {
+      long[] chunkSizes = new long[sizes.size()];
+      for (int index = 0; index < chunkSizes.length; index++) {
+        Long size = sizes.get(index).join().getValue(Long.class);
+        if (size == null) {
+          throw new IllegalStateException("Chunk " + manifest.get(index) + " is missing");
+        }
+        chunkSizes[index] = size;
+      }
+      return chunkSizes;
+    });
+  }
+
+  //the hashes of a chunked document's chunks in order, empty for other documents
+  private CompletableFuture<List<String>> readManifest(String collectionName,
+                                                      DataSnapshot documentSnapshot) {
+    if (chunkCount(documentSnapshot) == 0) {
+      return CompletableFuture.completedFuture(List.of());
+    }
+    return readSnapshot(contentsPath(collectionName, documentSnapshot.getKey())).thenApply(
+        manifestSnapshot -> {
+          Object manifest = manifestSnapshot.getValue();
+          if (!(manifest instanceof List)) {
+            throw new IllegalStateException("The manifest is missing");
+          }
+          return (List<String>) manifest;
+        });
+  }
+
+  private List<CompletableFuture<byte[]>> readChunks(String collectionName,
+                                                     List<String> manifest) {
+    List<CompletableFuture<byte[]>> chunks = new ArrayList<>(manifest.size());
+    for (String hash : manifest) {
+      chunks.add(readChunk(collectionName, hash));
+    }
+    return chunks;
+  }
+
+  private CompletableFuture<byte[]> readChunk(String collectionName, String hash) {
+    return readSnapshot(chunkPath(collectionName, hash) + "/data")
+        .thenApplyAsync(chunkSnapshot -> {
+          String stored = chunkSnapshot.getValue(String.class);
+          if (stored == null) {
+            throw new IllegalStateException("Chunk " + hash + " is missing");
+          }
+          return ContentCodec.decode(stored);
+        }, COMPUTE_EXECUTOR);
+  }
+
+  private static CompletableFuture<byte[]> concatenate(List<CompletableFuture<byte[]>> chunks) {
+    return CompletableFuture.allOf(chunks.toArray(new CompletableFuture[0])).thenApplyAsync(
+        done -> {
+          ByteArrayOutputStream contents = new ByteArrayOutputStream();
+          for (CompletableFuture<byte[]> chunk : chunks) {
+            contents.writeBytes(chunk.join());
+          }
+          return contents.toByteArray();
+        }, COMPUTE_EXECUTOR);
+  }
+
+  //the contents as stored, the cache holds them in this form as it is the most compact
+  private CompletableFuture<String> readStoredContents(String collectionName,
+                                                      DataSnapshot documentSnapshot) {
+    if (isLegacy(documentSnapshot)) {
+      return CompletableFuture.completedFuture(
+          documentSnapshot.child("fileString").getValue(String.class));
+    }
+    String documentId = documentSnapshot.getKey();
+    String cached = documentCache.getContents(collectionName, documentId);
+    if (cached != null) {
+      return CompletableFuture.completedFuture(cached);
+    }
+    long generation = documentCache.generation();
+    return readSnapshot(contentsPath(collectionName, documentId)).thenApply(contentsSnapshot -> {
+      String stored = contentsSnapshot.getValue(String.class);
+      if (stored == null) {
+        return ContentCodec.LEGACY_PREFIX;
+      }
+      documentCache.putContents(collectionName, documentId, stored, generation);
+      return stored;
+    });
+  }
+
+  private String encodeContents(byte[] contents, String contentType) {
+    return contentCodec.encode(contents, contentType, compressionLevel);
+  }
+
+  /**
+   * Retrieves a single previous version of a document found by searchForDocument. Only
+   * the versions between the requested one and the next full copy are read, with the
+   * current contents read instead when no full copy lies above the requested version.
+   *
+   * @param collectionName A String representing the network the document belongs to.
+   * @param documentSnapshot A DataSnapshot of the document's metadata.
+   * @param revisionNumber An int representing the version to retrieve, starting at 1.
+   * @return A CompletableFuture that completes with the version's attributes and file string,
+   *         or null if no such version exists.
+   */
+  public CompletableFuture<Map<String, Object>> getVersion(String collectionName,
+                                                          DataSnapshot documentSnapshot,
+                                                          int revisionNumber) {
+    String revision = String.valueOf(revisionNumber);
+    if (isLegacy(documentSnapshot)) {
+      DataSnapshot versionSnapshot = documentSnapshot.child("previousVersions").child(revision);
+      return CompletableFuture.completedFuture((Map<String, Object>) versionSnapshot.getValue());
+    }
+    String documentId = documentSnapshot.getKey();
+    int newest = Math.min(revisionNumber + KEYFRAME_INTERVAL - 1, versionCount(documentSnapshot));
+    CompletableFuture<DataSnapshot> metadata = readSnapshot(
+        historyPath(collectionName, documentId) + "/" + revision);
+    CompletableFuture<DataSnapshot> chain = readSnapshot(versionsPath(collectionName, documentId),
+        "key=" + revision + ".." + newest, versions -> versions.orderByKey()
+            .startAt(revision).endAt(String.valueOf(newest)));
+
+    CompletableFuture<String> fileString = chain.thenCompose(versionsSnapshot -> {
+      for (int top = revisionNumber; top <= newest; top++) {
+        Object stored = versionsSnapshot.child(String.valueOf(top)).getValue();
+        if (stored instanceof List
+            || stored instanceof String && !((String) stored).startsWith(DELTA_PREFIX)) {
+          int fullCopy = top;
+          return readChunkedVersions(collectionName, versionsSnapshot, fullCopy)
+              .thenApplyAsync(fullCopies -> rebuildVersions(null, versionsSnapshot,
+                  fullCopies, fullCopy, revisionNumber).get(revisionNumber), COMPUTE_EXECUTOR);
+        }
+      }
+      return getDocumentBytes(collectionName, documentSnapshot).thenApplyAsync(current ->
+          rebuildVersions(current, versionsSnapshot, Map.of(), newest, revisionNumber)
+              .get(revisionNumber), COMPUTE_EXECUTOR);
+    });
+
+    return metadata.thenCombine(fileString, (metadataSnapshot, contents) -> {
+      if (!metadataSnapshot.exists()) {
+        return null;
+      }
+      Map<String, Object> version = new HashMap<>(
+          (Map<String, Object>) metadataSnapshot.getValue());
+      version.put("fileString", contents);
+      return version;
+    });
+  }
+
+  /**
+   * Lists the metadata of a page of a document's previous versions, oldest first, without
+   * reading any of their contents. Only the requested page of the history is read, so the
+   * cost of a page does not depend on how many versions the document has.
+   *
+   * @param collectionName A String representing the network the document belongs to.
+   * @param documentSnapshot A DataSnapshot of the document's metadata.
+   * @param after An int representing the last version of the previous page, 0 for the first.
+   * @param pageSize An int representing the maximum number of versions to list.
+   * @return A CompletableFuture that completes with the page's "versions" and the
+   *         "nextCursor" to pass as after for the next page, null on the last page.
+   */
+  public CompletableFuture<Map<String, Object>> listVersions(String collectionName,
+                                                            DataSnapshot documentSnapshot,
+                                                            int after, int pageSize) {
+    CompletableFuture<List<Map<String, Object>>> entries;
+    if (isLegacy(documentSnapshot)) {
+      List<Map<String, Object>> legacyEntries = new ArrayList<>();
+      int revisionNumber = 0;
+      for (DataSnapshot versionSnapshot
+          : documentSnapshot.child("previousVersions").getChildren()) {
+        if (revisionNumber > after && legacyEntries.size() <= pageSize) {
+          Map<String, Object> version = new HashMap<>(
+              (Map<String, Object>) versionSnapshot.getValue());
+          version.put("size", Document.decodedLength((String) version.remove("fileString")));
+          version.put("revisionNumber", revisionNumber);
+          legacyEntries.add(version);
+        }
+        revisionNumber++;
+      }
+      entries = CompletableFuture.completedFuture(legacyEntries);
+    } else {
+      //one extra entry tells whether another page follows
+      CompletableFuture<DataSnapshot> page = readSnapshot(
+          historyPath(collectionName, documentSnapshot.getKey()),
+          "key>" + after + ",first=" + (pageSize + 1), history -> history.orderByKey()
+              .startAt(String.valueOf(after + 1)).limitToFirst(pageSize + 1));
+      entries = page.thenApply(historySnapshot -> {
+        List<Map<String, Object>> versions = new ArrayList<>();
+        for (DataSnapshot versionSnapshot : historySnapshot.getChildren()) {
+          Map<String, Object> version = new HashMap<>(
+              (Map<String, Object>) versionSnapshot.getValue());
+          version.put("revisionNumber", Integer.parseInt(versionSnapshot.getKey()));
+          versions.add(version);
+        }
+        return versions;
+      });
+    }
+
+    return entries.thenApply(versions -> {
+      Map<String, Object> result = new LinkedHashMap<>();
+      boolean hasMore = versions.size() > pageSize;
+      List<Map<String, Object>> pageVersions = hasMore ? versions.subList(0, pageSize)
+          : versions;
+      result.put("versions", pageVersions);
+      result.put("nextCursor", hasMore
+          ? pageVersions.get(pageVersions.size() - 1).get("revisionNumber") : null);
+      return result;
+    });
+  }
+
+  /**
+   * Assembles the complete representation of a document found by searchForDocument, its
+   * metadata together with its contents and every previous version, in the form documents
+   * were originally stored in.
+   *
+   * @param collectionName A String representing the network the document belongs to.
+   * @param documentSnapshot A DataSnapshot of the document's metadata.
+   * @return A CompletableFuture that completes with the document's attributes
+   *         or completes exceptionally with an error message.
+   */
+  public CompletableFuture<Map<String, Object>> assembleDocument(String collectionName,
+                                                                DataSnapshot documentSnapshot) {
+    if (isLegacy(documentSnapshot)) {
+      return CompletableFuture.completedFuture(
+          (Map<String, Object>) documentSnapshot.getValue());
+    }
+    String documentId = documentSnapshot.getKey();
+    CompletableFuture<byte[]> contents = getDocumentBytes(collectionName, documentSnapshot);
+    CompletableFuture<DataSnapshot> history = readSnapshot(
+        historyPath(collectionName, documentId));
+    CompletableFuture<DataSnapshot> versions = readSnapshot(
+        versionsPath(collectionName, documentId));
+    CompletableFuture<Map<Integer, byte[]>> fullCopies = versions.thenCompose(versionsSnapshot ->
+        readChunkedVersions(collectionName, versionsSnapshot, 0));
+
+    return CompletableFuture.allOf(contents, history, fullCopies).thenApplyAsync(done -> {
+      Map<String, Object> document = new HashMap<>(
+          (Map<String, Object>) documentSnapshot.getValue());
+      document.remove("versionCount");
+      document.remove("chunkCount");
+      document.put("fileString", ContentCodec.LEGACY_PREFIX
+          + Base64.getEncoder().encodeToString(contents.join()));
+
+      Map<Integer, String> fileStrings = rebuildVersions(contents.join(),
+          versions.join(), fullCopies.join(), versionCount(documentSnapshot), 1);
+
+      //index 0 holds an empty placeholder document, as in the original layout
+      List<Object> previousVersions = new ArrayList<>();
+      previousVersions.add(emptyVersion());
+      for (DataSnapshot versionSnapshot : history.join().getChildren()) {
+        Map<String, Object> version = new HashMap<>(
+            (Map<String, Object>) versionSnapshot.getValue());
+        version.put("fileString", fileStrings.get(Integer.valueOf(versionSnapshot.getKey())));
+        previousVersions.add(version);
+      }
+      document.put("previousVersions", previousVersions);
+      return document;
+    }, COMPUTE_EXECUTOR);
+  }
+
+  /**
+   * Migrates the documents of a network still stored in the original layout, where the
+   * contents and all previous versions were held in the document node, to the split
+   * metadata / contents / versions layout. Networks are migrated automatically the first
+   * time they are scanned, this can be used to migrate them ahead of time.
+   *
+   * @param collectionName A String representing the network to migrate.
+   * @return A CompletableFuture that completes with the number of documents migrated
+   *         or completes exceptionally with an error message.
+   */
+  public CompletableFuture<Integer> migrateNetwork(String collectionName) {
+    return readSnapshot(collectionName).thenCompose(collectionSnapshot ->
+        migrateDocuments(collectionName, collectionSnapshot));
+  }
+
+  //each document is rewritten in its own atomic update
+  private CompletableFuture<Integer> migrateDocuments(String collectionName,
+                                                     DataSnapshot collectionSnapshot) {
+    List<CompletableFuture<Void>> migrations = new ArrayList<>();
+    for (DataSnapshot documentSnapshot : collectionSnapshot.getChildren()) {
+      if (!isLegacy(documentSnapshot) || !documentSnapshot.hasChild("wordCount")) {
+        continue;
+      }
+      try {
+        Document document = Document.convertToDocument(
+            (HashMap<String, Object>) documentSnapshot.getValue());
+        Map<String, Object> updates = new HashMap<>();
+        putLegacyVersions(updates, collectionName, documentSnapshot);
+        updates.put(collectionName + "/" + document.getDocId(), document.toMetadata());
+        updates.put(contentsPath(collectionName, document.getDocId()),
+            encodeContents(document.getContents(), null));
+        migrations.add(updatePaths(updates));
+      } catch (IOException e) {
+        System.out.println("Document could not be migrated: " + e.getMessage());
+      }
+    }
+
+    return CompletableFuture.allOf(migrations.toArray(new CompletableFuture[0])).thenApply(
+        done -> {
+          System.out.println("Migrated " + migrations.size() + " documents in " + collectionName);
+          return migrations.size();
+        });
+  }
+
+  //documents in the original layout hold their contents in the document node
+  private static boolean isLegacy(DataSnapshot documentSnapshot) {
+    return documentSnapshot.hasChild("fileString")
+        || documentSnapshot.hasChild("previousVersions");
+  }
+
+  //copies the versions held in a document node of the original layout to the new layout
+  private void putLegacyVersions(Map<String, Object> updates, String collectionName,
+                                 DataSnapshot documentSnapshot) throws IOException {
+    int revisionNumber = 0;
+    for (DataSnapshot versionSnapshot : documentSnapshot.child("previousVersions").getChildren()) {
+      //index 0 is the empty placeholder document
+      if (revisionNumber > 0) {
+        Document version = Document.convertToDocument(
+            (HashMap<String, Object>) versionSnapshot.getValue());
+        putVersion(updates, collectionName, documentSnapshot.getKey(), version, revisionNumber,
+            encodeContents(version.getContents(), null));
+      }
+      revisionNumber++;
+    }
+  }
+
+  private static void putVersion(Map<String, Object> updates, String collectionName,
+                                 String documentId, Document version, int revisionNumber,
+                                 Object storedContents) {
+    Map<String, Object> metadata = version.toMetadata();
+    metadata.remove("versionCount");
+    updates.put(historyPath(collectionName, documentId) + "/" + revisionNumber, metadata);
+    updates.put(versionsPath(collectionName, documentId) + "/" + revisionNumber,
+        storedContents);
+  }
+
+  //stores the older contents as a delta against the newer ones unless a keyframe is due or
+  //the newer ones were streamed without being held, older contents larger than the chunk
+  //size are chunked as they share most chunks with the contents they were replaced by,
+  //which makes their full copy nearly free, and chunked already they keep their manifest
+  private Object encodeVersion(byte[] newer, byte[] older, List<String> olderManifest,
+                               int revisionNumber, Map<String, byte[]> chunks) {
+    if (!olderManifest.isEmpty()) {
+      return olderManifest;
+    }
+    if (older.length > chunkSize) {
+      return splitChunks(older, chunks);
+    }
+    String fullCopy = encodeContents(older, null);
+    if (newer == null || revisionNumber % KEYFRAME_INTERVAL == 0) {
+      return fullCopy;
+    }
+    byte[] delta = VersionDelta.encode(newer, older);
+    String encodedDelta = DELTA_PREFIX + Base64.getEncoder().encodeToString(delta);
+    return encodedDelta.length() < fullCopy.length() ? encodedDelta : fullCopy;
+  }
+
+  //reads the contents of the chunked versions among the versions read by revision number,
+  //only the given version is read unless it is 0
+  private CompletableFuture<Map<Integer, byte[]>> readChunkedVersions(
+      String collectionName, DataSnapshot versionsSnapshot, int revisionNumber) {
+    Map<Integer, CompletableFuture<byte[]>> reads = new HashMap<>();
+    for (DataSnapshot versionSnapshot : versionsSnapshot.getChildren()) {
+      Object stored = versionSnapshot.getValue();
+      boolean requested = revisionNumber == 0
+          || versionSnapshot.getKey().equals(String.valueOf(revisionNumber));
+      if (requested && stored instanceof List) {
+        reads.put(Integer.valueOf(versionSnapshot.getKey()),
+            concatenate(readChunks(collectionName, (List<String>) stored)));
+      }
+    }
+    return CompletableFuture.allOf(reads.values().toArray(new CompletableFuture[0]))
+        .thenApply(done -> {
+          Map<Integer, byte[]> fullCopies = new HashMap<>();
+          reads.forEach((revision, read) -> fullCopies.put(revision, read.join()));
+          return fullCopies;
+        });
+  }
+
+  //rebuilds the versions from top down to bottom, newer holds the contents above top and
+  //fullCopies the contents of the chunked versions
+  private static Map<Integer, String> rebuildVersions(byte[] newer, DataSnapshot versionsSnapshot,
+                                                      Map<Integer, byte[]> fullCopies,
+                                                      int top, int bottom) {
+    Map<Integer, String> fileStrings = new HashMap<>();
+    byte[] contents = newer;
+    for (int revisionNumber = top; revisionNumber >= bottom; revisionNumber--) {
+      if (fullCopies.containsKey(revisionNumber)) {
+        contents = fullCopies.get(revisionNumber);
+        fileStrings.put(revisionNumber, "#" + Base64.getEncoder().encodeToString(contents));
+        continue;
+      }
+      String stored = versionsSnapshot.child(String.valueOf(revisionNumber))
+          .getValue(String.class);
+      if (stored == null) {
+        throw new IllegalStateException("Version " + revisionNumber + " is missing");
+      }
+      if (stored.startsWith(DELTA_PREFIX)) {
+        contents = VersionDelta.apply(contents,
+            Base64.getDecoder().decode(stored.substring(DELTA_PREFIX.length())));
+        fileStrings.put(revisionNumber, "#" + Base64.getEncoder().encodeToString(contents));
+      } else {
+        contents = ContentCodec.decode(stored);
+        fileStrings.put(revisionNumber, stored.startsWith(ContentCodec.LEGACY_PREFIX) ? stored
+            : "#" + Base64.getEncoder().encodeToString(contents));
+      }
+    }
+    return fileStrings;
+  }
+
+  private static int chunkCount(DataSnapshot documentSnapshot) {
+    Long chunkCount = documentSnapshot.child("chunkCount").getValue(Long.class);
+    return chunkCount == null ? 0 : chunkCount.intValue();
+  }
+
+  private static int versionCount(DataSnapshot documentSnapshot) {
+    Long versionCount = documentSnapshot.child("versionCount").getValue(Long.class);
+    return versionCount == null ? 0 : versionCount.intValue();
+  }
+
+  private static Map<String, Object> emptyVersion() {
+    Map<String, Object> version = new HashMap<>();
+    version.put("userId", "");
+    version.put("clientId", "");
+    version.put("docId", "");
+    version.put("title", "");
+    version.put("wordCount", 0);
+    version.put("fileString", "#");
+    return version;
+  }
+
+  private static String contentsPath(String collectionName, String documentId) {
+    return CONTENTS_COLLECTION + "/" + collectionName + "/" + documentId;
+  }
+
+  private static String chunkPath(String collectionName, String hash) {
+    return CHUNKS_COLLECTION + "/" + collectionName + "/" + hash;
+  }
+
+  private static String ownerPath(String collectionName, String hash, String documentId) {
+    return chunkPath(collectionName, hash) + "/owners/" + documentId;
+  }
+
+  private static String pendingPath(String collectionName, String hash, String uploadId) {
+    return ownerPath(collectionName, hash, uploadId) + "/" + PENDING_OWNER;
+  }
+
+  private static String sessionPath(String collectionName, String sessionId) {
+    return UPLOADS_COLLECTION + "/" + collectionName + "/" + sessionId;
+  }
+
+  private static String uploadNetworkPath(String collectionName) {
+    return UPLOAD_NETWORKS_COLLECTION + "/" + collectionName;
+  }
+
+  private static String partPath(String collectionName, String sessionId, int partNumber) {
+    return sessionPath(collectionName, sessionId) + "/parts/" + partNumber;
+  }
+
+  private static String versionsPath(String collectionName, String documentId) {
+    return VERSIONS_COLLECTION + "/" + collectionName + "/" + documentId;
+  }
+
+  private static String historyPath(String collectionName, String documentId) {
+    return HISTORY_COLLECTION + "/" + collectionName + "/" + documentId;
+  }
+
+  /**
+   * Deletes a document from the specified collection along with its index entries. The
+   * document's chunks are released with it and those no other document lists are then
+   * removed.
+   *
+   * @param collectionName A String representing the network the document belongs to.
+   * @param document The Document to delete.
+   * @return A CompletableFuture that completes with the document id upon successful
+   *         deletion or completes exceptionally with an error message.
+   */
+  public CompletableFuture<String> deleteDocument(String collectionName, Document document) {
+    String documentId = document.getDocId();
+    CompletableFuture<DataSnapshot> contents = readSnapshot(
+        contentsPath(collectionName, documentId));
+    CompletableFuture<DataSnapshot> versions = document.getVersionCount() == 0
+        ? CompletableFuture.completedFuture(null)
+        : readSnapshot(versionsPath(collectionName, documentId));
+
+    return contents.thenCombine(versions, (contentsSnapshot, versionsSnapshot) -> {
+      Set<String> released = new HashSet<>();
+      addManifest(released, contentsSnapshot);
+      if (versionsSnapshot != null) {
+        for (DataSnapshot versionSnapshot : versionsSnapshot.getChildren()) {
+          addManifest(released, versionSnapshot);
+        }
+      }
+      return released;
+    }).thenCompose(released -> {
+      Map<String, Object> updates = new HashMap<>();
+      updates.put(collectionName + "/" + documentId, null);
+      updates.put(contentsPath(collectionName, documentId), null);
+      updates.put(versionsPath(collectionName, documentId), null);
+      updates.put(historyPath(collectionName, documentId), null);
+      updates.put(titleIndexPath(collectionName, document.getTitle()), null);
+      putUserEntries(updates, collectionName, documentId, document.getUserId(), null);
+      for (String hash : released) {
+        updates.put(ownerPath(collectionName, hash, documentId), null);
+      }
+
+      return updatePaths(updates).thenApply(ignored -> {
+        System.out.println("Document deleted successfully: " + documentId);
+        collectChunks(collectionName, released);
+        return documentId;
+      });
+    });
+  }
+
+  private static void addManifest(Set<String> hashes, DataSnapshot storedSnapshot) {
+    Object stored = storedSnapshot.getValue();
+    if (stored instanceof List) {
+      hashes.addAll((List<String>) stored);
+    }
+  }
+
+  /**
+   * Shares a document with another user, updating the document's users and the
+   * user's slice of the network index together.
+   *
+   * @param collectionName A String representing the network the document belongs to.
+   * @param document The Document to share.
+   * @param theirUserId A String representing the user to share the document with.
+   * @return A CompletableFuture that completes with the new '/' separated users upon
+   *         successful update or completes exceptionally with an error message.
+   */
+  public CompletableFuture<String> shareDocument(String collectionName, Document document,
+                                                 String theirUserId) {
+    String newIds = document.getUserId() + "/" + theirUserId;
+    Map<String, Object> updates = new HashMap<>();
+    updates.put(collectionName + "/" + document.getDocId() + "/userId", newIds);
+    updates.put(userIndexPath(collectionName, theirUserId, document.getDocId()),
+        document.getTitle());
+
+    return updatePaths(updates).thenApply(ignored -> {
+      System.out.println("Value was changed successfully: " + newIds);
+      return newIds;
+    });
+  }
+
+  /**
+   * Retrieves all document titles from the documents associated with the specified user,
+   * the titles are served from the user's slice of the network index.
+   *
+   * @param collectionName A String denoting which collection this entry belongs to.
+   * @param userId A String denoting which user to use during comparison.
+   * @return A CompletableFuture that completes with the values upon successful addition
+   *         or completes exceptionally with an error message.
+   */
+  public CompletableFuture<List<String>> getDocumentTitles(String collectionName,
+                                                           String userId) {
+    return readUserIndex(collectionName, userId).thenCompose(entries -> {
+      if (entries == null) {
+        return scanForUser(collectionName, userId).thenApply(matchingEntries -> {
+          List<String> titles = new ArrayList<>();
+          for (DataSnapshot docSnapshot : matchingEntries) {
             String title = docSnapshot.child("title").getValue(String.class);
             if (title != null) {
               titles.add(title);
             }
           }
+          return titles;
+        });
+      }
+
+      List<String> titles = new ArrayList<>();
+      for (DataSnapshot entry : entries.getChildren()) {
+        String title = entry.getValue(String.class);
+        if (title != null) {
+          titles.add(title);
         }
-        future.complete(titles);
       }
+      return CompletableFuture.completedFuture(titles);
+    });
+  }
 
-      @Override
-      public void onCancelled(DatabaseError databaseError) {
-        future.completeExceptionally(new RuntimeException("Error reading data from Firebase"));
+  //reads the user's slice of the index, null when the network has not been indexed yet
+  private CompletableFuture<DataSnapshot> readUserIndex(String collectionName, String user) {
+    return readSnapshot(indexPath(collectionName, USER_INDEX + "/" + encodeKey(user)))
+        .thenCompose(slice -> slice.exists() ? CompletableFuture.completedFuture(slice)
+            : isNetworkIndexed(collectionName).thenApply(indexed -> indexed ? slice : null));
+  }
+
+  //scans the whole network for documents shared with the user and repairs the index
+  private CompletableFuture<List<DataSnapshot>> scanForUser(String collectionName, String user) {
+    return readSnapshot(collectionName).thenApply(collectionSnapshot -> {
+      writeIndex(collectionName, collectionSnapshot);
+      migrateDocuments(collectionName, collectionSnapshot);
+      List<DataSnapshot> matchingEntries = new ArrayList<>();
+      for (DataSnapshot subcollection : collectionSnapshot.getChildren()) {
+        if (hasUser(subcollection.child("userId").getValue(String.class), user)) {
+          matchingEntries.add(subcollection);
+        }
       }
+      return matchingEntries;
     });
+  }
 
-    return future;
+  /**
+   * Checks whether a user is one of the '/' separated users a document is shared with.
+   * Unlike a substring check "user1" is not considered a member of "user10/user2".
+   *
+   * @param userIds A String of '/' separated user ids, may be null.
+   * @param user A String representing the user to look for.
+   * @return true if the user is one of the listed users, false otherwise.
+   */
+  public static boolean hasUser(String userIds, String user) {
+    if (userIds == null) {
+      return false;
+    }
+    for (String member : userIds.split("/")) {
+      if (member.equals(user)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static String userIndexPath(String collectionName, String user, String documentId) {
+    return indexPath(collectionName, USER_INDEX + "/" + encodeKey(user) + "/" + documentId);
+  }
+
+  private static final class InFlightRead {
+    private final String path;
+    private final long startedAt;
+    private final CompletableFuture<DataSnapshot> future;
+
+    private InFlightRead(String path, long startedAt, CompletableFuture<DataSnapshot> future) {
+      this.path = path;
+      this.startedAt = startedAt;
+      this.future = future;
+    }
   }
 }
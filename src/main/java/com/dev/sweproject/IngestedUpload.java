@@ -0,0 +1,427 @@
+package com.dev.sweproject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.function.BiFunction;
+import org.springframework.web.multipart.MaxUploadSizeExceededException;
+import org.springframework.web.multipart.MultipartFile;
+
+/**
+ * The IngestedUpload class reads an upload once and derives everything the upload path
+ * stores from it on the way: the contents, their digest, their word count and either their
+ * stored form or, for contents above the chunk size, their chunks and manifest. The upload
+ * is read a block at a time into the array that ends up holding the contents, and each
+ * block is counted, hashed and encoded or chunked while it is still in cache, rather than
+ * the contents being traversed again for every step.
+ *
+ * <p>
+ * The stored form and the chunking are chosen from the size the upload announces. An upload
+ * whose size is unknown or turns out different is still handled, its contents are then
+ * encoded or chunked again once read.
+ * </p>
+ *
+ * <p>
+ * An upload can also be streamed, in which case the chunks of contents above the chunk
+ * size are handed over to be stored as soon as they are found and only the chunk being
+ * read is held, so the memory used does not grow with the size of the upload.
+ * </p>
+ */
+public final class IngestedUpload {
+
+  //small enough to stay in cache between the passes over it
+  private static final int BLOCK_SIZE = 1 << 15;
+
+  //the largest array the JVM reliably allocates
+  private static final int MAX_LENGTH = Integer.MAX_VALUE - 8;
+
+  private final byte[] contents;
+  private final long size;
+  private final String contentType;
+  private final String contentHash;
+  private final int wordCount;
+  private final String storedContents;
+  private final List<String> manifest;
+  private final Map<String, byte[]> chunks;
+
+  private IngestedUpload(byte[] contents, long size, String contentType, String contentHash,
+                         int wordCount, String storedContents, List<String> manifest,
+                         Map<String, byte[]> chunks) {
+    this.contents = contents;
+    this.size = size;
+    this.contentType = contentType;
+    this.contentHash = contentHash;
+    this.wordCount = wordCount;
+    this.storedContents = storedContents;
+    this.manifest = manifest;
+    this.chunks = chunks;
+  }
+
+  /**
+   * Reads an uploaded file.
+   *
+   * @param file A MultipartFile representing the upload.
+   * @param codec The ContentCodec the contents are stored with.
+   * @param level An int representing the codec's compression level, 1 to 9.
+   * @param chunkSize An int representing the size in bytes above which contents are
+   *                  chunked, also the average chunk size.
+   * @return An IngestedUpload holding the contents and what was derived from them.
+   * @throws IOException If the upload can not be read.
+   */
+  public static IngestedUpload read(MultipartFile file, ContentCodec codec, int level,
+                                    int chunkSize) throws IOException {
+    try (InputStream in = file.getInputStream()) {
+      return read(in, file.getSize(), file.getContentType(), codec, level, chunkSize);
+    }
+  }
+
+  /**
+   * Reads an upload from a stream, which is left open.
+   *
+   * @param in An InputStream of the uploaded contents.
+   * @param size A long representing the announced size of the contents, or -1 if unknown.
+   * @param contentType A String representing the contents' media type, or null if unknown.
+   * @param codec The ContentCodec the contents are stored with.
+   * @param level An int representing the codec's compression level, 1 to 9.
+   * @param chunkSize An int representing the size in bytes above which contents are
+   *                  chunked, also the average chunk size.
+   * @return An IngestedUpload holding the contents and what was derived from them.
+   * @throws IOException If the upload can not be read or does not fit in an array.
+   */
+  public static IngestedUpload read(InputStream in, long size, String contentType,
+                                    ContentCodec codec, int level, int chunkSize)
+      throws IOException {
+    boolean sized = size >= 0 && size <= MAX_LENGTH;
+    boolean chunked = sized && size > chunkSize;
+    byte[] contents = new byte[sized ? (int) size : BLOCK_SIZE];
+    MessageDigest digest = sha256();
+    ContentCodec.Encoder encoder = sized && !chunked
+        ? codec.encoder((int) size, contentType, level) : null;
+    ContentChunker chunker = chunked ? new ContentChunker(chunkSize) : null;
+    MessageDigest chunkDigest = sha256();
+    List<String> manifest = new ArrayList<>();
+    Map<String, byte[]> chunks = new HashMap<>();
+    int chunkStart = 0;
+    int words = 0;
+    int length = 0;
+
+    while (true) {
+      int read;
+      if (length == contents.length) {
+        //the upload is longer than announced, or its size is unknown
+        int next = in.read();
+        if (next < 0) {
+          break;
+        }
+        contents = grow(contents);
+        contents[length] = (byte) next;
+        read = 1 + in.readNBytes(contents, length + 1,
+            Math.min(BLOCK_SIZE, contents.length - length) - 1);
+      } else {
+        read = in.readNBytes(contents, length, Math.min(BLOCK_SIZE, contents.length - length));
+        if (read == 0) {
+          break;
+        }
+      }
+      int end = length + read;
+      words += WordCounter.countWordStarts(contents, length, end);
+      digest.update(contents, length, read);
+      if (encoder != null) {
+        encoder.write(contents, length, read);
+      }
+      int scanned = length;
+      while (chunker != null && scanned < end) {
+        int boundary = chunker.findBoundary(contents, scanned, end - scanned);
+        int stop = boundary < 0 ? end : boundary;
+        chunkDigest.update(contents, scanned, stop - scanned);
+        if (boundary >= 0) {
+          addChunk(contents, chunkStart, boundary, chunkDigest.digest(), manifest, chunks);
+          chunkStart = boundary;
+        }
+        scanned = stop;
+      }
+      length = end;
+    }
+    if (chunker != null && chunkStart < length) {
+      addChunk(contents, chunkStart, length, chunkDigest.digest(), manifest, chunks);
+    }
+    if (length < contents.length) {
+      contents = Arrays.copyOf(contents, length);
+    }
+
+    String storedContents = null;
+    if (length > chunkSize && !chunked) {
+      for (byte[] chunk : ContentChunker.split(contents, chunkSize)) {
+        addChunk(chunk, 0, chunk.length, chunkDigest.digest(chunk), manifest, chunks);
+      }
+    } else if (length <= chunkSize) {
+      manifest.clear();
+      chunks.clear();
+      storedContents = encoder == null ? codec.encode(contents, contentType, level)
+          : encoder.finish(contents);
+    }
+    return new IngestedUpload(contents, length, contentType,
+        HexFormat.of().formatHex(digest.digest()), words, storedContents, manifest, chunks);
+  }
+
+  /**
+   * Streams an upload, handing each chunk of contents above the chunk size to be stored as
+   * soon as it is read. The chunks read before the contents exceed the chunk size are held
+   * until they do, contents that never do are not chunked and are held as read does. At
+   * most maxPending chunks are being stored at a time, reading waits for the oldest
+   * otherwise, and every store has finished when this returns or throws.
+   *
+   * @param in An InputStream of the uploaded contents, which is left open.
+   * @param maxSize A long representing the largest number of bytes accepted.
+   * @param contentType A String representing the contents' media type, or null if unknown.
+   * @param codec The ContentCodec the contents are stored with.
+   * @param level An int representing the codec's compression level, 1 to 9.
+   * @param chunkSize An int representing the size in bytes above which contents are
+   *                  chunked, also the average chunk size.
+   * @param store A BiFunction storing a chunk given its hash, each hash is stored once.
+   * @param maxPending An int representing how many chunks may be stored at a time.
+   * @return An IngestedUpload holding what was derived from the contents, without the
+   *         contents or the chunks if they were chunked.
+   * @throws IOException If the upload can not be read or a chunk can not be stored.
+   * @throws MaxUploadSizeExceededException If the upload is larger than maxSize.
+   */
+  public static IngestedUpload stream(InputStream in, long maxSize, String contentType,
+                                      ContentCodec codec, int level, int chunkSize,
+                                      BiFunction<String, byte[], CompletableFuture<Void>> store,
+                                      int maxPending) throws IOException {
+    ArrayDeque<CompletableFuture<Void>> pending = new ArrayDeque<>();
+    try {
+      return stream(in, maxSize, contentType, codec, level, chunkSize, (hash, chunk) -> {
+        if (pending.size() >= Math.max(1, maxPending)) {
+          await(pending.poll());
+        }
+        pending.add(store.apply(hash, chunk));
+      }, pending);
+    } catch (IOException | RuntimeException e) {
+      //the caller releases the chunks stored, which must not be stored after that
+      for (CompletableFuture<Void> write : pending) {
+        write.exceptionally(error -> null).join();
+      }
+      throw e;
+    }
+  }
+
+  private static IngestedUpload stream(InputStream in, long maxSize, String contentType,
+                                       ContentCodec codec, int level, int chunkSize,
+                                       ChunkStore store,
+                                       ArrayDeque<CompletableFuture<Void>> pending)
+      throws IOException {
+    //holds the chunk being read, which is cut at four times the average size, and a block
+    byte[] window = new byte[chunkSize * 4 + BLOCK_SIZE];
+    MessageDigest digest = sha256();
+    MessageDigest chunkDigest = sha256();
+    ContentChunker chunker = new ContentChunker(chunkSize);
+    List<String> manifest = new ArrayList<>();
+    Set<String> seen = new HashSet<>();
+    Map<String, byte[]> held = new LinkedHashMap<>();
+    long length = 0;
+    int words = 0;
+    int chunkStart = 0;
+    int end = 0;
+
+    while (true) {
+      if (end + BLOCK_SIZE > window.length) {
+        //keeps the byte before the chunk, which tells whether a word continues
+        int keep = Math.min(chunkStart, end - 1);
+        System.arraycopy(window, keep, window, 0, end - keep);
+        chunkStart -= keep;
+        end -= keep;
+      }
+      int read = in.readNBytes(window, end, BLOCK_SIZE);
+      if (read == 0) {
+        break;
+      }
+      length += read;
+      if (length > maxSize) {
+        throw new MaxUploadSizeExceededException(maxSize);
+      }
+      words += WordCounter.countWordStarts(window, end, end + read);
+      digest.update(window, end, read);
+      int scanned = end;
+      end += read;
+      while (scanned < end) {
+        int boundary = chunker.findBoundary(window, scanned, end - scanned);
+        int stop = boundary < 0 ? end : boundary;
+        chunkDigest.update(window, scanned, stop - scanned);
+        if (boundary >= 0) {
+          String hash = HexFormat.of().formatHex(chunkDigest.digest());
+          manifest.add(hash);
+          if (seen.add(hash)) {
+            held.put(hash, Arrays.copyOfRange(window, chunkStart, boundary));
+          }
+          chunkStart = boundary;
+        }
+        scanned = stop;
+      }
+      if (length > chunkSize) {
+        for (Map.Entry<String, byte[]> chunk : held.entrySet()) {
+          store.store(chunk.getKey(), chunk.getValue());
+        }
+        held.clear();
+      }
+    }
+
+    String contentHash = HexFormat.of().formatHex(digest.digest());
+    if (length <= chunkSize) {
+      //nothing was compacted, the window holds the contents
+      byte[] contents = Arrays.copyOf(window, end);
+      return new IngestedUpload(contents, length, contentType, contentHash, words,
+          codec.encode(contents, contentType, level), new ArrayList<>(), new HashMap<>());
+    }
+    if (chunkStart < end) {
+      String hash = HexFormat.of().formatHex(chunkDigest.digest());
+      manifest.add(hash);
+      if (seen.add(hash)) {
+        store.store(hash, Arrays.copyOfRange(window, chunkStart, end));
+      }
+    }
+    while (!pending.isEmpty()) {
+      await(pending.poll());
+    }
+    return new IngestedUpload(null, length, contentType, contentHash, words, null, manifest,
+        new HashMap<>());
+  }
+
+  /**
+   * Retrieves the uploaded contents.
+   *
+   * @return A byte[] holding the contents, or null if they were streamed as chunks.
+   */
+  public byte[] getContents() {
+    return contents;
+  }
+
+  /**
+   * Retrieves the size of the uploaded contents.
+   *
+   * @return A long representing the size in bytes.
+   */
+  public long getSize() {
+    return size;
+  }
+
+  /**
+   * Retrieves the media type the upload was sent with.
+   *
+   * @return A String representing the media type, or null if unknown.
+   */
+  public String getContentType() {
+    return contentType;
+  }
+
+  /**
+   * Retrieves the SHA-256 digest of the contents, as Document.hashContents computes it.
+   *
+   * @return A String representing the digest in hexadecimal.
+   */
+  public String getContentHash() {
+    return contentHash;
+  }
+
+  /**
+   * Retrieves the number of words in the contents.
+   *
+   * @return An int representing the word count.
+   */
+  public int getWordCount() {
+    return wordCount;
+  }
+
+  /**
+   * Whether the contents are above the chunk size and stored as chunks.
+   *
+   * @return A boolean indicating whether the contents are chunked.
+   */
+  public boolean isChunked() {
+    return storedContents == null;
+  }
+
+  /**
+   * Retrieves the stored form of contents that are not chunked.
+   *
+   * @return A String representing the encoded contents, or null if they are chunked.
+   */
+  public String getStoredContents() {
+    return storedContents;
+  }
+
+  /**
+   * Retrieves the hashes of the chunks of chunked contents in order.
+   *
+   * @return A List of the chunk hashes, empty if the contents are not chunked.
+   */
+  public List<String> getManifest() {
+    return manifest;
+  }
+
+  /**
+   * Retrieves the chunks of chunked contents by hash, each listed once.
+   *
+   * @return A Map of the chunks by hash, empty if the contents are not chunked.
+   */
+  public Map<String, byte[]> getChunks() {
+    return chunks;
+  }
+
+  private static void addChunk(byte[] contents, int from, int to, byte[] digest,
+                               List<String> manifest, Map<String, byte[]> chunks) {
+    String hash = HexFormat.of().formatHex(digest);
+    manifest.add(hash);
+    if (!chunks.containsKey(hash)) {
+      chunks.put(hash, from == 0 && to == contents.length ? contents
+          : Arrays.copyOfRange(contents, from, to));
+    }
+  }
+
+  private static void await(CompletableFuture<Void> write) throws IOException {
+    try {
+      write.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while storing a chunk");
+    } catch (ExecutionException e) {
+      throw new IOException("A chunk could not be stored", e.getCause());
+    }
+  }
+
+  private static byte[] grow(byte[] contents) throws IOException {
+    if (contents.length == MAX_LENGTH) {
+      throw new IOException("The upload is too large to be read into memory");
+    }
+    return Arrays.copyOf(contents, (int) Math.min(MAX_LENGTH,
+        Math.max(BLOCK_SIZE, contents.length * 2L)));
+  }
+
+  private static MessageDigest sha256() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      //every Java platform is required to support SHA-256
+      throw new IllegalStateException(e);
+    }
+  }
+
+  //stores a chunk once it is read, waiting for earlier chunks if too many are pending
+  private interface ChunkStore {
+    void store(String hash, byte[] chunk) throws IOException;
+  }
+}
@@ -4,42 +4,97 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.firebase.database.DataSnapshot;
+import jakarta.servlet.Filter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Base64;
+import java.util.ConcurrentModificationException;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.ApplicationContext;
-import org.springframework.core.io.ByteArrayResource;
+import org.springframework.context.annotation.Bean;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PatchMapping;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.multipart.MaxUploadSizeExceededException;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 /**
  * The main driver class for the application.
+ *
+ * <p>
+ * The handlers that wait on the database return a CompletableFuture of their response,
+ * composed from the futures of the FirebaseService, so the servlet thread is released
+ * while Firebase answers and the response is sent once the future completes. Request
+ * bodies streamed into the database are read on FirebaseService.UPLOAD_EXECUTOR, so a slow
+ * client holds one of its bounded threads rather than a servlet thread.
+ * </p>
+ *
+ * <p>
+ * Every Firebase operation fails once it has waited firebase.timeout-ms, and every handler
+ * answers once request.timeout-ms has passed since the request arrived. The reads and writes
+ * a handler issues are bound to that deadline as well, so a stalled connection holds neither
+ * threads nor listeners past it. A deadline passed is answered with 504 Gateway Timeout and a
+ * database that could not be reached with 503 Service Unavailable. A 504 answering a write,
+ * an upload, share, delete or upload session, leaves its outcome unknown: the write may still
+ * be applied once the connection recovers, so clients read the document back before retrying.
+ * </p>
+ *
+ * <p>
+ * Firebase completes its futures on its single event thread, the continuations converting,
+ * comparing and serializing documents run on FirebaseService.COMPUTE_EXECUTOR instead so
+ * they do not hold back the results of other reads.
+ * </p>
  */
 @SpringBootApplication
+@EnableScheduling
 @RestController
 public class SweProjectApplication {
 
   private static FirebaseService firebaseDataService;
-  private static final String ERROR_MSG = "An unexpected error has occurred";
-  private static final String NETWORK_ID = "network-id";
-  private static final String DOCUMENT_NAME = "document-name";
-  private static final String YOUR_USER_ID = "your-user-id";
-  private static final String NO_DOCUMENT = "No such document exists.";
+  static final String ERROR_MSG = "An unexpected error has occurred";
+  static final String NETWORK_ID = "network-id";
+  static final String DOCUMENT_NAME = "document-name";
+  static final String YOUR_USER_ID = "your-user-id";
+  static final String NO_DOCUMENT = "No such document exists.";
+  static final String NO_UPLOAD_SESSION = "No such upload session exists.";
+  static final int MAX_PAGE_SIZE = 100;
+  //characters of a file string decoded at a time, a multiple of 4
+  static final int DECODE_BLOCK = 16384;
+  //the request attribute holding the System.nanoTime() of the request's arrival
+  private static final String ARRIVAL = SweProjectApplication.class.getName() + ".arrival";
+  //how long a handler may wait on the database from the request's arrival, the default
+  //applies to handlers built outside of Spring
+  @Value("${request.timeout-ms:30000}")
+  private long requestTimeoutMillis = 30000;
 
   /**
    * The main entry point for the application.
@@ -74,6 +129,32 @@ public class SweProjectApplication {
     firebaseDataService = fb;
   }
 
+  /**
+   * Assigns how long a handler may wait on the database, used solely for internal
+   * integration testing.
+   *
+   * @param timeoutMillis A long representing the deadline of a request in milliseconds.
+   */
+  public void setRequestTimeoutMillis(long timeoutMillis) {
+    requestTimeoutMillis = timeoutMillis;
+  }
+
+  /**
+   * Records the arrival of every request before its body is read, so that the deadline of
+   * a handler counts from the arrival rather than from the call of the handler.
+   *
+   * @return A Filter recording the arrival of requests.
+   */
+  @Bean
+  public Filter requestArrivalFilter() {
+    return (request, response, chain) -> {
+      if (request.getAttribute(ARRIVAL) == null) {
+        request.setAttribute(ARRIVAL, System.nanoTime());
+      }
+      chain.doFilter(request, response);
+    };
+  }
+
   /**
    * Registers the client in the database to enable various operations. This needs to run
    * once in the client's lifetime.
@@ -104,30 +185,211 @@ public class SweProjectApplication {
    * @return A JSON response indicating whether the file was successfully uploaded.
    */
   @PostMapping(value = "/upload-doc")
-  public ResponseEntity<?> uploadDoc(@RequestParam(value = NETWORK_ID) String networkId,
-                                     @RequestParam(value = DOCUMENT_NAME) String documentName,
-                                     @RequestParam(value = "user-id") String userId,
-                                     @RequestBody MultipartFile contents) {
-    try {
-      CompletableFuture<DataSnapshot> doesExist = firebaseDataService.searchForDocument(
-          networkId, documentName);
-      DataSnapshot dataSnapshot = doesExist.get();
-      if (dataSnapshot != null) {
-        String fileString = dataSnapshot.child("fileString").getValue(String.class);
-        String currFileString = "#" + Base64.getEncoder().encodeToString(contents.getBytes());
-        if (currFileString.equals(fileString)) {
-          return new ResponseEntity<>("File already exists!", HttpStatus.OK);
-        }
-      }
-      CompletableFuture<Object> uploadResult = firebaseDataService.uploadFile(
-          contents, networkId, documentName, userId);
-      uploadResult.get();
-      return new ResponseEntity<>("File Uploaded Successfully!", HttpStatus.OK);
-    } catch (Exception e) {
-      System.out.println(e.getMessage());
-      return new ResponseEntity<>("File didn't upload",
-          HttpStatus.INTERNAL_SERVER_ERROR);
+  public CompletableFuture<ResponseEntity<?>> uploadDoc(
+      @RequestParam(value = NETWORK_ID) String networkId,
+      @RequestParam(value = DOCUMENT_NAME) String documentName,
+      @RequestParam(value = "user-id") String userId,
+      @RequestBody MultipartFile contents) {
+    FirebaseService service = service();
+    return start(() -> service.uploadFile(contents, networkId, documentName,
+        userId))
+        .thenApply(SweProjectApplication::uploadResponse)
+        .orTimeout(remainingMillis(), TimeUnit.MILLISECONDS)
+        .exceptionally(failure(SweProjectApplication::uploadFailure));
+  }
+
+  /**
+   * Uploads a document sent as the raw request body, for files too large to be buffered
+   * as a multipart upload. The body is stored a chunk at a time while it arrives, so the
+   * memory used does not grow with the size of the file. Files larger than upload.max-bytes
+   * are rejected, up front when the Content-Length announces it.
+   *
+   * @param networkId      The network to which the client belongs.
+   * @param documentName   The name of the document to upload.
+   * @param userId         The user Id of the uploader.
+   * @param requestHeaders The request's headers, the Content-Type being the file's.
+   * @param contents       The request body, the file's contents.
+   *
+   * @return A JSON response indicating whether the file was successfully uploaded.
+   */
+  @PostMapping(value = "/upload-doc-stream")
+  public CompletableFuture<ResponseEntity<?>> uploadDocStream(
+      @RequestParam(value = NETWORK_ID) String networkId,
+      @RequestParam(value = DOCUMENT_NAME) String documentName,
+      @RequestParam(value = "user-id") String userId,
+      @RequestHeader HttpHeaders requestHeaders,
+      InputStream contents) {
+    FirebaseService service = service();
+    return ingest(() -> {
+      MediaType contentType = requestHeaders.getContentType();
+      return service.uploadStream(contents, requestHeaders.getContentLength(),
+          contentType == null ? null : contentType.toString(), networkId, documentName, userId);
+    })
+        .thenApply(SweProjectApplication::uploadResponse)
+        .orTimeout(remainingMillis(), TimeUnit.MILLISECONDS)
+        .exceptionally(failure(SweProjectApplication::uploadFailure));
+  }
+
+  private static ResponseEntity<?> uploadResponse(Object uploadResult) {
+    if (FirebaseService.DUPLICATE_UPLOAD.equals(uploadResult)) {
+      return new ResponseEntity<>("File already exists!", HttpStatus.OK);
     }
+    return new ResponseEntity<>("File Uploaded Successfully!", HttpStatus.OK);
+  }
+
+  private static ResponseEntity<?> uploadFailure(Throwable error) {
+    Throwable cause = cause(error);
+    if (cause instanceof MaxUploadSizeExceededException) {
+      return new ResponseEntity<>("File exceeds the maximum upload size of "
+          + ((MaxUploadSizeExceededException) cause).getMaxUploadSize() + " bytes",
+          HttpStatus.PAYLOAD_TOO_LARGE);
+    }
+    if (cause instanceof ConcurrentModificationException) {
+      return new ResponseEntity<>(cause.getMessage(), HttpStatus.CONFLICT);
+    }
+    System.out.println(cause.getMessage());
+    return new ResponseEntity<>("File didn't upload", HttpStatus.INTERNAL_SERVER_ERROR);
+  }
+
+  /**
+   * Starts a resumable upload of a document, for files uploaded over connections that may
+   * drop. The parts are then sent to /upload-session/part and the upload is finished by
+   * /upload-session/commit, a session left for a day is removed.
+   *
+   * @param networkId    The network to which the client belongs.
+   * @param documentName The name of the document to upload.
+   * @param userId       The user Id of the uploader.
+   * @param contentType  The media type of the file, if known.
+   *
+   * @return A JSON response holding the sessionId of the new session.
+   */
+  @PostMapping(value = "/upload-session", produces = MediaType.APPLICATION_JSON_VALUE)
+  public CompletableFuture<ResponseEntity<?>> createUploadSession(
+      @RequestParam(value = NETWORK_ID) String networkId,
+      @RequestParam(value = DOCUMENT_NAME) String documentName,
+      @RequestParam(value = "user-id") String userId,
+      @RequestParam(value = "content-type", required = false) String contentType) {
+    FirebaseService service = service();
+    return start(() -> service.createUploadSession(networkId, documentName,
+        userId, contentType))
+        .thenCompose(checked(sessionId -> completed(new ResponseEntity<>(
+            new ObjectMapper().writeValueAsString(Map.of("sessionId", sessionId)),
+            HttpStatus.OK))))
+        .orTimeout(remainingMillis(), TimeUnit.MILLISECONDS)
+        .exceptionally(failure(SweProjectApplication::unexpectedFailure));
+  }
+
+  /**
+   * Uploads a part of a resumable upload as the raw request body. Sending a part again,
+   * after a dropped connection for instance, replaces it.
+   *
+   * @param networkId  The network to which the client belongs.
+   * @param sessionId  The id of the upload session.
+   * @param partNumber The position of the part in the file, from 1.
+   * @param partHash   The hex SHA-256 digest of the part, which it is verified against.
+   * @param contents   The request body, the part's contents.
+   *
+   * @return A response indicating whether the part was stored.
+   */
+  @PutMapping(value = "/upload-session/part")
+  public CompletableFuture<ResponseEntity<?>> uploadPart(
+      @RequestParam(value = NETWORK_ID) String networkId,
+      @RequestParam(value = "session-id") String sessionId,
+      @RequestParam(value = "part-number") int partNumber,
+      @RequestParam(value = "part-hash") String partHash,
+      InputStream contents) {
+    FirebaseService service = service();
+    return ingest(() -> {
+      byte[] part = contents.readNBytes(FirebaseService.MAX_PART_BYTES + 1);
+      if (part.length > FirebaseService.MAX_PART_BYTES) {
+        return completed(new ResponseEntity<>("Parts are at most "
+            + FirebaseService.MAX_PART_BYTES + " bytes", HttpStatus.PAYLOAD_TOO_LARGE));
+      }
+      return service.uploadPart(networkId, sessionId, partNumber, part, partHash)
+          .thenApply(stored -> stored
+              ? new ResponseEntity<>("Part " + partNumber + " stored", HttpStatus.OK)
+              : new ResponseEntity<>(NO_UPLOAD_SESSION, HttpStatus.NOT_FOUND));
+    })
+        .orTimeout(remainingMillis(), TimeUnit.MILLISECONDS)
+        .exceptionally(failure(error -> {
+          Throwable cause = cause(error);
+          if (cause instanceof IllegalArgumentException) {
+            return new ResponseEntity<>(cause.getMessage(), HttpStatus.BAD_REQUEST);
+          }
+          System.out.println(cause.getMessage());
+          return new ResponseEntity<>("Part didn't upload", HttpStatus.INTERNAL_SERVER_ERROR);
+        }));
+  }
+
+  /**
+   * Returns a resumable upload session along with the number, hash and size of every part
+   * stored so far, so that a client resuming the upload only sends the parts missing.
+   *
+   * @param networkId The network to which the client belongs.
+   * @param sessionId The id of the upload session.
+   *
+   * @return A JSON response holding the session.
+   */
+  @GetMapping(value = "/upload-session", produces = MediaType.APPLICATION_JSON_VALUE)
+  public CompletableFuture<ResponseEntity<?>> getUploadSession(
+      @RequestParam(value = NETWORK_ID) String networkId,
+      @RequestParam(value = "session-id") String sessionId) {
+    FirebaseService service = service();
+    return start(() -> service.getUploadSession(networkId, sessionId))
+        .thenComposeAsync(checked(session -> completed(session == null
+            ? new ResponseEntity<>(NO_UPLOAD_SESSION, HttpStatus.NOT_FOUND)
+            : new ResponseEntity<>(new ObjectMapper().writeValueAsString(session),
+                HttpStatus.OK))), FirebaseService.COMPUTE_EXECUTOR)
+        .orTimeout(remainingMillis(), TimeUnit.MILLISECONDS)
+        .exceptionally(failure(SweProjectApplication::unexpectedFailure));
+  }
+
+  /**
+   * Finishes a resumable upload, uploading the document made of its parts in order as
+   * /upload-doc does. A commit that fails keeps the session so that it can be retried.
+   *
+   * @param networkId The network to which the client belongs.
+   * @param sessionId The id of the upload session.
+   * @param partCount The number of parts of the file.
+   *
+   * @return A response indicating whether the file was successfully uploaded.
+   */
+  @PostMapping(value = "/upload-session/commit")
+  public CompletableFuture<ResponseEntity<?>> commitUploadSession(
+      @RequestParam(value = NETWORK_ID) String networkId,
+      @RequestParam(value = "session-id") String sessionId,
+      @RequestParam(value = "part-count") int partCount) {
+    FirebaseService service = service();
+    return start(() -> service.commitUploadSession(networkId, sessionId,
+        partCount))
+        .thenApply(uploadResult -> uploadResult == null
+            ? new ResponseEntity<>(NO_UPLOAD_SESSION, HttpStatus.NOT_FOUND)
+            : uploadResponse(uploadResult))
+        .orTimeout(remainingMillis(), TimeUnit.MILLISECONDS)
+        .exceptionally(failure(error -> cause(error) instanceof IllegalStateException
+            ? new ResponseEntity<>(cause(error).getMessage(), HttpStatus.CONFLICT)
+            : uploadFailure(error)));
+  }
+
+  /**
+   * Aborts a resumable upload, discarding the parts stored so far.
+   *
+   * @param networkId The network to which the client belongs.
+   * @param sessionId The id of the upload session.
+   *
+   * @return A response indicating whether the session was removed.
+   */
+  @DeleteMapping(value = "/upload-session")
+  public CompletableFuture<ResponseEntity<?>> abortUploadSession(
+      @RequestParam(value = NETWORK_ID) String networkId,
+      @RequestParam(value = "session-id") String sessionId) {
+    FirebaseService service = service();
+    return start(() -> service.abortUploadSession(networkId, sessionId))
+        .<ResponseEntity<?>>thenApply(aborted -> aborted
+            ? new ResponseEntity<>("Upload session aborted", HttpStatus.OK)
+            : new ResponseEntity<>(NO_UPLOAD_SESSION, HttpStatus.NOT_FOUND))
+        .orTimeout(remainingMillis(), TimeUnit.MILLISECONDS)
+        .exceptionally(failure(SweProjectApplication::unexpectedFailure));
   }
 
   /**
@@ -142,39 +404,33 @@ public class SweProjectApplication {
    *         and the reason why.
    */
   @PatchMapping(value = "/share-document", produces = MediaType.APPLICATION_JSON_VALUE)
-  public ResponseEntity<?> shareDocument(@RequestParam(value = NETWORK_ID) String networkId,
-                              @RequestParam(value = DOCUMENT_NAME) String documentName,
-                              @RequestParam(value = YOUR_USER_ID) String yourUserId,
-                              @RequestParam(value = "their-user-id") String theirUserId) {
-    CompletableFuture<DataSnapshot> result = firebaseDataService.searchForDocument(
-        networkId, documentName);
-    try {
-      DataSnapshot dataSnapshot = result.get();
-      if (dataSnapshot.exists()) {
-        Object response = dataSnapshot.getValue();
-        Document myDocument = Document.convertToDocument((HashMap<String, Object>) response);
-
-        if (!myDocument.getUserId().contains(yourUserId)) {
-          return new ResponseEntity<>("User does not have access to this document!",
-              HttpStatus.FORBIDDEN);
-        } else if (myDocument.getUserId().contains(yourUserId)
-            && myDocument.getUserId().contains(theirUserId)) {
-          return new ResponseEntity<>("This document has already been shared with "
-              + "the desired user", HttpStatus.OK);
-        } else {
-          String newIds = myDocument.getUserId() + "/" + theirUserId;
-          String collectionToUpdate = myDocument.getClientId() + "/" + myDocument.getDocId();
-          firebaseDataService.updateEntry(collectionToUpdate, "userId", newIds);
-          return new ResponseEntity<>("The document has been shared with the desired user",
-              HttpStatus.OK);
-        }
-      }
-    } catch (IOException e) {
-      return new ResponseEntity<>(ERROR_MSG, HttpStatus.INTERNAL_SERVER_ERROR);
-    } catch (Exception e) {
-      return new ResponseEntity<>(NO_DOCUMENT, HttpStatus.NOT_FOUND);
-    }
-    return new ResponseEntity<>("Service executed", HttpStatus.OK);
+  public CompletableFuture<ResponseEntity<?>> shareDocument(
+      @RequestParam(value = NETWORK_ID) String networkId,
+      @RequestParam(value = DOCUMENT_NAME) String documentName,
+      @RequestParam(value = YOUR_USER_ID) String yourUserId,
+      @RequestParam(value = "their-user-id") String theirUserId) {
+    FirebaseService service = service();
+    return start(() -> service.searchForDocument(networkId, documentName))
+        .thenComposeAsync(checked(dataSnapshot -> {
+          if (!dataSnapshot.exists()) {
+            return completed(new ResponseEntity<>("Service executed", HttpStatus.OK));
+          }
+          Object response = dataSnapshot.getValue();
+          Document myDocument = Document.convertToDocument((HashMap<String, Object>) response);
+
+          if (!FirebaseService.hasUser(myDocument.getUserId(), yourUserId)) {
+            return completed(new ResponseEntity<>("User does not have access to this document!",
+                HttpStatus.FORBIDDEN));
+          } else if (FirebaseService.hasUser(myDocument.getUserId(), theirUserId)) {
+            return completed(new ResponseEntity<>("This document has already been shared with "
+                + "the desired user", HttpStatus.OK));
+          }
+          return service.shareDocument(networkId, myDocument, theirUserId)
+              .<ResponseEntity<?>>thenApply(newIds -> new ResponseEntity<>("The document has "
+                  + "been shared with the desired user", HttpStatus.OK));
+        }), FirebaseService.COMPUTE_EXECUTOR)
+        .orTimeout(remainingMillis(), TimeUnit.MILLISECONDS)
+        .exceptionally(failure(SweProjectApplication::documentFailure));
   }
 
   /**
@@ -187,34 +443,29 @@ public class SweProjectApplication {
    *         and providing a reason if it could not be deleted.
    */
   @DeleteMapping(value = "/delete-doc")
-  public ResponseEntity<?> deleteDoc(@RequestParam(value = NETWORK_ID) String networkId,
-                          @RequestParam(value = DOCUMENT_NAME) String documentName,
-                          @RequestParam(value = YOUR_USER_ID)  String yourUserId) {
-    CompletableFuture<DataSnapshot> result = firebaseDataService.searchForDocument(
-        networkId, documentName);
-    try {
-      DataSnapshot dataSnapshot = result.get();
-      if (dataSnapshot.exists()) {
-        Object response = dataSnapshot.getValue();
-        Document myDocument = Document.convertToDocument((HashMap<String, Object>) response);
-
-        if (!myDocument.getUserId().contains(yourUserId)) {
-          return new ResponseEntity<>("Your user does not have ownership of this document",
-              HttpStatus.FORBIDDEN);
-        } else {
-          String documentId = myDocument.getDocId();
-          String databaseLocation = networkId + "/" + documentId;
-          firebaseDataService.deleteCollection(databaseLocation);
-          return new ResponseEntity<>("Your document was successfully deleted",
-              HttpStatus.OK);
-        }
-      }
-    } catch (IOException e) {
-      return new ResponseEntity<>(ERROR_MSG, HttpStatus.INTERNAL_SERVER_ERROR);
-    } catch (Exception e) {
-      return new ResponseEntity<>(NO_DOCUMENT, HttpStatus.NOT_FOUND);
-    }
-    return new ResponseEntity<>("Service executed", HttpStatus.OK);
+  public CompletableFuture<ResponseEntity<?>> deleteDoc(
+      @RequestParam(value = NETWORK_ID) String networkId,
+      @RequestParam(value = DOCUMENT_NAME) String documentName,
+      @RequestParam(value = YOUR_USER_ID) String yourUserId) {
+    FirebaseService service = service();
+    return start(() -> service.searchForDocument(networkId, documentName))
+        .thenComposeAsync(checked(dataSnapshot -> {
+          if (!dataSnapshot.exists()) {
+            return completed(new ResponseEntity<>("Service executed", HttpStatus.OK));
+          }
+          Object response = dataSnapshot.getValue();
+          Document myDocument = Document.convertToDocument((HashMap<String, Object>) response);
+
+          if (!FirebaseService.hasUser(myDocument.getUserId(), yourUserId)) {
+            return completed(new ResponseEntity<>("Your user does not have ownership of this "
+                + "document", HttpStatus.FORBIDDEN));
+          }
+          return service.deleteDocument(networkId, myDocument)
+              .<ResponseEntity<?>>thenApply(documentId -> new ResponseEntity<>("Your document "
+                  + "was successfully deleted", HttpStatus.OK));
+        }), FirebaseService.COMPUTE_EXECUTOR)
+        .orTimeout(remainingMillis(), TimeUnit.MILLISECONDS)
+        .exceptionally(failure(SweProjectApplication::documentFailure));
   }
 
   /**
@@ -225,33 +476,42 @@ public class SweProjectApplication {
    * @param documentName    A String representing the name of the document that the
    *                        client is looking for.
    * @param yourUserId      A String representing your user Id.
+   * @param requestHeaders  The HttpHeaders of the request, an If-None-Match matching the
+   *                        document's ETag is answered with 304 Not Modified.
    * @return A JSON object serialized as a String.
-   * @throws JsonProcessingException If there's an issues processing JSON data.
    */
   @GetMapping(value = "/check-for-doc", produces = MediaType.APPLICATION_JSON_VALUE)
-  public ResponseEntity<?> checkForDoc(@RequestParam(value = NETWORK_ID) String networkId,
-                            @RequestParam(value = DOCUMENT_NAME) String documentName,
-                            @RequestParam(value = YOUR_USER_ID)  String yourUserId)
-                            throws JsonProcessingException {
-    CompletableFuture<DataSnapshot> result = firebaseDataService.searchForDocument(
-        networkId, documentName);
-    Object response = null;
-
-    try {
-      DataSnapshot dataSnapshot = result.get();
-      if (dataSnapshot.exists()) {
-        response = dataSnapshot.getValue();
-        Document myDocument = Document.convertToDocument((HashMap<String, Object>) response);
-        if (!myDocument.getUserId().contains(yourUserId)) {
-          return new ResponseEntity<>("Your user does not have ownership of this document",
-              HttpStatus.FORBIDDEN);
-        }
-      }
-    } catch (Exception e) {
-      return new ResponseEntity<>(NO_DOCUMENT, HttpStatus.NOT_FOUND);
-    }
-    ObjectMapper om = new ObjectMapper();
-    return new ResponseEntity<>(om.writeValueAsString(response), HttpStatus.OK);
+  public CompletableFuture<ResponseEntity<?>> checkForDoc(
+      @RequestParam(value = NETWORK_ID) String networkId,
+      @RequestParam(value = DOCUMENT_NAME) String documentName,
+      @RequestParam(value = YOUR_USER_ID) String yourUserId,
+      @RequestHeader HttpHeaders requestHeaders) {
+    FirebaseService service = service();
+    return start(() -> service.searchForDocument(networkId, documentName))
+        .thenComposeAsync(checked(dataSnapshot -> {
+          if (!dataSnapshot.exists()) {
+            return completed(jsonResponse(null));
+          }
+          Document myDocument = Document.convertToDocument(
+              (HashMap<String, Object>) dataSnapshot.getValue());
+          if (!FirebaseService.hasUser(myDocument.getUserId(), yourUserId)) {
+            return completed(new ResponseEntity<>("Your user does not have ownership of this "
+                + "document", HttpStatus.FORBIDDEN));
+          }
+          //the metadata changes whenever the contents, versions or users do
+          String entityTag = metadataTag((Map<String, Object>) dataSnapshot.getValue());
+          if (isNotModified(requestHeaders, entityTag)) {
+            return completed(ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(entityTag)
+                .build());
+          }
+          return service.assembleDocument(networkId, dataSnapshot)
+              .thenComposeAsync(checked(response -> completed(ResponseEntity.ok()
+                  .eTag(entityTag).body(new ObjectMapper().writeValueAsString(response)))),
+                  FirebaseService.COMPUTE_EXECUTOR);
+        }), FirebaseService.COMPUTE_EXECUTOR)
+        .orTimeout(remainingMillis(), TimeUnit.MILLISECONDS)
+        .exceptionally(failure(error -> new ResponseEntity<>(NO_DOCUMENT,
+            HttpStatus.NOT_FOUND)));
   }
 
   /**
@@ -264,38 +524,81 @@ public class SweProjectApplication {
    * @param yourUserId     A String representing your user ID.
    * @param revisionNumber An int representing the version of the document to retrieve.
    * @return A JSON object serialized as a String.
-   * @throws JsonProcessingException If there's an issue processing JSON data.
    */
   @GetMapping(value = "/see-previous-version", produces = MediaType.APPLICATION_JSON_VALUE)
-  public ResponseEntity<?> seePreviousVersion(@RequestParam(value = NETWORK_ID) String networkId,
-                                   @RequestParam(value = DOCUMENT_NAME) String documentName,
-                                   @RequestParam(value = YOUR_USER_ID) String yourUserId,
-                                   @RequestParam(value = "revision-number") int revisionNumber)
-                                   throws JsonProcessingException {
-    CompletableFuture<DataSnapshot> result = firebaseDataService.searchForDocument(
-        networkId, documentName);
-    Object response = null;
+  public CompletableFuture<ResponseEntity<?>> seePreviousVersion(
+      @RequestParam(value = NETWORK_ID) String networkId,
+      @RequestParam(value = DOCUMENT_NAME) String documentName,
+      @RequestParam(value = YOUR_USER_ID) String yourUserId,
+      @RequestParam(value = "revision-number") int revisionNumber) {
+    FirebaseService service = service();
+    return start(() -> service.searchForDocument(networkId, documentName))
+        .thenComposeAsync(checked(dataSnapshot -> {
+          if (!dataSnapshot.exists()) {
+            return completed(jsonResponse(null));
+          }
+          Document myDocument = Document.convertToDocument(
+              (HashMap<String, Object>) dataSnapshot.getValue());
+          if (!FirebaseService.hasUser(myDocument.getUserId(), yourUserId)) {
+            return completed(new ResponseEntity<>("Your user does not have access to this "
+                + "document", HttpStatus.FORBIDDEN));
+          }
+          if (revisionNumber <= 0 || revisionNumber > myDocument.getVersionCount()) {
+            return completed(new ResponseEntity<>("This is not a valid revision number",
+                HttpStatus.BAD_REQUEST));
+          }
+          return service.getVersion(networkId, dataSnapshot, revisionNumber)
+              .thenComposeAsync(checked(response -> completed(jsonResponse(response))),
+                  FirebaseService.COMPUTE_EXECUTOR);
+        }), FirebaseService.COMPUTE_EXECUTOR)
+        .orTimeout(remainingMillis(), TimeUnit.MILLISECONDS)
+        .exceptionally(failure(error -> new ResponseEntity<>(NO_DOCUMENT,
+            HttpStatus.NOT_FOUND)));
+  }
 
-    try {
-      DataSnapshot dataSnapshot = result.get();
-      if (dataSnapshot.exists()) {
-        response = dataSnapshot.getValue();
-        Document myDocument = Document.convertToDocument((HashMap<String, Object>) response);
-        if (!myDocument.getUserId().contains(yourUserId)) {
-          return new ResponseEntity<>("Your user does not have access to this document",
-              HttpStatus.FORBIDDEN);
-        }
-        if (revisionNumber <= 0 || revisionNumber >= myDocument.getPreviousVersions().size()) {
-          return new ResponseEntity<>("This is not a valid revision number",
-              HttpStatus.BAD_REQUEST);
-        }
-        response = myDocument.getPreviousVersions().get(revisionNumber);
-      }
-    } catch (Exception e) {
-      return new ResponseEntity<>(NO_DOCUMENT, HttpStatus.NOT_FOUND);
+  /**
+   * Returns a page of the metadata of a document's previous versions, oldest first, as long
+   * as a user has permission to view it. The contents of the versions are not included,
+   * they are retrieved one at a time through see-previous-version.
+   *
+   * @param networkId      A String representing the client's network Id.
+   * @param documentName   A String representing the name of the document.
+   * @param yourUserId     A String representing your user ID.
+   * @param cursor         An int representing the nextCursor returned with the previous page,
+   *                       0 for the first page.
+   * @param pageSize       An int representing how many versions to return, at most 100.
+   * @return A JSON object serialized as a String.
+   */
+  @GetMapping(value = "/list-versions", produces = MediaType.APPLICATION_JSON_VALUE)
+  public CompletableFuture<ResponseEntity<?>> listVersions(
+      @RequestParam(value = NETWORK_ID) String networkId,
+      @RequestParam(value = DOCUMENT_NAME) String documentName,
+      @RequestParam(value = YOUR_USER_ID) String yourUserId,
+      @RequestParam(value = "cursor", defaultValue = "0") int cursor,
+      @RequestParam(value = "page-size", defaultValue = "20") int pageSize) {
+    FirebaseService service = service();
+    if (cursor < 0 || pageSize <= 0 || pageSize > MAX_PAGE_SIZE) {
+      return completed(new ResponseEntity<>("The cursor or page size is not valid",
+          HttpStatus.BAD_REQUEST));
     }
-    ObjectMapper om = new ObjectMapper();
-    return new ResponseEntity<>(om.writeValueAsString(response), HttpStatus.OK);
+    return start(() -> service.searchForDocument(networkId, documentName))
+        .thenComposeAsync(checked(dataSnapshot -> {
+          if (!dataSnapshot.exists()) {
+            return completed(jsonResponse(null));
+          }
+          Document myDocument = Document.convertToDocument(
+              (HashMap<String, Object>) dataSnapshot.getValue());
+          if (!FirebaseService.hasUser(myDocument.getUserId(), yourUserId)) {
+            return completed(new ResponseEntity<>("Your user does not have access to this "
+                + "document", HttpStatus.FORBIDDEN));
+          }
+          return service.listVersions(networkId, dataSnapshot, cursor, pageSize)
+              .thenComposeAsync(checked(response -> completed(jsonResponse(response))),
+                  FirebaseService.COMPUTE_EXECUTOR);
+        }), FirebaseService.COMPUTE_EXECUTOR)
+        .orTimeout(remainingMillis(), TimeUnit.MILLISECONDS)
+        .exceptionally(failure(error -> new ResponseEntity<>(NO_DOCUMENT,
+            HttpStatus.NOT_FOUND)));
   }
 
   /**
@@ -306,37 +609,30 @@ public class SweProjectApplication {
    * @param yourUserId     A String representing your user ID.
    * @return A String with the client ID, word count, users, and the number of
    *         previous versions saved.
-   * @throws JsonProcessingException If there's an issue processing JSON data.
    */
   @GetMapping(value = "/see-document-stats", produces = MediaType.APPLICATION_JSON_VALUE)
-  public ResponseEntity<?> seeDocumentStats(@RequestParam(value = NETWORK_ID) String networkId,
-                                 @RequestParam(value = DOCUMENT_NAME) String documentName,
-                                 @RequestParam(value = YOUR_USER_ID) String yourUserId)
-                                 throws JsonProcessingException {
-    CompletableFuture<DataSnapshot> result = firebaseDataService.searchForDocument(
-        networkId, documentName);
-    Object response = null;
-    try {
-      DataSnapshot dataSnapshot = result.get();
-      if (dataSnapshot.exists()) {
-        response = dataSnapshot.getValue();
-        Document myDocument = Document.convertToDocument((HashMap<String, Object>) response);
-        if (!myDocument.getUserId().contains(yourUserId)) {
-          response = "Your user does not have access to this document";
-          return new ResponseEntity<>(new ObjectMapper().writeValueAsString(response),
-              HttpStatus.FORBIDDEN);
-        } else {
-          response = myDocument.generateUsageStatistics();
-        }
-      }
-    } catch (IOException e) {
-      return new ResponseEntity<>(ERROR_MSG, HttpStatus.INTERNAL_SERVER_ERROR);
-    } catch (Exception e) {
-      return new ResponseEntity<>(new ObjectMapper().writeValueAsString(NO_DOCUMENT),
-          HttpStatus.NOT_FOUND);
-    }
-    ObjectMapper om = new ObjectMapper();
-    return new ResponseEntity<>(om.writeValueAsString(response), HttpStatus.OK);
+  public CompletableFuture<ResponseEntity<?>> seeDocumentStats(
+      @RequestParam(value = NETWORK_ID) String networkId,
+      @RequestParam(value = DOCUMENT_NAME) String documentName,
+      @RequestParam(value = YOUR_USER_ID) String yourUserId) {
+    FirebaseService service = service();
+    return start(() -> service.searchForDocument(networkId, documentName))
+        .thenComposeAsync(checked(dataSnapshot -> {
+          if (!dataSnapshot.exists()) {
+            return completed(jsonResponse(null));
+          }
+          Document myDocument = Document.convertToDocument(
+              (HashMap<String, Object>) dataSnapshot.getValue());
+          if (!FirebaseService.hasUser(myDocument.getUserId(), yourUserId)) {
+            return completed(new ResponseEntity<>(new ObjectMapper().writeValueAsString(
+                "Your user does not have access to this document"), HttpStatus.FORBIDDEN));
+          }
+          return completed(jsonResponse(myDocument.generateUsageStatistics()));
+        }), FirebaseService.COMPUTE_EXECUTOR)
+        .orTimeout(remainingMillis(), TimeUnit.MILLISECONDS)
+        .exceptionally(failure(error -> cause(error) instanceof IOException
+            ? new ResponseEntity<>(ERROR_MSG, HttpStatus.INTERNAL_SERVER_ERROR)
+            : new ResponseEntity<>("\"" + NO_DOCUMENT + "\"", HttpStatus.NOT_FOUND)));
   }
 
   /**
@@ -347,56 +643,42 @@ public class SweProjectApplication {
    * @param sndDocName   A String representing the name of the second document.
    * @param yourUserId        A String representing your user ID.
    * @return String representation of the comparison made between two documents.
-   * @throws JsonProcessingException If there's an issue processing JSON data.
    */
   @GetMapping(value = "/generate-difference-summary", produces = MediaType.APPLICATION_JSON_VALUE)
-  public ResponseEntity<?> generateDiffSummary(@RequestParam(value = NETWORK_ID) String networkId,
-                                          @RequestParam(value = "fst-doc-name") String fstDocName,
-                                          @RequestParam(value = "snd-doc-name") String sndDocName,
-                                          @RequestParam(value = YOUR_USER_ID) String yourUserId)
-                                          throws JsonProcessingException {
-    CompletableFuture<DataSnapshot> resultOne = firebaseDataService.searchForDocument(
-        networkId, fstDocName);
-    CompletableFuture<DataSnapshot> resultTwo = firebaseDataService.searchForDocument(
-        networkId, sndDocName);
-
-    DataSnapshot firstSnapshot = null;
-    DataSnapshot secondSnapshot = null;
-    Object response = null;
-    boolean isError = false;
-
-    try {
-      firstSnapshot = resultOne.get();
-      secondSnapshot = resultTwo.get();
-
-      if (!isError && firstSnapshot.exists() && secondSnapshot.exists()) {
+  public CompletableFuture<ResponseEntity<?>> generateDiffSummary(
+      @RequestParam(value = NETWORK_ID) String networkId,
+      @RequestParam(value = "fst-doc-name") String fstDocName,
+      @RequestParam(value = "snd-doc-name") String sndDocName,
+      @RequestParam(value = YOUR_USER_ID) String yourUserId) {
+    FirebaseService service = service();
+    CompletableFuture<DataSnapshot> resultOne = start(() ->
+        service.searchForDocument(networkId, fstDocName));
+    CompletableFuture<DataSnapshot> resultTwo = start(() ->
+        service.searchForDocument(networkId, sndDocName));
 
-        try {
+    return resultOne.thenCompose(firstSnapshot -> resultTwo.thenComposeAsync(checked(
+        secondSnapshot -> {
+          if (!firstSnapshot.exists() || !secondSnapshot.exists()) {
+            return completed(jsonResponse(null));
+          }
           Document fstDocument = Document.convertToDocument(
               (HashMap<String, Object>) firstSnapshot.getValue());
           Document sndDocument = Document.convertToDocument(
               (HashMap<String, Object>) secondSnapshot.getValue());
 
-          if (!fstDocument.getUserId().contains(yourUserId)
-                || !sndDocument.getUserId().contains(yourUserId)) {
-            response = "Your user does not have access to one of the documents";
-            return new ResponseEntity<>(new ObjectMapper().writeValueAsString(response),
-                HttpStatus.FORBIDDEN);
-          } else {
-            response = fstDocument.compareTo(sndDocument);
+          if (!FirebaseService.hasUser(fstDocument.getUserId(), yourUserId)
+              || !FirebaseService.hasUser(sndDocument.getUserId(), yourUserId)) {
+            return completed(new ResponseEntity<>(new ObjectMapper().writeValueAsString(
+                "Your user does not have access to one of the documents"),
+                HttpStatus.FORBIDDEN));
           }
-        } catch (IOException e) {
-          return new ResponseEntity<>(ERROR_MSG, HttpStatus.INTERNAL_SERVER_ERROR);
-        }
-      }
-    } catch (Exception e) {
-      response = "One or more of the documents does not exist";
-      return new ResponseEntity<>(new ObjectMapper().writeValueAsString(response),
-          HttpStatus.NOT_FOUND);
-    }
-
-    ObjectMapper om = new ObjectMapper();
-    return new ResponseEntity<>(om.writeValueAsString(response), HttpStatus.OK);
+          return completed(jsonResponse(fstDocument.compareTo(sndDocument)));
+        }), FirebaseService.COMPUTE_EXECUTOR))
+        .orTimeout(remainingMillis(), TimeUnit.MILLISECONDS)
+        .exceptionally(failure(error -> cause(error) instanceof IOException
+            ? new ResponseEntity<>(ERROR_MSG, HttpStatus.INTERNAL_SERVER_ERROR)
+            : new ResponseEntity<>("\"One or more of the documents does not exist\"",
+                HttpStatus.NOT_FOUND)));
   }
 
   /**
@@ -405,59 +687,170 @@ public class SweProjectApplication {
    * @param networkId     A String representing the network to which the client belongs.
    * @param documentName  A String representing the name of the document to download.
    * @param yourUserId    A String representing your user ID.
+   * @param requestHeaders The HttpHeaders of the request. An If-None-Match matching the
+   *                      document's ETag is answered with 304 Not Modified and a single
+   *                      byte Range, unless an If-Range names another ETag, with 206
+   *                      Partial Content.
    * @param jsonObject    An optional JSON Object String.
    * @return A ResponseEntity with the appropriate status code and document
    *         as the response body if available.
    */
   @GetMapping(value = "/download-doc", produces = MediaType.APPLICATION_OCTET_STREAM_VALUE)
-  public ResponseEntity<?> downloadDoc(@RequestParam(value = NETWORK_ID) String networkId,
-                                       @RequestParam(value = DOCUMENT_NAME) String documentName,
-                                       @RequestParam(value = YOUR_USER_ID)  String yourUserId,
-                                       @RequestBody(required = false) String jsonObject) {
+  public CompletableFuture<ResponseEntity<StreamingResponseBody>> downloadDoc(
+      @RequestParam(value = NETWORK_ID) String networkId,
+      @RequestParam(value = DOCUMENT_NAME) String documentName,
+      @RequestParam(value = YOUR_USER_ID) String yourUserId,
+      @RequestHeader HttpHeaders requestHeaders,
+      @RequestBody(required = false) String jsonObject) {
+    FirebaseService service = service();
     //Caller provided a JSON body
     if (jsonObject != null) {
       try {
         ObjectMapper om = new ObjectMapper();
         JsonNode myNode = om.readTree(jsonObject);
-        String fileString = myNode.get("fileString").asText().substring(1);
+        String fileString = myNode.get("fileString").asText();
         String fileName = myNode.get("title").asText();
-        byte[] fileBytes = Base64.getDecoder().decode(fileString);
-        ByteArrayResource resource = new ByteArrayResource(fileBytes);
+        //the file string is decoded as it is written rather than into a second copy
+        if (!isFileString(fileString)) {
+          throw new IllegalArgumentException("The file string is not Base64");
+        }
+        long fileLength = Document.decodedLength(fileString);
         HttpHeaders responseHeaders = new HttpHeaders();
         responseHeaders.setContentDispositionFormData("attachment", fileName);
         responseHeaders.setContentType(MediaType.APPLICATION_OCTET_STREAM);
-        return ResponseEntity.ok().headers(responseHeaders).body(resource);
+        responseHeaders.setContentLength(fileLength);
+        StreamingResponseBody resource = outputStream -> writeBase64(fileString, outputStream);
+        return CompletableFuture.completedFuture(ResponseEntity.ok().headers(responseHeaders)
+            .body(resource));
       } catch (Exception e) {
-        return new ResponseEntity<>("The request body is malformed", HttpStatus.BAD_REQUEST);
+        return CompletableFuture.completedFuture(message("The request body is malformed",
+            HttpStatus.BAD_REQUEST));
       }
     }
-    CompletableFuture<DataSnapshot> result = firebaseDataService.searchForDocument(
-        networkId, documentName);
-    HttpHeaders responseHeaders = null;
-    ByteArrayResource resource = null;
+    return start(() -> service.searchForDocument(networkId, documentName))
+        .thenComposeAsync(checked(dataSnapshot -> {
+          //conditions and ranges are resolved from the metadata before any contents are read
+          DocumentDownload download = DocumentDownload.resolve(dataSnapshot, documentName,
+              yourUserId, requestHeaders);
+          if (download.getMessage() != null) {
+            return CompletableFuture.completedFuture(message(download.getMessage(),
+                download.getStatus()));
+          }
+          if (!download.hasContents()) {
+            return CompletableFuture.completedFuture(ResponseEntity.status(
+                download.getStatus()).headers(download.getHeaders()).build());
+          }
+          return openDocument(service, networkId, dataSnapshot, download);
+        }), FirebaseService.COMPUTE_EXECUTOR)
+        .orTimeout(remainingMillis(), TimeUnit.MILLISECONDS)
+        .exceptionally(error -> {
+          HttpStatus status = databaseStatus(error);
+          if (status != null) {
+            return message(databaseMessage(status), status);
+          }
+          return cause(error) instanceof IOException
+              ? message(ERROR_MSG, HttpStatus.INTERNAL_SERVER_ERROR)
+              : message(NO_DOCUMENT, HttpStatus.NOT_FOUND);
+        });
+  }
+
+  //the contents are read as they are written, a few chunks ahead
+  private static CompletableFuture<ResponseEntity<StreamingResponseBody>> openDocument(
+      FirebaseService service, String networkId, DataSnapshot dataSnapshot,
+      DocumentDownload download) {
+    return service.openDocument(networkId, dataSnapshot, download.getOffset())
+        .thenApply(contents -> ResponseEntity.status(download.getStatus())
+            .headers(download.getHeaders()).body(outputStream -> {
+              try (contents) {
+                copy(contents, outputStream, download.getLength());
+              }
+            }));
+  }
+
+  //a message sent as the body of a download that could not be served
+  private static ResponseEntity<StreamingResponseBody> message(String message,
+                                                               HttpStatus status) {
+    return ResponseEntity.status(status).contentType(MediaType.TEXT_PLAIN).body(
+        outputStream -> outputStream.write(message.getBytes(StandardCharsets.UTF_8)));
+  }
+
+  //a strong ETag of the contents, null for metadata stored before digests were recorded
+  static String contentTag(Map<String, Object> metadata) {
+    Object contentHash = metadata.get("contentHash");
+    return contentHash == null ? null : "\"" + contentHash + "\"";
+  }
+
+  //a strong ETag of the whole document, derived from its metadata
+  static String metadataTag(Map<String, Object> metadata)
+      throws JsonProcessingException {
+    if (contentTag(metadata) == null) {
+      return null;
+    }
+    Map<String, Object> fields = new TreeMap<>(metadata);
+    //an upload claiming the next version does not change the document
+    fields.remove(FirebaseService.COMMIT_CLAIM);
+    byte[] serialized = new ObjectMapper().writeValueAsBytes(fields);
+    return "\"" + Document.hashContents(serialized) + "\"";
+  }
+
+  //If-None-Match compares ETags weakly and matches any current document with *
+  static boolean isNotModified(HttpHeaders requestHeaders, String entityTag) {
+    if (entityTag == null) {
+      return false;
+    }
     try {
-      DataSnapshot dataSnapshot = result.get();
-      if (dataSnapshot.exists()) {
-        Document myDocument = Document.convertToDocument(
-            (HashMap<String, Object>) dataSnapshot.getValue());
-        if (!myDocument.getUserId().contains(yourUserId)) {
-          return new ResponseEntity<>(
-        "You do not have ownership of this document", HttpStatus.FORBIDDEN);
-        } else {
-          byte[] fileBytes = Base64.getDecoder().decode(
-              myDocument.getFileString().substring(1));
-          resource = new ByteArrayResource(fileBytes);
-          responseHeaders = new HttpHeaders();
-          responseHeaders.setContentDispositionFormData("attachment", documentName);
-          responseHeaders.setContentType(MediaType.APPLICATION_OCTET_STREAM);
+      for (String candidate : requestHeaders.getIfNoneMatch()) {
+        if (candidate.equals("*") || candidate.replaceFirst("^W/", "").equals(entityTag)) {
+          return true;
         }
       }
-    } catch (IOException e) {
-      return new ResponseEntity<>(ERROR_MSG, HttpStatus.INTERNAL_SERVER_ERROR);
-    } catch (Exception e) {
-      return new ResponseEntity<>(NO_DOCUMENT, HttpStatus.NOT_FOUND);
+    } catch (IllegalArgumentException e) {
+      return false;
+    }
+    return false;
+  }
+
+  //copies length bytes, or everything when length is negative, through a bounded buffer
+  private static void copy(InputStream contents, OutputStream outputStream, long length)
+      throws IOException {
+    byte[] buffer = new byte[8192];
+    long remaining = length < 0 ? Long.MAX_VALUE : length;
+    while (remaining > 0) {
+      int read = contents.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+      if (read < 0) {
+        break;
+      }
+      outputStream.write(buffer, 0, read);
+      remaining -= read;
+    }
+  }
+
+  //checks the Base64 after the prefix up front, as errors can not be reported mid-stream
+  static boolean isFileString(String fileString) {
+    int length = fileString.length();
+    if (length == 0 || (length - 1) % 4 != 0) {
+      return false;
+    }
+    for (int i = 1; i < length; i++) {
+      char c = fileString.charAt(i);
+      boolean padding = c == '=' && i >= length - 2
+          && (i == length - 1 || fileString.charAt(length - 1) == '=');
+      if (!padding && !(c >= 'A' && c <= 'Z' || c >= 'a' && c <= 'z' || c >= '0' && c <= '9'
+          || c == '+' || c == '/')) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  //decodes a '#' prefixed Base64 file string into the stream a block at a time
+  private static void writeBase64(String fileString, OutputStream outputStream)
+      throws IOException {
+    Base64.Decoder decoder = Base64.getDecoder();
+    for (int start = 1; start < fileString.length(); start += DECODE_BLOCK) {
+      int end = Math.min(fileString.length(), start + DECODE_BLOCK);
+      outputStream.write(decoder.decode(fileString.substring(start, end)));
     }
-    return ResponseEntity.ok().headers(responseHeaders).body(resource);
   }
 
   /**
@@ -470,26 +863,30 @@ public class SweProjectApplication {
    *         or HttpStatus.INTERNAL_SERVER_ERROR with an error message if an error occurs.
    */
   @GetMapping(value = "/retrieve-docs", produces = MediaType.APPLICATION_OCTET_STREAM_VALUE)
-  public ResponseEntity<?> retrieveDocs(@RequestParam(value = NETWORK_ID) String networkId,
-                                       @RequestParam(value = "user-id")    String userId) {
-    try {
-      CompletableFuture<Object> result = firebaseDataService.collectEntries(networkId, userId);
-      ArrayList<DataSnapshot> documentSnapList = (ArrayList<DataSnapshot>) result.get();
-
-      List<HashMap<String, Object>> documents = new ArrayList<>();
-
-      for (DataSnapshot dataSnapshot : documentSnapList) {
-        HashMap<String, Object> documentData = (HashMap<String, Object>) dataSnapshot.getValue();
-        documents.add(documentData);
-      }
-
-      HttpHeaders headers = new HttpHeaders();
-      headers.setContentType(MediaType.APPLICATION_JSON);
-      return new ResponseEntity<>(documents, headers, HttpStatus.OK);
-
-    } catch (Exception e) {
-      return new ResponseEntity<>(ERROR_MSG, HttpStatus.INTERNAL_SERVER_ERROR);
-    }
+  public CompletableFuture<ResponseEntity<?>> retrieveDocs(
+      @RequestParam(value = NETWORK_ID) String networkId,
+      @RequestParam(value = "user-id") String userId) {
+    FirebaseService service = service();
+    return start(() -> service.collectEntries(networkId, userId))
+        .thenCompose(result -> {
+          List<CompletableFuture<Map<String, Object>>> assembled = new ArrayList<>();
+          for (DataSnapshot dataSnapshot : (ArrayList<DataSnapshot>) result) {
+            assembled.add(service.assembleDocument(networkId, dataSnapshot));
+          }
+          return CompletableFuture.allOf(assembled.toArray(new CompletableFuture[0]))
+              .<ResponseEntity<?>>thenApply(done -> {
+                List<Map<String, Object>> documents = new ArrayList<>();
+                for (CompletableFuture<Map<String, Object>> documentData : assembled) {
+                  documents.add(documentData.join());
+                }
+                HttpHeaders headers = new HttpHeaders();
+                headers.setContentType(MediaType.APPLICATION_JSON);
+                return new ResponseEntity<>(documents, headers, HttpStatus.OK);
+              });
+        })
+        .orTimeout(remainingMillis(), TimeUnit.MILLISECONDS)
+        .exceptionally(failure(error -> new ResponseEntity<>(ERROR_MSG,
+            HttpStatus.INTERNAL_SERVER_ERROR)));
   }
 
   /**
@@ -502,29 +899,150 @@ public class SweProjectApplication {
    *         or HttpStatus.INTERNAL_SERVER_ERROR with an error message if an error occurs.
    */
   @GetMapping(value = "/retrieve-doc-names", produces = MediaType.APPLICATION_OCTET_STREAM_VALUE)
-  public ResponseEntity<?> retrieveDocument(@RequestParam(value = NETWORK_ID) String networkId,
-                                            @RequestParam(value = "user-id")    String userId) {
+  public CompletableFuture<ResponseEntity<?>> retrieveDocument(
+      @RequestParam(value = NETWORK_ID) String networkId,
+      @RequestParam(value = "user-id") String userId) {
+    FirebaseService service = service();
+    return start(() -> service.getDocumentTitles(networkId, userId))
+        .<ResponseEntity<?>>thenApply(documentTitles -> {
+          StringBuilder listStr = new StringBuilder("[");
+          for (int i = 0; i < documentTitles.size(); i++) {
+            String newEntry = "\"" + documentTitles.get(i) + "\"";
+            listStr.append(newEntry);
+            if (i != documentTitles.size() - 1) {
+              listStr.append(",");
+            }
+          }
+          listStr.append("]");
+
+          HttpHeaders headers = new HttpHeaders();
+          headers.setContentType(MediaType.APPLICATION_JSON);
+          return new ResponseEntity<>(listStr.toString(), headers, HttpStatus.OK);
+        })
+        .orTimeout(remainingMillis(), TimeUnit.MILLISECONDS)
+        .exceptionally(failure(error -> new ResponseEntity<>(ERROR_MSG,
+            HttpStatus.INTERNAL_SERVER_ERROR)));
+  }
+
+  /**
+   * Reports the statistics of the in-memory document cache, its hits, misses, evictions and
+   * invalidations along with how many documents and bytes it currently holds.
+   *
+   * @return A JSON response containing the cache statistics.
+   */
+  @GetMapping(value = "/cache-stats", produces = MediaType.APPLICATION_JSON_VALUE)
+  public ResponseEntity<?> cacheStats() {
     try {
-      CompletableFuture<List<String>> result = firebaseDataService.getDocumentTitles(networkId,
-          userId);
-      List<String> documentTitles = result.get();
-
-      StringBuilder listStr = new StringBuilder("[");
-      for (int i = 0; i < documentTitles.size(); i++) {
-        String newEntry = "\"" + documentTitles.get(i) + "\"";
-        listStr.append(newEntry);
-        if (i != documentTitles.size() - 1) {
-          listStr.append(",");
-        }
-      }
-      listStr.append("]");
+      return new ResponseEntity<>(firebaseDataService.getCacheStatistics(), HttpStatus.OK);
+    } catch (Exception e) {
+      System.out.println(e.getMessage());
+      return new ResponseEntity<>(ERROR_MSG, HttpStatus.INTERNAL_SERVER_ERROR);
+    }
+  }
+
+  //a stage of a handler, which may throw like the blocking handlers did
+  @FunctionalInterface
+  private interface Stage<T, R> {
+    CompletableFuture<R> apply(T value) throws Exception;
+  }
 
-      HttpHeaders headers = new HttpHeaders();
-      headers.setContentType(MediaType.APPLICATION_JSON);
-      return new ResponseEntity<>(listStr.toString(), headers, HttpStatus.OK);
+  //the service bound to the deadline of the request being handled, called on its thread, so
+  //that the reads and writes of every stage of the handler stop waiting once it is answered
+  private FirebaseService service() {
+    return firebaseDataService.within(remainingMillis());
+  }
+
+  //the time left before the deadline of the request being handled, called on its thread;
+  //a handler called outside of a request, as in tests, is given the whole timeout
+  private long remainingMillis() {
+    RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+    Object arrival = attributes == null ? null
+        : attributes.getAttribute(ARRIVAL, RequestAttributes.SCOPE_REQUEST);
+    if (!(arrival instanceof Long)) {
+      return requestTimeoutMillis;
+    }
+    long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - (Long) arrival);
+    return Math.max(0, requestTimeoutMillis - elapsedMillis);
+  }
 
+  //starts a handler's first call, failing the future it returns rather than throwing so
+  //that every failure of the handler is answered in one place
+  private static <R> CompletableFuture<R> start(Callable<CompletableFuture<R>> call) {
+    try {
+      return call.call();
     } catch (Exception e) {
+      return CompletableFuture.failedFuture(e);
+    }
+  }
+
+  //starts a handler's first call on FirebaseService.UPLOAD_EXECUTOR, for calls reading the
+  //request body, which would otherwise hold the servlet thread for as long as the client
+  //takes to send it; the body stays readable there as the request is handled asynchronously
+  private static <R> CompletableFuture<R> ingest(Callable<CompletableFuture<R>> call) {
+    return start(() -> CompletableFuture.supplyAsync(() -> start(call),
+        FirebaseService.UPLOAD_EXECUTOR).thenCompose(Function.identity()));
+  }
+
+  //adapts a stage that may throw for thenCompose, failing the future it returns instead
+  private static <T, R> Function<T, CompletableFuture<R>> checked(Stage<T, R> stage) {
+    return value -> start(() -> stage.apply(value));
+  }
+
+  private static CompletableFuture<ResponseEntity<?>> completed(ResponseEntity<?> response) {
+    return CompletableFuture.completedFuture(response);
+  }
+
+  //the exception a stage failed with, which later stages see wrapped
+  static Throwable cause(Throwable error) {
+    return error instanceof CompletionException && error.getCause() != null
+        ? error.getCause() : error;
+  }
+
+  private static ResponseEntity<?> jsonResponse(Object response)
+      throws JsonProcessingException {
+    return new ResponseEntity<>(new ObjectMapper().writeValueAsString(response), HttpStatus.OK);
+  }
+
+  //a deadline passed or an unreachable database is answered before the handler's own
+  //failures, which would report it as a missing document or an unexpected error
+  private static Function<Throwable, ResponseEntity<?>> failure(
+      Function<Throwable, ResponseEntity<?>> handlerFailure) {
+    return error -> {
+      HttpStatus status = databaseStatus(error);
+      return status == null ? handlerFailure.apply(error)
+          : new ResponseEntity<>(databaseMessage(status), status);
+    };
+  }
+
+  //504 for a deadline passed, 503 for a database that could not be reached, otherwise null;
+  //the cause may be wrapped by the stages and streams it failed through
+  static HttpStatus databaseStatus(Throwable error) {
+    for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+      if (cause instanceof TimeoutException) {
+        return HttpStatus.GATEWAY_TIMEOUT;
+      }
+      if (cause instanceof DatabaseUnavailableException) {
+        return HttpStatus.SERVICE_UNAVAILABLE;
+      }
+    }
+    return null;
+  }
+
+  static String databaseMessage(HttpStatus status) {
+    return status == HttpStatus.GATEWAY_TIMEOUT ? "The database did not answer in time"
+        : "The database is unavailable";
+  }
+
+  //a document that could not be converted is an error, any other failure a missing document
+  private static ResponseEntity<?> documentFailure(Throwable error) {
+    if (cause(error) instanceof IOException) {
       return new ResponseEntity<>(ERROR_MSG, HttpStatus.INTERNAL_SERVER_ERROR);
     }
+    return new ResponseEntity<>(NO_DOCUMENT, HttpStatus.NOT_FOUND);
+  }
+
+  private static ResponseEntity<?> unexpectedFailure(Throwable error) {
+    System.out.println(cause(error).getMessage());
+    return new ResponseEntity<>(ERROR_MSG, HttpStatus.INTERNAL_SERVER_ERROR);
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,46 @@
+package com.dev.sweproject;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The VectorWordCounter class counts the bytes that start a word with the Vector API,
+ * classifying as many bytes per step as the CPU's preferred vector holds, 32 with AVX2 and
+ * 64 with AVX-512. The whitespace lanes of each step form a bit mask, a word starts at
+ * every lane that is not whitespace while the lane before it is, and those lanes are
+ * counted with a single bit count.
+ *
+ * <p>
+ * The Vector API is an incubator module, this class is only used by WordCounter when the
+ * JVM was started with --add-modules jdk.incubator.vector.
+ * </p>
+ */
+final class VectorWordCounter {
+
+  private static final VectorSpecies<Byte> SPECIES = ByteVector.SPECIES_PREFERRED;
+
+  private VectorWordCounter() {}
+
+  //the same count as WordCounter.countWordStarts
+  static int countWordStarts(byte[] contents, int from, int to) {
+    int lanes = SPECIES.length();
+    long laneBits = lanes == 64 ? -1L : (1L << lanes) - 1;
+    int words = 0;
+    //the whitespace bit of the byte before the current step
+    long carry = from == 0 || WordCounter.isWhitespace(contents[from - 1]) ? 1 : 0;
+    int i = from;
+    for (int bound = from + SPECIES.loopBound(to - from); i < bound; i += lanes) {
+      ByteVector bytes = ByteVector.fromArray(SPECIES, contents, i);
+      VectorMask<Byte> whitespace = bytes.compare(VectorOperators.EQ, (byte) ' ')
+          .or(bytes.compare(VectorOperators.GE, (byte) '\t')
+              .and(bytes.compare(VectorOperators.LE, (byte) '\r')));
+      long whitespaceBits = whitespace.toLong();
+      long starts = ~whitespaceBits & ((whitespaceBits << 1) | carry) & laneBits;
+      words += Long.bitCount(starts);
+      carry = (whitespaceBits >>> (lanes - 1)) & 1;
+    }
+    return words + WordCounter.countScalar(contents, i, to);
+  }
+}
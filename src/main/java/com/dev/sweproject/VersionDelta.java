@@ -0,0 +1,200 @@
+package com.dev.sweproject;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The VersionDelta class computes and applies binary deltas between two versions of a
+ * file. A delta describes the older version as a sequence of instructions that either copy
+ * a range out of the newer version or insert literal bytes, so a version that differs from
+ * its successor by a small edit is stored in roughly the size of that edit.
+ *
+ * <p>
+ * The encoded form starts with the length of the target as a varint followed by the
+ * instructions, a COPY (0) carries a varint offset and length into the base and an
+ * INSERT (1) carries a varint length followed by the literal bytes.
+ * </p>
+ */
+public final class VersionDelta {
+
+  /**
+   * The size of the blocks of the base that are indexed when searching for matches.
+   */
+  public static final int BLOCK_SIZE = 16;
+
+  private static final int COPY = 0;
+  private static final int INSERT = 1;
+  private static final int PRIME = 31;
+
+  private VersionDelta() {}
+
+  /**
+   * Computes the delta that rebuilds the target from the base.
+   *
+   * @param base A byte[] representing the version the delta is applied to.
+   * @param target A byte[] representing the version the delta rebuilds.
+   * @return A byte[] containing the encoded delta.
+   */
+  public static byte[] encode(byte[] base, byte[] target) {
+    ByteArrayOutputStream delta = new ByteArrayOutputStream();
+    writeVarint(delta, target.length);
+
+    Map<Integer, Integer> blocks = indexBlocks(base);
+    int literalStart = 0;
+    int position = 0;
+    int hash = target.length >= BLOCK_SIZE ? hash(target, 0) : 0;
+    int highestPower = power();
+
+    while (position + BLOCK_SIZE <= target.length) {
+      Integer candidate = blocks.get(hash);
+      if (candidate != null && regionMatches(base, candidate, target, position)) {
+        int matchStart = candidate;
+        int targetStart = position;
+        //extend the match backwards over bytes that would otherwise be inserted
+        while (matchStart > 0 && targetStart > literalStart
+            && base[matchStart - 1] == target[targetStart - 1]) {
+          matchStart--;
+          targetStart--;
+        }
+        int matchEnd = candidate + BLOCK_SIZE;
+        int targetEnd = position + BLOCK_SIZE;
+        while (matchEnd < base.length && targetEnd < target.length
+            && base[matchEnd] == target[targetEnd]) {
+          matchEnd++;
+          targetEnd++;
+        }
+
+        writeInsert(delta, target, literalStart, targetStart);
+        delta.write(COPY);
+        writeVarint(delta, matchStart);
+        writeVarint(delta, matchEnd - matchStart);
+
+        position = targetEnd;
+        literalStart = targetEnd;
+        if (position + BLOCK_SIZE <= target.length) {
+          hash = hash(target, position);
+        }
+        continue;
+      }
+
+      if (position + BLOCK_SIZE < target.length) {
+        hash = (hash - target[position] * highestPower) * PRIME + target[position + BLOCK_SIZE];
+      }
+      position++;
+    }
+
+    writeInsert(delta, target, literalStart, target.length);
+    return delta.toByteArray();
+  }
+
+  /**
+   * Rebuilds the target of a delta from its base.
+   *
+   * @param base A byte[] representing the version the delta was computed against.
+   * @param delta A byte[] containing a delta produced by encode.
+   * @return A byte[] containing the rebuilt version.
+   * @throws IllegalArgumentException If the delta is malformed or does not match the base.
+   */
+  public static byte[] apply(byte[] base, byte[] delta) {
+    int[] cursor = {0};
+    int length = readVarint(delta, cursor);
+    byte[] target = new byte[length];
+    int written = 0;
+
+    while (cursor[0] < delta.length) {
+      int instruction = delta[cursor[0]++];
+      if (instruction == COPY) {
+        int offset = readVarint(delta, cursor);
+        int count = readVarint(delta, cursor);
+        if (offset < 0 || count < 0 || offset + count > base.length
+            || written + count > length) {
+          throw new IllegalArgumentException("The delta does not match its base");
+        }
+        System.arraycopy(base, offset, target, written, count);
+        written += count;
+      } else if (instruction == INSERT) {
+        int count = readVarint(delta, cursor);
+        if (count < 0 || cursor[0] + count > delta.length || written + count > length) {
+          throw new IllegalArgumentException("The delta is malformed");
+        }
+        System.arraycopy(delta, cursor[0], target, written, count);
+        cursor[0] += count;
+        written += count;
+      } else {
+        throw new IllegalArgumentException("Unknown delta instruction: " + instruction);
+      }
+    }
+
+    if (written != length) {
+      throw new IllegalArgumentException("The delta is truncated");
+    }
+    return target;
+  }
+
+  //maps the hash of each aligned block of the base to its first offset
+  private static Map<Integer, Integer> indexBlocks(byte[] base) {
+    Map<Integer, Integer> blocks = new HashMap<>();
+    for (int offset = 0; offset + BLOCK_SIZE <= base.length; offset += BLOCK_SIZE) {
+      blocks.putIfAbsent(hash(base, offset), offset);
+    }
+    return blocks;
+  }
+
+  private static int hash(byte[] data, int offset) {
+    int hash = 0;
+    for (int i = offset; i < offset + BLOCK_SIZE; i++) {
+      hash = hash * PRIME + data[i];
+    }
+    return hash;
+  }
+
+  //PRIME raised to BLOCK_SIZE - 1, the weight of the byte leaving the window
+  private static int power() {
+    int power = 1;
+    for (int i = 1; i < BLOCK_SIZE; i++) {
+      power *= PRIME;
+    }
+    return power;
+  }
+
+  private static boolean regionMatches(byte[] base, int baseOffset, byte[] target,
+                                       int targetOffset) {
+    return Arrays.equals(base, baseOffset, baseOffset + BLOCK_SIZE,
+        target, targetOffset, targetOffset + BLOCK_SIZE);
+  }
+
+  private static void writeInsert(ByteArrayOutputStream delta, byte[] target, int from, int to) {
+    if (to > from) {
+      delta.write(INSERT);
+      writeVarint(delta, to - from);
+      delta.write(target, from, to - from);
+    }
+  }
+
+  private static void writeVarint(ByteArrayOutputStream out, int value) {
+    int remaining = value;
+    while ((remaining & ~0x7F) != 0) {
+      out.write((remaining & 0x7F) | 0x80);
+      remaining >>>= 7;
+    }
+    out.write(remaining);
+  }
+
+  private static int readVarint(byte[] data, int[] cursor) {
+    int value = 0;
+    int shift = 0;
+    while (true) {
+      if (cursor[0] >= data.length || shift > 28) {
+        throw new IllegalArgumentException("The delta is malformed");
+      }
+      int b = data[cursor[0]++];
+      value |= (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+      shift += 7;
+    }
+  }
+}
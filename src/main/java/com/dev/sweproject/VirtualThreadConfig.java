@@ -0,0 +1,76 @@
+package com.dev.sweproject;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.support.TaskExecutorAdapter;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+/**
+ * Runs request handling on virtual threads when spring.threads.virtual.enabled is set, so
+ * that a request blocked reading its body, waiting on Firebase or writing a streamed
+ * download holds no platform thread. Tomcat's worker pool and the executor completing
+ * asynchronous requests are both replaced by an executor starting a virtual thread per
+ * task.
+ *
+ * <p>
+ * Virtual threads need Java 21, they are created through reflection so that the default
+ * build still targets Java 17. The jdk21 profile builds for Java 21 with the mode enabled,
+ * on an older JVM the platform thread pools are kept.
+ * </p>
+ */
+@Configuration
+@ConditionalOnProperty(value = "spring.threads.virtual.enabled", havingValue = "true")
+public class VirtualThreadConfig implements WebMvcConfigurer, DisposableBean {
+
+  private final ExecutorService executor = newVirtualThreadExecutor();
+
+  /**
+   * Replaces the executor of Tomcat's connector.
+   *
+   * @return A TomcatProtocolHandlerCustomizer running requests on virtual threads.
+   */
+  @Bean
+  public TomcatProtocolHandlerCustomizer<?> virtualThreadProtocolHandler() {
+    return protocolHandler -> {
+      if (executor != null) {
+        protocolHandler.setExecutor(executor);
+      }
+    };
+  }
+
+  /**
+   * Completes asynchronous requests, and writes streamed responses, on virtual threads.
+   *
+   * @param configurer The AsyncSupportConfigurer of Spring MVC.
+   */
+  @Override
+  public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+    if (executor != null) {
+      configurer.setTaskExecutor(new TaskExecutorAdapter(executor));
+    }
+  }
+
+  @Override
+  public void destroy() {
+    if (executor != null) {
+      executor.shutdown();
+    }
+  }
+
+  //null when the JVM has no virtual threads
+  static ExecutorService newVirtualThreadExecutor() {
+    try {
+      return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor")
+          .invoke(null);
+    } catch (ReflectiveOperationException e) {
+      System.out.println("Virtual threads need Java 21, keeping platform threads");
+      return null;
+    }
+  }
+}
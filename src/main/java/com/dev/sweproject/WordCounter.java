@@ -0,0 +1,188 @@
+package com.dev.sweproject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * The WordCounter class counts the words in UTF-8 text without decoding it. A word is a
+ * maximal run of characters other than the whitespace matched by the regular expression
+ * \s, that is space, tab, line feed, vertical tab, form feed and carriage return. These are
+ * all ASCII and the bytes of a multi-byte UTF-8 sequence are never ASCII, so the bytes can
+ * be classified one at a time, with the same result as splitting the decoded text.
+ *
+ * <p>
+ * The counter can be fed a stream a buffer at a time, a word split across two buffers is
+ * counted once. Texts of at least PARALLEL_THRESHOLD bytes held in memory are split into
+ * segments counted in parallel on the common fork-join pool. A segment counts the bytes
+ * that start a word, which it can tell by looking at the byte before it, so the counts of
+ * the segments add up to the count of the text whatever the segment edges cut through.
+ * </p>
+ *
+ * <p>
+ * When the JVM was started with --add-modules jdk.incubator.vector the bytes held in memory
+ * are classified a vector at a time by VectorWordCounter, otherwise one at a time.
+ * </p>
+ */
+public final class WordCounter {
+
+  /**
+   * The size in bytes from which a text is counted in parallel.
+   */
+  public static final int PARALLEL_THRESHOLD = 1 << 20;
+
+  //small enough to balance the pool, large enough that a task outweighs its scheduling
+  private static final int SEGMENT_SIZE = 1 << 18;
+
+  private static final boolean[] WHITESPACE = new boolean[256];
+
+  static {
+    for (char c : " \t\n\u000B\f\r".toCharArray()) {
+      WHITESPACE[c] = true;
+    }
+  }
+
+  /**
+   * Whether the Vector API is available, in which case texts in memory are counted with it.
+   */
+  public static final boolean VECTORIZED = vectorApiAvailable();
+
+  private int count;
+  private boolean inWord;
+
+  /**
+   * Counts the words in the next bytes of the text.
+   *
+   * @param bytes A byte[] holding the next bytes of the text.
+   * @param offset An int representing the index of the first byte to count.
+   * @param length An int representing the number of bytes to count.
+   */
+  public void update(byte[] bytes, int offset, int length) {
+    int words = count;
+    boolean word = inWord;
+    for (int i = offset; i < offset + length; i++) {
+      boolean whitespace = isWhitespace(bytes[i]);
+      if (!whitespace && !word) {
+        words++;
+      }
+      word = !whitespace;
+    }
+    count = words;
+    inWord = word;
+  }
+
+  /**
+   * Returns the number of words counted so far.
+   *
+   * @return An int representing the number of words.
+   */
+  public int getCount() {
+    return count;
+  }
+
+  /**
+   * Counts the words in a text.
+   *
+   * @param contents A byte[] holding the text encoded as UTF-8.
+   * @return An int representing the number of words.
+   */
+  public static int count(byte[] contents) {
+    if (contents.length >= PARALLEL_THRESHOLD) {
+      return countParallel(contents, SEGMENT_SIZE);
+    }
+    return countWordStarts(contents, 0, contents.length);
+  }
+
+  /**
+   * Counts the words in a text read from a stream, a buffer at a time.
+   *
+   * @param contents An InputStream of the text encoded as UTF-8.
+   * @return An int representing the number of words.
+   * @throws IOException If the stream can not be read.
+   */
+  public static int count(InputStream contents) throws IOException {
+    WordCounter counter = new WordCounter();
+    byte[] buffer = new byte[8192];
+    int read = contents.read(buffer);
+    while (read >= 0) {
+      counter.update(buffer, 0, read);
+      read = contents.read(buffer);
+    }
+    return counter.getCount();
+  }
+
+  //counts the text in segments of at most segmentSize bytes on the common pool
+  static int countParallel(byte[] contents, int segmentSize) {
+    return ForkJoinPool.commonPool().invoke(new CountTask(contents, 0, contents.length,
+        Math.max(1, segmentSize)));
+  }
+
+  //counts the bytes in [from, to) that start a word, those preceded by whitespace or by
+  //nothing, looking back past from so that ranges can be counted independently
+  static int countWordStarts(byte[] contents, int from, int to) {
+    if (VECTORIZED) {
+      return VectorWordCounter.countWordStarts(contents, from, to);
+    }
+    return countScalar(contents, from, to);
+  }
+
+  //the same count a byte at a time, also used for the tail shorter than a vector
+  static int countScalar(byte[] contents, int from, int to) {
+    int words = 0;
+    boolean previousWhitespace = from == 0 || isWhitespace(contents[from - 1]);
+    for (int i = from; i < to; i++) {
+      boolean whitespace = isWhitespace(contents[i]);
+      if (previousWhitespace && !whitespace) {
+        words++;
+      }
+      previousWhitespace = whitespace;
+    }
+    return words;
+  }
+
+  static boolean isWhitespace(byte b) {
+    return WHITESPACE[b & 0xFF];
+  }
+
+  //the incubator module is only resolved when asked for on the command line, and a JVM
+  //without it fails to link VectorWordCounter
+  private static boolean vectorApiAvailable() {
+    if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+      return false;
+    }
+    try {
+      VectorWordCounter.countWordStarts(new byte[0], 0, 0);
+      return true;
+    } catch (LinkageError e) {
+      System.out.println("The Vector API is unavailable, counting words a byte at a time");
+      return false;
+    }
+  }
+
+  private static final class CountTask extends RecursiveTask<Integer> {
+    private final byte[] contents;
+    private final int from;
+    private final int to;
+    private final int segmentSize;
+
+    private CountTask(byte[] contents, int from, int to, int segmentSize) {
+      this.contents = contents;
+      this.from = from;
+      this.to = to;
+      this.segmentSize = segmentSize;
+    }
+
+    @Override
+    protected Integer compute() {
+      if (to - from <= segmentSize) {
+        return countWordStarts(contents, from, to);
+      }
+      int middle = from + (to - from) / 2;
+      CountTask left = new CountTask(contents, from, middle, segmentSize);
+      left.fork();
+      int right = new CountTask(contents, middle, to, segmentSize).compute();
+      return left.join() + right;
+    }
+  }
+}
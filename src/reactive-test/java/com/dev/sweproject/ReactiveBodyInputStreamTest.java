@@ -0,0 +1,101 @@
+package com.dev.sweproject;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import reactor.core.publisher.Flux;
+
+/**
+ * Tests that a reactive request body is read whole and in order as a stream, one buffer
+ * requested at a time, and that a body failing or a stream closed fails the reads.
+ */
+class ReactiveBodyInputStreamTest {
+
+  /**
+   * Tests that the buffers are read in order, each requested once the last was read.
+   */
+  @Test
+  public void testReadsBuffersInOrder() throws IOException {
+    List<Long> requests = new ArrayList<>();
+    Flux<DataBuffer> body = Flux.just("alpha ", "", "beta ", "gamma")
+        .map(ReactiveBodyInputStreamTest::buffer)
+        .doOnRequest(requests::add);
+    try (ReactiveBodyInputStream stream = new ReactiveBodyInputStream(body)) {
+      assertEquals('a', stream.read());
+      assertArrayEquals("lpha beta gamma".getBytes(StandardCharsets.UTF_8),
+          stream.readAllBytes());
+      assertEquals(-1, stream.read());
+    }
+    for (long request : requests) {
+      assertEquals(1, request);
+    }
+  }
+
+  /**
+   * Tests that a body failing is read as an IOException caused by its error.
+   */
+  @Test
+  public void testBodyFailure() throws IOException {
+    Flux<DataBuffer> body = Flux.just(buffer("partial"))
+        .concatWith(Flux.error(new IllegalStateException("Simulated error")));
+    try (ReactiveBodyInputStream stream = new ReactiveBodyInputStream(body)) {
+      assertEquals(7, stream.readNBytes(7).length);
+      IOException error = assertThrows(IOException.class, stream::read);
+      assertEquals("Simulated error", error.getCause().getMessage());
+    }
+  }
+
+  /**
+   * Tests that closing the stream part way cancels the rest of the body, the reads after
+   * failing rather than ending the body early.
+   */
+  @Test
+  public void testCloseCancelsBody() throws IOException {
+    AtomicBoolean cancelled = new AtomicBoolean();
+    Flux<DataBuffer> body = Flux.range(0, 1000).map(i -> buffer("part " + i))
+        .doOnCancel(() -> cancelled.set(true));
+    ReactiveBodyInputStream stream = new ReactiveBodyInputStream(body);
+    assertEquals(10, stream.readNBytes(10).length);
+    stream.close();
+    assertTrue(cancelled.get());
+    assertThrows(IOException.class, stream::read);
+  }
+
+  /**
+   * Tests that closing the stream, as a cancelled upload does, fails a read waiting for
+   * the body on another thread.
+   */
+  @Test
+  public void testCloseFailsWaitingRead() throws Exception {
+    ReactiveBodyInputStream stream = new ReactiveBodyInputStream(Flux.never());
+    CompletableFuture<byte[]> read = CompletableFuture.supplyAsync(() -> {
+      try {
+        return stream.readAllBytes();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    });
+    stream.close();
+    ExecutionException error = assertThrows(ExecutionException.class,
+        () -> read.get(5, TimeUnit.SECONDS));
+    assertTrue(error.getCause() instanceof UncheckedIOException);
+  }
+
+  private static DataBuffer buffer(String text) {
+    return DefaultDataBufferFactory.sharedInstance.wrap(text.getBytes(StandardCharsets.UTF_8));
+  }
+}
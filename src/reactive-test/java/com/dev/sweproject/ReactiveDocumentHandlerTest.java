@@ -0,0 +1,232 @@
+package com.dev.sweproject;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.google.firebase.database.DataSnapshot;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.MultipartBodyBuilder;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.web.multipart.MultipartFile;
+
+/**
+ * Tests the document API on the reactive stack through its routes, with the service
+ * mocked: that downloads answer conditions and ranges as the servlet stack does, that the
+ * documents of a user are streamed as one JSON array and that uploads reach the service
+ * whole, through the same calls as on the servlet stack. Kept in src/reactive-test, only
+ * compiled with the reactive profile.
+ */
+class ReactiveDocumentHandlerTest {
+
+  private FirebaseService fbService;
+  private WebTestClient client;
+
+  @BeforeEach
+  void setup() {
+    //the handlers call the view bound to their deadline, the mock itself, so the stubs
+    //made on it answer them; the default answer outlives Mockito.reset
+    fbService = Mockito.mock(FirebaseService.class, invocation ->
+        invocation.getMethod().getName().equals("within") ? invocation.getMock()
+            : Mockito.RETURNS_DEFAULTS.answer(invocation));
+    client = WebTestClient.bindToRouterFunction(new ReactiveRoutes().documentRoutes(
+        new ReactiveDocumentHandler(fbService, 30000, 1024))).build();
+  }
+
+  /**
+   * Tests that a range of a document is streamed with 206 Partial Content, and that a
+   * matching If-None-Match is answered with 304 Not Modified without reading the contents.
+   */
+  @Test
+  void testDownloadDocRangeAndNotModified() {
+    DataSnapshot dataSnapshot = storedDocument();
+    Mockito.when(fbService.searchForDocument("networkId", "documentName"))
+        .thenReturn(CompletableFuture.completedFuture(dataSnapshot));
+    Mockito.when(fbService.openDocument("networkId", dataSnapshot, 4)).thenReturn(
+        CompletableFuture.completedFuture(new ByteArrayInputStream("efghij".getBytes())));
+
+    client.get().uri(download())
+        .header(HttpHeaders.RANGE, "bytes=4-7")
+        .header(HttpHeaders.IF_RANGE, "\"abc123\"")
+        .exchange()
+        .expectStatus().isEqualTo(HttpStatus.PARTIAL_CONTENT)
+        .expectHeader().valueEquals(HttpHeaders.CONTENT_RANGE, "bytes 4-7/10")
+        .expectHeader().contentLength(4)
+        .expectHeader().valueEquals(HttpHeaders.ETAG, "\"abc123\"")
+        .expectBody(String.class).isEqualTo("efgh");
+
+    client.get().uri(download())
+        .header(HttpHeaders.RANGE, "bytes=10-")
+        .exchange()
+        .expectStatus().isEqualTo(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
+        .expectHeader().valueEquals(HttpHeaders.CONTENT_RANGE, "bytes */10");
+
+    client.get().uri(download())
+        .header(HttpHeaders.IF_NONE_MATCH, "\"abc123\"")
+        .exchange()
+        .expectStatus().isNotModified()
+        .expectHeader().valueEquals(HttpHeaders.ETAG, "\"abc123\"");
+    Mockito.verify(fbService, Mockito.times(1)).openDocument(Mockito.any(), Mockito.any(),
+        Mockito.anyLong());
+  }
+
+  /**
+   * Tests that a user who is not an owner of the document is refused before any contents
+   * are read.
+   */
+  @Test
+  void testDownloadDocForbidden() {
+    DataSnapshot dataSnapshot = storedDocument();
+    Mockito.when(fbService.searchForDocument("networkId", "documentName"))
+        .thenReturn(CompletableFuture.completedFuture(dataSnapshot));
+
+    client.get().uri("/download-doc?network-id=networkId&document-name=documentName"
+            + "&your-user-id=otherUser")
+        .exchange()
+        .expectStatus().isForbidden()
+        .expectBody(String.class).isEqualTo("You do not have ownership of this document");
+    Mockito.verify(fbService, Mockito.never()).openDocument(Mockito.any(), Mockito.any(),
+        Mockito.anyLong());
+  }
+
+  /**
+   * Tests that the documents of a user are streamed in order as one JSON array.
+   */
+  @Test
+  void testRetrieveDocsStreamsArray() {
+    DataSnapshot first = Mockito.mock(DataSnapshot.class);
+    DataSnapshot second = Mockito.mock(DataSnapshot.class);
+    Mockito.when(fbService.collectEntries("networkId", "userId"))
+        .thenReturn(CompletableFuture.completedFuture(Arrays.asList(first, second)));
+    Mockito.when(fbService.assembleDocument("networkId", first))
+        .thenReturn(CompletableFuture.completedFuture(Map.of("title", "first")));
+    Mockito.when(fbService.assembleDocument("networkId", second))
+        .thenReturn(CompletableFuture.completedFuture(Map.of("title", "second")));
+
+    client.get().uri("/retrieve-docs?network-id=networkId&user-id=userId")
+        .exchange()
+        .expectStatus().isOk()
+        .expectHeader().contentType(MediaType.APPLICATION_JSON)
+        .expectBody().json("[{\"title\":\"first\"},{\"title\":\"second\"}]", true);
+
+    Mockito.when(fbService.collectEntries("networkId", "nobody"))
+        .thenReturn(CompletableFuture.completedFuture(Arrays.asList()));
+    client.get().uri("/retrieve-docs?network-id=networkId&user-id=nobody")
+        .exchange()
+        .expectStatus().isOk()
+        .expectBody(String.class).isEqualTo("[]");
+  }
+
+  /**
+   * Tests that a streamed upload reaches the service whole, with its content type.
+   */
+  @Test
+  void testUploadDocStream() throws Exception {
+    AtomicReference<String> received = new AtomicReference<>();
+    Mockito.when(fbService.uploadStream(Mockito.any(), Mockito.anyLong(),
+            Mockito.eq("text/plain"), Mockito.eq("networkId"), Mockito.eq("documentName"),
+            Mockito.eq("userId")))
+        .thenAnswer(invocation -> {
+          InputStream contents = invocation.getArgument(0);
+          received.set(new String(contents.readAllBytes(), StandardCharsets.UTF_8));
+          return CompletableFuture.completedFuture("Upload Success");
+        });
+
+    client.post().uri("/upload-doc-stream?network-id=networkId&document-name=documentName"
+            + "&user-id=userId")
+        .contentType(MediaType.TEXT_PLAIN)
+        .bodyValue("File Contents")
+        .exchange()
+        .expectStatus().isOk()
+        .expectBody(String.class).isEqualTo("File Uploaded Successfully!");
+    assertEquals("File Contents", received.get());
+
+    client.post().uri("/upload-doc-stream?network-id=networkId&document-name=documentName")
+        .contentType(MediaType.TEXT_PLAIN)
+        .bodyValue("File Contents")
+        .exchange()
+        .expectStatus().isBadRequest();
+  }
+
+  /**
+   * Tests that a multipart upload reaches the service as the servlet stack's MultipartFile
+   * does, and that a contents part above the maximum upload size is refused with 413.
+   */
+  @Test
+  void testUploadDoc() throws Exception {
+    AtomicReference<String> received = new AtomicReference<>();
+    Mockito.when(fbService.uploadFile(Mockito.any(), Mockito.eq("networkId"),
+            Mockito.eq("documentName"), Mockito.eq("userId")))
+        .thenAnswer(invocation -> {
+          MultipartFile contents = invocation.getArgument(0);
+          received.set(contents.getOriginalFilename() + ":"
+              + new String(contents.getBytes(), StandardCharsets.UTF_8));
+          return CompletableFuture.completedFuture("Upload Success");
+        });
+
+    MultipartBodyBuilder body = new MultipartBodyBuilder();
+    body.part("contents", new ByteArrayResource("File Contents".getBytes()) {
+      @Override
+      public String getFilename() {
+        return "file.txt";
+      }
+    });
+    client.post().uri("/upload-doc?network-id=networkId&document-name=documentName"
+            + "&user-id=userId")
+        .contentType(MediaType.MULTIPART_FORM_DATA)
+        .bodyValue(body.build())
+        .exchange()
+        .expectStatus().isOk()
+        .expectBody(String.class).isEqualTo("File Uploaded Successfully!");
+    assertEquals("file.txt:File Contents", received.get());
+    Mockito.verify(fbService, Mockito.never()).uploadStream(Mockito.any(), Mockito.anyLong(),
+        Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any());
+
+    MultipartBodyBuilder tooLarge = new MultipartBodyBuilder();
+    tooLarge.part("contents", new ByteArrayResource(new byte[2048]) {
+      @Override
+      public String getFilename() {
+        return "large.bin";
+      }
+    });
+    client.post().uri("/upload-doc?network-id=networkId&document-name=documentName"
+            + "&user-id=userId")
+        .contentType(MediaType.MULTIPART_FORM_DATA)
+        .bodyValue(tooLarge.build())
+        .exchange()
+        .expectStatus().isEqualTo(HttpStatus.PAYLOAD_TOO_LARGE);
+  }
+
+  private static String download() {
+    return "/download-doc?network-id=networkId&document-name=documentName"
+        + "&your-user-id=userId";
+  }
+
+  private static DataSnapshot storedDocument() {
+    DataSnapshot dataSnapshot = Mockito.mock(DataSnapshot.class);
+    Mockito.when(dataSnapshot.exists()).thenReturn(true);
+    Mockito.when(dataSnapshot.hasChild("size")).thenReturn(true);
+    HashMap<String, Object> documentData = new HashMap<>();
+    documentData.put("title", "documentName");
+    documentData.put("userId", "userId");
+    documentData.put("clientId", "networkId");
+    documentData.put("docId", "testDocId");
+    documentData.put("wordCount", 1L);
+    documentData.put("size", 10L);
+    documentData.put("contentHash", "abc123");
+    Mockito.when(dataSnapshot.getValue()).thenReturn(documentData);
+    return dataSnapshot;
+  }
+}
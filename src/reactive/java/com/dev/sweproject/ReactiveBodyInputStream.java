@@ -0,0 +1,163 @@
+package com.dev.sweproject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+
+/**
+ * The ReactiveBodyInputStream class reads the body of a reactive request as a stream, so
+ * that the upload handlers reading an InputStream serve the reactive routes as well. A
+ * buffer is only requested once the previous one has been read, so a reader slower than
+ * the client holds a single buffer while the rest of the body waits in the connection.
+ *
+ * <p>
+ * The stream is read on a thread that may block, the buffers arrive on the thread of the
+ * connection without ever waiting for the reader. Closing the stream, as a cancelled
+ * upload does from another thread, fails the reads rather than ending the body, so that a
+ * body cut short is never taken for a whole one.
+ * </p>
+ */
+final class ReactiveBodyInputStream extends InputStream implements Subscriber<DataBuffer> {
+
+  //queued after the last buffer
+  private static final Object END = new Object();
+  //queued on closing, to wake a reader waiting for a buffer
+  private static final Object CLOSED = new Object();
+
+  private final BlockingQueue<Object> signals = new LinkedBlockingQueue<>();
+  private volatile Subscription subscription;
+  private volatile boolean closed;
+  private DataBuffer current;
+  private boolean finished;
+
+  /**
+   * Creates a stream over a request body, subscribing to it at once.
+   *
+   * @param body A Publisher of the buffers of the body.
+   */
+  ReactiveBodyInputStream(Publisher<DataBuffer> body) {
+    body.subscribe(this);
+  }
+
+  @Override
+  public void onSubscribe(Subscription subscription) {
+    this.subscription = subscription;
+    if (closed) {
+      subscription.cancel();
+    } else {
+      subscription.request(1);
+    }
+  }
+
+  @Override
+  public void onNext(DataBuffer buffer) {
+    if (closed) {
+      DataBufferUtils.release(buffer);
+    } else {
+      signals.add(buffer);
+    }
+  }
+
+  @Override
+  public void onError(Throwable error) {
+    signals.add(error);
+  }
+
+  @Override
+  public void onComplete() {
+    signals.add(END);
+  }
+
+  @Override
+  public int read() throws IOException {
+    byte[] single = new byte[1];
+    return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+  }
+
+  @Override
+  public synchronized int read(byte[] buffer, int offset, int length) throws IOException {
+    if (length == 0) {
+      return 0;
+    }
+    if (!advance()) {
+      return -1;
+    }
+    int count = Math.min(length, current.readableByteCount());
+    current.read(buffer, offset, count);
+    return count;
+  }
+
+  @Override
+  public synchronized int available() {
+    return current == null ? 0 : current.readableByteCount();
+  }
+
+  /**
+   * Stops reading the body, the buffers not yet read are released. A read waiting on
+   * another thread, and any read after, fails with an IOException.
+   */
+  @Override
+  public void close() {
+    closed = true;
+    if (subscription != null) {
+      subscription.cancel();
+    }
+    //the reader is woken before its lock is waited for
+    signals.add(CLOSED);
+    synchronized (this) {
+      release();
+      for (Object signal = signals.poll(); signal != null; signal = signals.poll()) {
+        if (signal instanceof DataBuffer) {
+          DataBufferUtils.release((DataBuffer) signal);
+        }
+      }
+    }
+  }
+
+  //moves to the next buffer with bytes left, false at the end of the body
+  private boolean advance() throws IOException {
+    while (current == null || current.readableByteCount() == 0) {
+      release();
+      if (closed) {
+        throw new IOException("The request body was closed before it was read");
+      }
+      if (finished) {
+        return false;
+      }
+      Object signal;
+      try {
+        signal = signals.take();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while reading the request body");
+      }
+      if (signal == CLOSED) {
+        continue;
+      }
+      if (signal == END) {
+        finished = true;
+      } else if (signal instanceof Throwable) {
+        finished = true;
+        throw new IOException("The request body could not be read", (Throwable) signal);
+      } else {
+        current = (DataBuffer) signal;
+        subscription.request(1);
+      }
+    }
+    return true;
+  }
+
+  private void release() {
+    if (current != null) {
+      DataBufferUtils.release(current);
+      current = null;
+    }
+  }
+}
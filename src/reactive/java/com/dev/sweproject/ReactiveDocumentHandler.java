@@ -0,0 +1,812 @@
+package com.dev.sweproject;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.firebase.database.DataSnapshot;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferLimitException;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.multipart.FilePart;
+import org.springframework.http.codec.multipart.Part;
+import org.springframework.stereotype.Component;
+import org.springframework.web.multipart.MaxUploadSizeExceededException;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import org.springframework.web.server.ServerWebInputException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * The ReactiveDocumentHandler class serves the document API on the reactive stack, for a
+ * deployment started with spring.main.web-application-type=reactive. Requests are answered
+ * from the FirebaseService and DocumentDownload, like the handlers of SweProjectApplication,
+ * the CompletableFutures of the service being adapted to Monos, so both stacks answer alike
+ * without one going through the other. The contents of /download-doc and the documents of
+ * /retrieve-docs are streamed as a Flux of buffers instead of being built into one response.
+ *
+ * <p>
+ * Every response is given request.timeout-ms from the subscription made on the request's
+ * arrival, passing it cancels the service's futures. The service is bound to the same
+ * deadline, so the reads and writes the request started stop waiting on Firebase as well;
+ * a write answered with 504 may still be applied, its outcome is unknown. Request bodies
+ * streamed into the database are read through a ReactiveBodyInputStream on
+ * FirebaseService.UPLOAD_EXECUTOR, as on the servlet stack, so that no event loop thread
+ * waits on a client or on Firebase. Kept in src/reactive, only compiled with the reactive
+ * profile.
+ * </p>
+ */
+@Component
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveDocumentHandler {
+
+  private static final String USER_ID = "user-id";
+  private static final String SESSION_ID = "session-id";
+  private static final int BUFFER_SIZE = 8192;
+  //the results of Firebase arrive on its event thread, they are converted and serialized here
+  private static final Scheduler COMPUTE = Schedulers.fromExecutor(
+      FirebaseService.COMPUTE_EXECUTOR);
+
+  private final FirebaseService firebaseDataService;
+  private final Duration requestTimeout;
+  private final int maxUploadBytes;
+  private final DataBufferFactory bufferFactory = DefaultDataBufferFactory.sharedInstance;
+  private final ObjectMapper objectMapper = new ObjectMapper();
+
+  /**
+   * Creates the handler in front of the service.
+   *
+   * @param firebaseDataService The FirebaseService the requests are answered from.
+   * @param requestTimeoutMillis How long a response may wait on the database, in
+   *                             milliseconds from the request's arrival.
+   * @param maxUploadBytes The size in bytes above which a multipart upload is refused.
+   */
+  public ReactiveDocumentHandler(FirebaseService firebaseDataService,
+                                 @Value("${request.timeout-ms:30000}") long requestTimeoutMillis,
+                                 @Value("${upload.max-bytes:268435456}") long maxUploadBytes) {
+    this.firebaseDataService = firebaseDataService;
+    this.requestTimeout = Duration.ofMillis(requestTimeoutMillis);
+    this.maxUploadBytes = (int) Math.min(Integer.MAX_VALUE - 8, maxUploadBytes);
+  }
+
+  /**
+   * Registers the client, as /register-client does.
+   *
+   * @param request The ServerRequest.
+   * @return A Mono of the JSON response holding the new network Id.
+   */
+  public Mono<ServerResponse> registerClient(ServerRequest request) {
+    return Mono.fromSupplier(firebaseDataService::generateNetworkId)
+        .flatMap(checked(networkId -> {
+          //the collection is created as the client is answered, as on the servlet stack
+          firebaseDataService.createCollection(networkId);
+          return json(ServerResponse.ok(), new RegisterClientResponse(networkId));
+        }))
+        .onErrorResume(this::unexpectedFailure);
+  }
+
+  /**
+   * Uploads the contents part of a multipart request, as /upload-doc does. The part is
+   * gathered up to upload.max-bytes and uploaded like the servlet stack's MultipartFile.
+   *
+   * @param request The ServerRequest.
+   * @return A Mono of the response indicating whether the file was uploaded.
+   */
+  public Mono<ServerResponse> uploadDoc(ServerRequest request) {
+    FirebaseService service = firebaseDataService.within(requestTimeout.toMillis());
+    String networkId = param(request, SweProjectApplication.NETWORK_ID);
+    String documentName = param(request, SweProjectApplication.DOCUMENT_NAME);
+    String userId = param(request, USER_ID);
+    return answer(request.multipartData().flatMap(parts -> {
+      Part contents = parts.getFirst("contents");
+      if (!(contents instanceof FilePart)) {
+        return Mono.error(new ServerWebInputException("Required part 'contents' is not "
+            + "present."));
+      }
+      MediaType contentType = contents.headers().getContentType();
+      return DataBufferUtils.join(contents.content(), maxUploadBytes)
+          .map(buffer -> {
+            byte[] bytes = new byte[buffer.readableByteCount()];
+            buffer.read(bytes);
+            DataBufferUtils.release(buffer);
+            return new ByteArrayMultipart(bytes, "contents", ((FilePart) contents).filename(),
+                contentType == null ? null : contentType.toString());
+          })
+          .flatMap(file -> ingest(() -> service.uploadFile(file, networkId,
+              documentName, userId)))
+          .flatMap(this::uploadResponse);
+    }), this::uploadFailure);
+  }
+
+  /**
+   * Uploads the request body as a document, as /upload-doc-stream does.
+   *
+   * @param request The ServerRequest.
+   * @return A Mono of the response indicating whether the file was uploaded.
+   */
+  public Mono<ServerResponse> uploadDocStream(ServerRequest request) {
+    FirebaseService service = firebaseDataService.within(requestTimeout.toMillis());
+    String networkId = param(request, SweProjectApplication.NETWORK_ID);
+    String documentName = param(request, SweProjectApplication.DOCUMENT_NAME);
+    String userId = param(request, USER_ID);
+    HttpHeaders requestHeaders = request.headers().asHttpHeaders();
+    MediaType contentType = requestHeaders.getContentType();
+    //the body is released once the upload has finished or been cancelled
+    return answer(Mono.using(() -> new ReactiveBodyInputStream(
+                request.bodyToFlux(DataBuffer.class)),
+            stream -> ingest(() -> service.uploadStream(stream,
+                requestHeaders.getContentLength(),
+                contentType == null ? null : contentType.toString(), networkId,
+                documentName, userId)),
+            ReactiveBodyInputStream::close)
+        .flatMap(this::uploadResponse), this::uploadFailure);
+  }
+
+  /**
+   * Starts a resumable upload, as POST /upload-session does.
+   *
+   * @param request The ServerRequest.
+   * @return A Mono of the JSON response holding the sessionId.
+   */
+  public Mono<ServerResponse> createUploadSession(ServerRequest request) {
+    FirebaseService service = firebaseDataService.within(requestTimeout.toMillis());
+    String networkId = param(request, SweProjectApplication.NETWORK_ID);
+    String documentName = param(request, SweProjectApplication.DOCUMENT_NAME);
+    String userId = param(request, USER_ID);
+    String contentType = request.queryParam("content-type").orElse(null);
+    return answer(call(() -> service.createUploadSession(networkId,
+            documentName, userId, contentType))
+        .flatMap(checked(sessionId -> json(ServerResponse.ok(),
+            Map.of("sessionId", sessionId)))), this::unexpectedFailure);
+  }
+
+  /**
+   * Uploads a part of a resumable upload, as /upload-session/part does. Parts are at most
+   * FirebaseService.MAX_PART_BYTES, so the part is gathered as it arrives rather than read
+   * as a stream.
+   *
+   * @param request The ServerRequest.
+   * @return A Mono of the response indicating whether the part was stored.
+   */
+  public Mono<ServerResponse> uploadPart(ServerRequest request) {
+    FirebaseService service = firebaseDataService.within(requestTimeout.toMillis());
+    String networkId = param(request, SweProjectApplication.NETWORK_ID);
+    String sessionId = param(request, SESSION_ID);
+    int partNumber = intParam(request, "part-number", null);
+    String partHash = param(request, "part-hash");
+    return answer(DataBufferUtils.join(request.bodyToFlux(DataBuffer.class),
+            FirebaseService.MAX_PART_BYTES)
+        .map(buffer -> {
+          byte[] part = new byte[buffer.readableByteCount()];
+          buffer.read(part);
+          DataBufferUtils.release(buffer);
+          return part;
+        })
+        .defaultIfEmpty(new byte[0])
+        //the part is hashed before it is stored
+        .publishOn(COMPUTE)
+        .flatMap(part -> call(() -> service.uploadPart(networkId, sessionId,
+            partNumber, part, partHash)))
+        .flatMap(stored -> stored
+            ? message("Part " + partNumber + " stored", HttpStatus.OK)
+            : message(SweProjectApplication.NO_UPLOAD_SESSION, HttpStatus.NOT_FOUND)),
+        error -> {
+          Throwable cause = SweProjectApplication.cause(error);
+          if (cause instanceof DataBufferLimitException) {
+            return message("Parts are at most " + FirebaseService.MAX_PART_BYTES + " bytes",
+                HttpStatus.PAYLOAD_TOO_LARGE);
+          }
+          if (cause instanceof IllegalArgumentException) {
+            return message(cause.getMessage(), HttpStatus.BAD_REQUEST);
+          }
+          System.out.println(cause.getMessage());
+          return message("Part didn't upload", HttpStatus.INTERNAL_SERVER_ERROR);
+        });
+  }
+
+  /**
+   * Returns a resumable upload session, as GET /upload-session does.
+   *
+   * @param request The ServerRequest.
+   * @return A Mono of the JSON response holding the session.
+   */
+  public Mono<ServerResponse> getUploadSession(ServerRequest request) {
+    FirebaseService service = firebaseDataService.within(requestTimeout.toMillis());
+    String networkId = param(request, SweProjectApplication.NETWORK_ID);
+    String sessionId = param(request, SESSION_ID);
+    return answer(call(() -> service.getUploadSession(networkId, sessionId))
+        .publishOn(COMPUTE)
+        .flatMap(checked(session -> json(ServerResponse.ok(), session)))
+        .switchIfEmpty(Mono.defer(() -> message(SweProjectApplication.NO_UPLOAD_SESSION,
+            HttpStatus.NOT_FOUND))), this::unexpectedFailure);
+  }
+
+  /**
+   * Finishes a resumable upload, as /upload-session/commit does.
+   *
+   * @param request The ServerRequest.
+   * @return A Mono of the response indicating whether the file was uploaded.
+   */
+  public Mono<ServerResponse> commitUploadSession(ServerRequest request) {
+    FirebaseService service = firebaseDataService.within(requestTimeout.toMillis());
+    String networkId = param(request, SweProjectApplication.NETWORK_ID);
+    String sessionId = param(request, SESSION_ID);
+    int partCount = intParam(request, "part-count", null);
+    //the service streams the parts on its own bounded threads
+    return answer(call(() -> service.commitUploadSession(networkId, sessionId,
+            partCount))
+        .flatMap(this::uploadResponse)
+        .switchIfEmpty(Mono.defer(() -> message(SweProjectApplication.NO_UPLOAD_SESSION,
+            HttpStatus.NOT_FOUND))),
+        error -> SweProjectApplication.cause(error) instanceof IllegalStateException
+            ? message(SweProjectApplication.cause(error).getMessage(), HttpStatus.CONFLICT)
+            : uploadFailure(error));
+  }
+
+  /**
+   * Aborts a resumable upload, as DELETE /upload-session does.
+   *
+   * @param request The ServerRequest.
+   * @return A Mono of the response indicating whether the session was removed.
+   */
+  public Mono<ServerResponse> abortUploadSession(ServerRequest request) {
+    FirebaseService service = firebaseDataService.within(requestTimeout.toMillis());
+    String networkId = param(request, SweProjectApplication.NETWORK_ID);
+    String sessionId = param(request, SESSION_ID);
+    return answer(call(() -> service.abortUploadSession(networkId, sessionId))
+        .flatMap(aborted -> aborted
+            ? message("Upload session aborted", HttpStatus.OK)
+            : message(SweProjectApplication.NO_UPLOAD_SESSION, HttpStatus.NOT_FOUND)),
+        this::unexpectedFailure);
+  }
+
+  /**
+   * Shares a document with another user, as /share-document does.
+   *
+   * @param request The ServerRequest.
+   * @return A Mono of the response describing whether the document was shared.
+   */
+  public Mono<ServerResponse> shareDocument(ServerRequest request) {
+    FirebaseService service = firebaseDataService.within(requestTimeout.toMillis());
+    String networkId = param(request, SweProjectApplication.NETWORK_ID);
+    String documentName = param(request, SweProjectApplication.DOCUMENT_NAME);
+    String yourUserId = param(request, SweProjectApplication.YOUR_USER_ID);
+    String theirUserId = param(request, "their-user-id");
+    return answer(call(() -> service.searchForDocument(networkId,
+            documentName))
+        .publishOn(COMPUTE)
+        .flatMap(checked(dataSnapshot -> {
+          if (!dataSnapshot.exists()) {
+            return message("Service executed", HttpStatus.OK);
+          }
+          Document myDocument = Document.convertToDocument(
+              (HashMap<String, Object>) dataSnapshot.getValue());
+          if (!FirebaseService.hasUser(myDocument.getUserId(), yourUserId)) {
+            return message("User does not have access to this document!",
+                HttpStatus.FORBIDDEN);
+          } else if (FirebaseService.hasUser(myDocument.getUserId(), theirUserId)) {
+            return message("This document has already been shared with the desired user",
+                HttpStatus.OK);
+          }
+          return call(() -> service.shareDocument(networkId, myDocument,
+                  theirUserId))
+              .then(message("The document has been shared with the desired user",
+                  HttpStatus.OK));
+        })), this::documentFailure);
+  }
+
+  /**
+   * Deletes a document, as /delete-doc does.
+   *
+   * @param request The ServerRequest.
+   * @return A Mono of the response verifying whether the document was deleted.
+   */
+  public Mono<ServerResponse> deleteDoc(ServerRequest request) {
+    FirebaseService service = firebaseDataService.within(requestTimeout.toMillis());
+    String networkId = param(request, SweProjectApplication.NETWORK_ID);
+    String documentName = param(request, SweProjectApplication.DOCUMENT_NAME);
+    String yourUserId = param(request, SweProjectApplication.YOUR_USER_ID);
+    return answer(call(() -> service.searchForDocument(networkId,
+            documentName))
+        .publishOn(COMPUTE)
+        .flatMap(checked(dataSnapshot -> {
+          if (!dataSnapshot.exists()) {
+            return message("Service executed", HttpStatus.OK);
+          }
+          Document myDocument = Document.convertToDocument(
+              (HashMap<String, Object>) dataSnapshot.getValue());
+          if (!FirebaseService.hasUser(myDocument.getUserId(), yourUserId)) {
+            return message("Your user does not have ownership of this document",
+                HttpStatus.FORBIDDEN);
+          }
+          return call(() -> service.deleteDocument(networkId, myDocument))
+              .then(message("Your document was successfully deleted", HttpStatus.OK));
+        })), this::documentFailure);
+  }
+
+  /**
+   * Returns a document, as /check-for-doc does, an If-None-Match matching the document's
+   * ETag being answered with 304 Not Modified.
+   *
+   * @param request The ServerRequest.
+   * @return A Mono of the JSON response holding the document.
+   */
+  public Mono<ServerResponse> checkForDoc(ServerRequest request) {
+    FirebaseService service = firebaseDataService.within(requestTimeout.toMillis());
+    String networkId = param(request, SweProjectApplication.NETWORK_ID);
+    String documentName = param(request, SweProjectApplication.DOCUMENT_NAME);
+    String yourUserId = param(request, SweProjectApplication.YOUR_USER_ID);
+    HttpHeaders requestHeaders = request.headers().asHttpHeaders();
+    return answer(call(() -> service.searchForDocument(networkId,
+            documentName))
+        .publishOn(COMPUTE)
+        .flatMap(checked(dataSnapshot -> {
+          if (!dataSnapshot.exists()) {
+            return json(ServerResponse.ok(), null);
+          }
+          Document myDocument = Document.convertToDocument(
+              (HashMap<String, Object>) dataSnapshot.getValue());
+          if (!FirebaseService.hasUser(myDocument.getUserId(), yourUserId)) {
+            return message("Your user does not have ownership of this document",
+                HttpStatus.FORBIDDEN);
+          }
+          String entityTag = SweProjectApplication.metadataTag(
+              (Map<String, Object>) dataSnapshot.getValue());
+          if (SweProjectApplication.isNotModified(requestHeaders, entityTag)) {
+            return ServerResponse.status(HttpStatus.NOT_MODIFIED)
+                .headers(headers -> headers.setETag(entityTag)).build();
+          }
+          return call(() -> service.assembleDocument(networkId, dataSnapshot))
+              .publishOn(COMPUTE)
+              .flatMap(checked(document -> json(ServerResponse.ok().headers(headers -> {
+                if (entityTag != null) {
+                  headers.setETag(entityTag);
+                }
+              }), document)));
+        })), error -> message(SweProjectApplication.NO_DOCUMENT, HttpStatus.NOT_FOUND));
+  }
+
+  /**
+   * Returns a previous version of a document, as /see-previous-version does.
+   *
+   * @param request The ServerRequest.
+   * @return A Mono of the JSON response holding the version.
+   */
+  public Mono<ServerResponse> seePreviousVersion(ServerRequest request) {
+    FirebaseService service = firebaseDataService.within(requestTimeout.toMillis());
+    String networkId = param(request, SweProjectApplication.NETWORK_ID);
+    String documentName = param(request, SweProjectApplication.DOCUMENT_NAME);
+    String yourUserId = param(request, SweProjectApplication.YOUR_USER_ID);
+    int revisionNumber = intParam(request, "revision-number", null);
+    return answer(call(() -> service.searchForDocument(networkId,
+            documentName))
+        .publishOn(COMPUTE)
+        .flatMap(checked(dataSnapshot -> {
+          if (!dataSnapshot.exists()) {
+            return json(ServerResponse.ok(), null);
+          }
+          Document myDocument = Document.convertToDocument(
+              (HashMap<String, Object>) dataSnapshot.getValue());
+          if (!FirebaseService.hasUser(myDocument.getUserId(), yourUserId)) {
+            return message("Your user does not have access to this document",
+                HttpStatus.FORBIDDEN);
+          }
+          if (revisionNumber <= 0 || revisionNumber > myDocument.getVersionCount()) {
+            return message("This is not a valid revision number", HttpStatus.BAD_REQUEST);
+          }
+          return call(() -> service.getVersion(networkId, dataSnapshot,
+                  revisionNumber))
+              .publishOn(COMPUTE)
+              .flatMap(checked(version -> json(ServerResponse.ok(), version)));
+        })), error -> message(SweProjectApplication.NO_DOCUMENT, HttpStatus.NOT_FOUND));
+  }
+
+  /**
+   * Returns a page of a document's previous versions, as /list-versions does.
+   *
+   * @param request The ServerRequest.
+   * @return A Mono of the JSON response holding the page.
+   */
+  public Mono<ServerResponse> listVersions(ServerRequest request) {
+    FirebaseService service = firebaseDataService.within(requestTimeout.toMillis());
+    String networkId = param(request, SweProjectApplication.NETWORK_ID);
+    String documentName = param(request, SweProjectApplication.DOCUMENT_NAME);
+    String yourUserId = param(request, SweProjectApplication.YOUR_USER_ID);
+    int cursor = intParam(request, "cursor", "0");
+    int pageSize = intParam(request, "page-size", "20");
+    if (cursor < 0 || pageSize <= 0 || pageSize > SweProjectApplication.MAX_PAGE_SIZE) {
+      return message("The cursor or page size is not valid", HttpStatus.BAD_REQUEST);
+    }
+    return answer(call(() -> service.searchForDocument(networkId,
+            documentName))
+        .publishOn(COMPUTE)
+        .flatMap(checked(dataSnapshot -> {
+          if (!dataSnapshot.exists()) {
+            return json(ServerResponse.ok(), null);
+          }
+          Document myDocument = Document.convertToDocument(
+              (HashMap<String, Object>) dataSnapshot.getValue());
+          if (!FirebaseService.hasUser(myDocument.getUserId(), yourUserId)) {
+            return message("Your user does not have access to this document",
+                HttpStatus.FORBIDDEN);
+          }
+          return call(() -> service.listVersions(networkId, dataSnapshot,
+                  cursor, pageSize))
+              .publishOn(COMPUTE)
+              .flatMap(checked(page -> json(ServerResponse.ok(), page)));
+        })), error -> message(SweProjectApplication.NO_DOCUMENT, HttpStatus.NOT_FOUND));
+  }
+
+  /**
+   * Returns the statistics of a document, as /see-document-stats does.
+   *
+   * @param request The ServerRequest.
+   * @return A Mono of the JSON response holding the statistics.
+   */
+  public Mono<ServerResponse> seeDocumentStats(ServerRequest request) {
+    FirebaseService service = firebaseDataService.within(requestTimeout.toMillis());
+    String networkId = param(request, SweProjectApplication.NETWORK_ID);
+    String documentName = param(request, SweProjectApplication.DOCUMENT_NAME);
+    String yourUserId = param(request, SweProjectApplication.YOUR_USER_ID);
+    return answer(call(() -> service.searchForDocument(networkId,
+            documentName))
+        .publishOn(COMPUTE)
+        .flatMap(checked(dataSnapshot -> {
+          if (!dataSnapshot.exists()) {
+            return json(ServerResponse.ok(), null);
+          }
+          Document myDocument = Document.convertToDocument(
+              (HashMap<String, Object>) dataSnapshot.getValue());
+          if (!FirebaseService.hasUser(myDocument.getUserId(), yourUserId)) {
+            return json(ServerResponse.status(HttpStatus.FORBIDDEN),
+                "Your user does not have access to this document");
+          }
+          return json(ServerResponse.ok(), myDocument.generateUsageStatistics());
+        })), checked(error -> SweProjectApplication.cause(error) instanceof IOException
+            ? message(SweProjectApplication.ERROR_MSG, HttpStatus.INTERNAL_SERVER_ERROR)
+            : json(ServerResponse.status(HttpStatus.NOT_FOUND),
+                SweProjectApplication.NO_DOCUMENT)));
+  }
+
+  /**
+   * Compares two documents, as /generate-difference-summary does. Both documents are
+   * searched for at once.
+   *
+   * @param request The ServerRequest.
+   * @return A Mono of the JSON response holding the comparison.
+   */
+  public Mono<ServerResponse> generateDiffSummary(ServerRequest request) {
+    FirebaseService service = firebaseDataService.within(requestTimeout.toMillis());
+    String networkId = param(request, SweProjectApplication.NETWORK_ID);
+    String fstDocName = param(request, "fst-doc-name");
+    String sndDocName = param(request, "snd-doc-name");
+    String yourUserId = param(request, SweProjectApplication.YOUR_USER_ID);
+    return answer(call(() -> service.searchForDocument(networkId, fstDocName))
+        .zipWith(call(() -> service.searchForDocument(networkId, sndDocName)))
+        .publishOn(COMPUTE)
+        .flatMap(checked(snapshots -> {
+          DataSnapshot firstSnapshot = snapshots.getT1();
+          DataSnapshot secondSnapshot = snapshots.getT2();
+          if (!firstSnapshot.exists() || !secondSnapshot.exists()) {
+            return json(ServerResponse.ok(), null);
+          }
+          Document fstDocument = Document.convertToDocument(
+              (HashMap<String, Object>) firstSnapshot.getValue());
+          Document sndDocument = Document.convertToDocument(
+              (HashMap<String, Object>) secondSnapshot.getValue());
+          if (!FirebaseService.hasUser(fstDocument.getUserId(), yourUserId)
+              || !FirebaseService.hasUser(sndDocument.getUserId(), yourUserId)) {
+            return json(ServerResponse.status(HttpStatus.FORBIDDEN),
+                "Your user does not have access to one of the documents");
+          }
+          return json(ServerResponse.ok(), fstDocument.compareTo(sndDocument));
+        })), checked(error -> SweProjectApplication.cause(error) instanceof IOException
+            ? message(SweProjectApplication.ERROR_MSG, HttpStatus.INTERNAL_SERVER_ERROR)
+            : json(ServerResponse.status(HttpStatus.NOT_FOUND),
+                "One or more of the documents does not exist")));
+  }
+
+  /**
+   * Downloads a document, as /download-doc does, with the same conditions and ranges. The
+   * contents are streamed as they are read, a few chunks ahead, and a file string sent as
+   * the JSON body is decoded a block at a time as it is written.
+   *
+   * @param request The ServerRequest.
+   * @return A Mono of the response streaming the contents.
+   */
+  public Mono<ServerResponse> downloadDoc(ServerRequest request) {
+    String networkId = param(request, SweProjectApplication.NETWORK_ID);
+    String documentName = param(request, SweProjectApplication.DOCUMENT_NAME);
+    String yourUserId = param(request, SweProjectApplication.YOUR_USER_ID);
+    HttpHeaders requestHeaders = request.headers().asHttpHeaders();
+    //Caller provided a JSON body
+    return request.bodyToMono(String.class)
+        .flatMap(this::downloadFileString)
+        .switchIfEmpty(Mono.defer(() -> downloadDocument(networkId, documentName, yourUserId,
+            requestHeaders)));
+  }
+
+  private Mono<ServerResponse> downloadFileString(String jsonObject) {
+    JsonNode myNode;
+    try {
+      myNode = objectMapper.readTree(jsonObject);
+    } catch (JsonProcessingException e) {
+      return message("The request body is malformed", HttpStatus.BAD_REQUEST);
+    }
+    JsonNode fileString = myNode.get("fileString");
+    JsonNode fileName = myNode.get("title");
+    if (fileString == null || fileName == null
+        || !SweProjectApplication.isFileString(fileString.asText())) {
+      return message("The request body is malformed", HttpStatus.BAD_REQUEST);
+    }
+    String encoded = fileString.asText();
+    Base64.Decoder decoder = Base64.getDecoder();
+    int blocks = (encoded.length() - 1 + SweProjectApplication.DECODE_BLOCK - 1)
+        / SweProjectApplication.DECODE_BLOCK;
+    Flux<DataBuffer> contents = Flux.range(0, blocks).map(block -> {
+      int start = 1 + block * SweProjectApplication.DECODE_BLOCK;
+      int end = Math.min(encoded.length(), start + SweProjectApplication.DECODE_BLOCK);
+      return bufferFactory.wrap(decoder.decode(encoded.substring(start, end)));
+    });
+    return ServerResponse.ok()
+        .headers(headers -> headers.setContentDispositionFormData("attachment",
+            fileName.asText()))
+        .contentType(MediaType.APPLICATION_OCTET_STREAM)
+        .contentLength(Document.decodedLength(encoded))
+        .body(contents, DataBuffer.class);
+  }
+
+  private Mono<ServerResponse> downloadDocument(String networkId, String documentName,
+                                                String yourUserId,
+                                                HttpHeaders requestHeaders) {
+    FirebaseService service = firebaseDataService.within(requestTimeout.toMillis());
+    return answer(call(() -> service.searchForDocument(networkId,
+            documentName))
+        .publishOn(COMPUTE)
+        .flatMap(checked(dataSnapshot -> {
+          //conditions and ranges are resolved from the metadata before any contents are read
+          DocumentDownload download = DocumentDownload.resolve(dataSnapshot, documentName,
+              yourUserId, requestHeaders);
+          if (download.getMessage() != null) {
+            return message(download.getMessage(), download.getStatus());
+          }
+          if (!download.hasContents()) {
+            return ServerResponse.status(download.getStatus())
+                .headers(headers -> headers.addAll(download.getHeaders())).build();
+          }
+          return openDocument(service, networkId, dataSnapshot, download);
+        })), this::documentFailure);
+  }
+
+  //the stream waits on the chunks it reads ahead, so it is read off the event loop
+  private Mono<ServerResponse> openDocument(FirebaseService service, String networkId,
+                                            DataSnapshot dataSnapshot,
+                                            DocumentDownload download) {
+    return call(() -> service.openDocument(networkId, dataSnapshot,
+            download.getOffset()))
+        .flatMap(stream -> {
+          Flux<DataBuffer> contents = DataBufferUtils.readInputStream(() -> stream,
+              bufferFactory, BUFFER_SIZE).subscribeOn(Schedulers.boundedElastic());
+          if (download.getLength() >= 0) {
+            contents = DataBufferUtils.takeUntilByteCount(contents, download.getLength());
+          }
+          return ServerResponse.status(download.getStatus())
+              .headers(headers -> headers.addAll(download.getHeaders()))
+              .body(contents, DataBuffer.class);
+        });
+  }
+
+  /**
+   * Retrieves the documents of a user, as /retrieve-docs does. The JSON array is streamed
+   * a document at a time, in order, with a few documents assembled ahead of the one being
+   * written, rather than built whole. A document failing once the array has started ends
+   * the response early, as its status has already been sent.
+   *
+   * @param request The ServerRequest.
+   * @return A Mono of the response streaming the documents.
+   */
+  public Mono<ServerResponse> retrieveDocs(ServerRequest request) {
+    FirebaseService service = firebaseDataService.within(requestTimeout.toMillis());
+    String networkId = param(request, SweProjectApplication.NETWORK_ID);
+    String userId = param(request, USER_ID);
+    return answer(call(() -> service.collectEntries(networkId, userId))
+        .flatMap(result -> {
+          AtomicBoolean first = new AtomicBoolean(true);
+          Flux<DataBuffer> documents = Flux.fromIterable((List<DataSnapshot>) result)
+              .flatMapSequential(dataSnapshot -> call(() ->
+                  service.assembleDocument(networkId, dataSnapshot)),
+                  FirebaseService.READ_AHEAD_CHUNKS)
+              .publishOn(COMPUTE)
+              .map(document -> element(first.getAndSet(false) ? "[" : ",", document))
+              .concatWith(Mono.fromSupplier(() -> text(first.get() ? "[]" : "]")));
+          return ServerResponse.ok().contentType(MediaType.APPLICATION_JSON)
+              .body(documents, DataBuffer.class);
+        }), error -> message(SweProjectApplication.ERROR_MSG,
+            HttpStatus.INTERNAL_SERVER_ERROR));
+  }
+
+  /**
+   * Retrieves the titles of a user's documents, as /retrieve-doc-names does.
+   *
+   * @param request The ServerRequest.
+   * @return A Mono of the JSON response holding the titles.
+   */
+  public Mono<ServerResponse> retrieveDocument(ServerRequest request) {
+    FirebaseService service = firebaseDataService.within(requestTimeout.toMillis());
+    String networkId = param(request, SweProjectApplication.NETWORK_ID);
+    String userId = param(request, USER_ID);
+    return answer(call(() -> service.getDocumentTitles(networkId, userId))
+        .flatMap(checked(documentTitles -> json(ServerResponse.ok(), documentTitles))),
+        error -> message(SweProjectApplication.ERROR_MSG, HttpStatus.INTERNAL_SERVER_ERROR));
+  }
+
+  /**
+   * Reports the statistics of the document cache, as /cache-stats does.
+   *
+   * @param request The ServerRequest.
+   * @return A Mono of the JSON response holding the statistics.
+   */
+  public Mono<ServerResponse> cacheStats(ServerRequest request) {
+    return Mono.fromSupplier(firebaseDataService::getCacheStatistics)
+        .flatMap(checked(statistics -> json(ServerResponse.ok(), statistics)))
+        .onErrorResume(this::unexpectedFailure);
+  }
+
+  //a stage of a handler, which may throw like the servlet stack's stages
+  @FunctionalInterface
+  private interface Stage<T> {
+    Mono<ServerResponse> apply(T value) throws Exception;
+  }
+
+  //adapts a stage that may throw for flatMap, failing the Mono it returns instead
+  private static <T> Function<T, Mono<ServerResponse>> checked(Stage<T> stage) {
+    return value -> {
+      try {
+        return stage.apply(value);
+      } catch (Exception e) {
+        return Mono.error(e);
+      }
+    };
+  }
+
+  //a call of the service started on subscription, a call throwing fails the Mono; a null
+  //result completes it empty, and cancelling it cancels the service's future, while the
+  //reads and writes it started stop at the deadline the service was bound to
+  private static <T> Mono<T> call(Callable<CompletableFuture<T>> call) {
+    return Mono.fromFuture(() -> {
+      try {
+        return call.call();
+      } catch (Exception e) {
+        return CompletableFuture.failedFuture(e);
+      }
+    });
+  }
+
+  //a call of the service reading an upload, which blocks, run on the bounded threads the
+  //servlet stack reads uploads on; an upload beyond them is refused like on that stack
+  private static <T> Mono<T> ingest(Callable<CompletableFuture<T>> upload) {
+    return call(() -> CompletableFuture.supplyAsync(() -> {
+      try {
+        return upload.call();
+      } catch (Exception e) {
+        return CompletableFuture.<T>failedFuture(e);
+      }
+    }, FirebaseService.UPLOAD_EXECUTOR).thenCompose(Function.identity()));
+  }
+
+  //bounds a response by the request's deadline, counted from the subscription made on its
+  //arrival, and answers a deadline passed or an unreachable database before the handler's
+  //own failures, which would report it as a missing document or an unexpected error
+  private Mono<ServerResponse> answer(Mono<ServerResponse> response,
+                                      Function<Throwable, Mono<ServerResponse>> failure) {
+    return response.timeout(requestTimeout).onErrorResume(error -> {
+      HttpStatus status = SweProjectApplication.databaseStatus(error);
+      return status == null ? failure.apply(error)
+          : message(SweProjectApplication.databaseMessage(status), status);
+    });
+  }
+
+  private Mono<ServerResponse> uploadResponse(Object uploadResult) {
+    if (FirebaseService.DUPLICATE_UPLOAD.equals(uploadResult)) {
+      return message("File already exists!", HttpStatus.OK);
+    }
+    return message("File Uploaded Successfully!", HttpStatus.OK);
+  }
+
+  private Mono<ServerResponse> uploadFailure(Throwable error) {
+    Throwable cause = SweProjectApplication.cause(error);
+    if (cause instanceof DataBufferLimitException) {
+      return message("File exceeds the maximum upload size of " + maxUploadBytes + " bytes",
+          HttpStatus.PAYLOAD_TOO_LARGE);
+    }
+    if (cause instanceof MaxUploadSizeExceededException) {
+      return message("File exceeds the maximum upload size of "
+          + ((MaxUploadSizeExceededException) cause).getMaxUploadSize() + " bytes",
+          HttpStatus.PAYLOAD_TOO_LARGE);
+    }
+    if (cause instanceof ConcurrentModificationException) {
+      return message(cause.getMessage(), HttpStatus.CONFLICT);
+    }
+    System.out.println(cause.getMessage());
+    return message("File didn't upload", HttpStatus.INTERNAL_SERVER_ERROR);
+  }
+
+  private Mono<ServerResponse> documentFailure(Throwable error) {
+    return SweProjectApplication.cause(error) instanceof IOException
+        ? message(SweProjectApplication.ERROR_MSG, HttpStatus.INTERNAL_SERVER_ERROR)
+        : message(SweProjectApplication.NO_DOCUMENT, HttpStatus.NOT_FOUND);
+  }
+
+  private Mono<ServerResponse> unexpectedFailure(Throwable error) {
+    System.out.println(SweProjectApplication.cause(error).getMessage());
+    return message(SweProjectApplication.ERROR_MSG, HttpStatus.INTERNAL_SERVER_ERROR);
+  }
+
+  //a value serialized as the JSON body of a response
+  private Mono<ServerResponse> json(ServerResponse.BodyBuilder response, Object value)
+      throws JsonProcessingException {
+    return response.contentType(MediaType.APPLICATION_JSON)
+        .bodyValue(bufferFactory.wrap(objectMapper.writeValueAsBytes(value)));
+  }
+
+  //a message sent as the text body of a response
+  private Mono<ServerResponse> message(String message, HttpStatus status) {
+    return ServerResponse.status(status).contentType(MediaType.TEXT_PLAIN)
+        .bodyValue(text(message));
+  }
+
+  private DataBuffer text(String text) {
+    return bufferFactory.wrap(text.getBytes(StandardCharsets.UTF_8));
+  }
+
+  //an element of a streamed JSON array, preceded by its separator
+  private DataBuffer element(String separator, Object value) {
+    try {
+      byte[] serialized = objectMapper.writeValueAsBytes(value);
+      byte[] bytes = new byte[serialized.length + 1];
+      bytes[0] = (byte) separator.charAt(0);
+      System.arraycopy(serialized, 0, bytes, 1, serialized.length);
+      return bufferFactory.wrap(bytes);
+    } catch (JsonProcessingException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  //a missing parameter is answered with 400 Bad Request, as on the servlet stack
+  private static String param(ServerRequest request, String name) {
+    return request.queryParam(name).orElseThrow(() -> new ServerWebInputException(
+        "Required parameter '" + name + "' is not present."));
+  }
+
+  private static int intParam(ServerRequest request, String name, String defaultValue) {
+    String value = defaultValue == null ? param(request, name)
+        : request.queryParam(name).orElse(defaultValue);
+    try {
+      return Integer.parseInt(value);
+    } catch (NumberFormatException e) {
+      throw new ServerWebInputException("Parameter '" + name + "' is not a number.");
+    }
+  }
+}
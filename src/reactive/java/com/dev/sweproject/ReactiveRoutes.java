@@ -0,0 +1,50 @@
+package com.dev.sweproject;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.reactive.function.server.RouterFunction;
+import org.springframework.web.reactive.function.server.RouterFunctions;
+import org.springframework.web.reactive.function.server.ServerResponse;
+
+/**
+ * Routes the endpoints of SweProjectApplication to the ReactiveDocumentHandler when the
+ * application runs on the reactive stack, started with
+ * spring.main.web-application-type=reactive on a build of the reactive profile. The routes
+ * are matched before the annotated handlers, which only serve the servlet stack.
+ */
+@Configuration
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveRoutes {
+
+  /**
+   * Maps every endpoint of the document API to its reactive handler.
+   *
+   * @param handler The ReactiveDocumentHandler serving the requests.
+   * @return A RouterFunction of the document API.
+   */
+  @Bean
+  public RouterFunction<ServerResponse> documentRoutes(ReactiveDocumentHandler handler) {
+    return RouterFunctions.route()
+        .POST("/register-client", handler::registerClient)
+        .POST("/upload-doc", handler::uploadDoc)
+        .POST("/upload-doc-stream", handler::uploadDocStream)
+        .POST("/upload-session", handler::createUploadSession)
+        .PUT("/upload-session/part", handler::uploadPart)
+        .GET("/upload-session", handler::getUploadSession)
+        .POST("/upload-session/commit", handler::commitUploadSession)
+        .DELETE("/upload-session", handler::abortUploadSession)
+        .PATCH("/share-document", handler::shareDocument)
+        .DELETE("/delete-doc", handler::deleteDoc)
+        .GET("/check-for-doc", handler::checkForDoc)
+        .GET("/see-previous-version", handler::seePreviousVersion)
+        .GET("/list-versions", handler::listVersions)
+        .GET("/see-document-stats", handler::seeDocumentStats)
+        .GET("/generate-difference-summary", handler::generateDiffSummary)
+        .GET("/download-doc", handler::downloadDoc)
+        .GET("/retrieve-docs", handler::retrieveDocs)
+        .GET("/retrieve-doc-names", handler::retrieveDocument)
+        .GET("/cache-stats", handler::cacheStats)
+        .build();
+  }
+}
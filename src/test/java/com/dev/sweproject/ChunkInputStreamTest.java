@@ -0,0 +1,64 @@
+package com.dev.sweproject;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for streaming the chunks of a document with a bounded read-ahead.
+ */
+class ChunkInputStreamTest {
+
+  /**
+   * Tests that the chunks are read in order and that only the read-ahead is requested
+   * beyond the chunk being consumed.
+   */
+  @Test
+  public void testReadsInOrderWithBoundedReadAhead() throws IOException {
+    List<CompletableFuture<byte[]>> requested = new ArrayList<>();
+    InputStream stream = new ChunkInputStream(10, index -> {
+      CompletableFuture<byte[]> chunk = CompletableFuture.completedFuture(
+          new byte[] {(byte) index, (byte) index});
+      requested.add(chunk);
+      return chunk;
+    }, 3);
+    assertEquals(3, requested.size());
+
+    assertEquals(0, stream.read());
+    assertEquals(4, requested.size());
+    byte[] rest = stream.readAllBytes();
+    assertEquals(19, rest.length);
+    assertEquals(9, rest[18]);
+    assertEquals(10, requested.size());
+    assertEquals(-1, stream.read());
+  }
+
+  /**
+   * Tests that empty documents and empty chunks are handled.
+   */
+  @Test
+  public void testEmptyChunks() throws IOException {
+    byte[][] chunks = {new byte[0], {1, 2}, new byte[0]};
+    InputStream stream = new ChunkInputStream(3,
+        index -> CompletableFuture.completedFuture(chunks[index]), 1);
+    assertArrayEquals(new byte[] {1, 2}, stream.readAllBytes());
+    assertEquals(-1, new ChunkInputStream(0, index -> null, 4).read());
+  }
+
+  /**
+   * Tests that a chunk that could not be read fails the stream.
+   */
+  @Test
+  public void testFailedChunk() {
+    InputStream stream = new ChunkInputStream(1, index -> CompletableFuture.failedFuture(
+        new IllegalStateException("Chunk is missing")), 2);
+    assertThrows(IOException.class, stream::readAllBytes);
+  }
+}
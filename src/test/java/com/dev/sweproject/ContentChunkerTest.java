@@ -0,0 +1,91 @@
+package com.dev.sweproject;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for splitting contents into content-defined chunks.
+ */
+class ContentChunkerTest {
+
+  private static final int AVERAGE_SIZE = 4096;
+
+  /**
+   * Tests that the chunks concatenate back to the contents and respect the size bounds.
+   */
+  @Test
+  public void testChunksCoverContentsWithinBounds() {
+    Random random = new Random(1);
+    for (int length : new int[] {0, 1, AVERAGE_SIZE / 4, AVERAGE_SIZE, 200_000}) {
+      byte[] contents = new byte[length];
+      random.nextBytes(contents);
+      List<byte[]> chunks = ContentChunker.split(contents, AVERAGE_SIZE);
+
+      ByteArrayOutputStream joined = new ByteArrayOutputStream();
+      for (int i = 0; i < chunks.size(); i++) {
+        int size = chunks.get(i).length;
+        assertTrue(size <= AVERAGE_SIZE * 4, "chunk of " + size + " bytes");
+        assertTrue(size >= AVERAGE_SIZE / 4 || i == chunks.size() - 1,
+            "chunk of " + size + " bytes");
+        joined.writeBytes(chunks.get(i));
+      }
+      assertArrayEquals(contents, joined.toByteArray());
+    }
+  }
+
+  /**
+   * Tests that an insertion near the start of a file leaves the chunks after it unchanged.
+   */
+  @Test
+  public void testInsertionOnlyChangesNearbyChunks() {
+    byte[] original = new byte[400_000];
+    new Random(2).nextBytes(original);
+    byte[] edited = new byte[original.length + 5];
+    System.arraycopy(original, 0, edited, 0, 1_000);
+    System.arraycopy(original, 1_000, edited, 1_005, original.length - 1_000);
+
+    Set<String> originalHashes = hashes(ContentChunker.split(original, AVERAGE_SIZE));
+    List<byte[]> editedChunks = ContentChunker.split(edited, AVERAGE_SIZE);
+    int shared = 0;
+    for (byte[] chunk : editedChunks) {
+      if (originalHashes.contains(Document.hashContents(chunk))) {
+        shared++;
+      }
+    }
+    assertTrue(shared >= editedChunks.size() - 2,
+        shared + " of " + editedChunks.size() + " chunks are shared");
+  }
+
+  /**
+   * Tests that chunks average close to the requested size and that tiny averages are rejected.
+   */
+  @Test
+  public void testAverageSize() {
+    byte[] contents = new byte[1_000_000];
+    new Random(3).nextBytes(contents);
+    int count = ContentChunker.boundaries(contents, AVERAGE_SIZE).length;
+    int average = contents.length / count;
+    assertTrue(average > AVERAGE_SIZE / 2 && average < AVERAGE_SIZE * 2,
+        "average chunk of " + average + " bytes");
+    assertEquals(contents.length,
+        ContentChunker.boundaries(contents, AVERAGE_SIZE)[count - 1]);
+    assertThrows(IllegalArgumentException.class, () -> ContentChunker.boundaries(contents, 32));
+  }
+
+  private static Set<String> hashes(List<byte[]> chunks) {
+    Set<String> hashes = new HashSet<>();
+    for (byte[] chunk : chunks) {
+      hashes.add(Document.hashContents(chunk));
+    }
+    return hashes;
+  }
+}
@@ -0,0 +1,106 @@
+package com.dev.sweproject;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for encoding document contents for storage.
+ */
+class ContentCodecTest {
+
+  private static final byte[] TEXT = ("This is a demo document for the demo in class. "
+      + "Chef Mike's is a 10/10. ").repeat(200).getBytes(StandardCharsets.UTF_8);
+
+  /**
+   * Tests that every codec decodes what it encodes, including empty contents.
+   */
+  @Test
+  public void testRoundTrip() {
+    byte[] random = new byte[5_000];
+    new Random(1).nextBytes(random);
+    for (ContentCodec codec : ContentCodec.values()) {
+      for (byte[] contents : new byte[][] {TEXT, random, new byte[0]}) {
+        String stored = codec.encode(contents, "text/plain", 6);
+        assertTrue(stored.startsWith(ContentCodec.PREFIX));
+        assertArrayEquals(contents, ContentCodec.decode(stored));
+      }
+    }
+  }
+
+  /**
+   * Tests that text is compressed well below the size of its legacy Base64 form.
+   */
+  @Test
+  public void testCompressesText() {
+    String legacy = "#" + Base64.getEncoder().encodeToString(TEXT);
+    String stored = ContentCodec.DEFLATE.encode(TEXT, "text/plain", 6);
+    assertTrue(stored.length() * 5 < legacy.length(),
+        stored.length() + " is not a fifth of " + legacy.length());
+  }
+
+  /**
+   * Tests that GZIP compresses at the level it is given, whole or as a stream, and that a
+   * level out of range is refused by the service.
+   */
+  @Test
+  public void testGzipAppliesLevel() throws IOException {
+    for (int level : new int[] {0, 9}) {
+      ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+      try (OutputStream compressor = ContentCodec.GZIP.compressor(streamed, level)) {
+        compressor.write(TEXT);
+      }
+      byte[] compressed = ContentCodec.GZIP.compress(TEXT, level);
+      assertArrayEquals(compressed, streamed.toByteArray());
+      assertEquals(level == 0, compressed.length > TEXT.length);
+    }
+    assertThrows(IllegalArgumentException.class, () -> new FirebaseService(null, 0, 0,
+        "gzip", 10, 1 << 16, 1 << 20, 0));
+  }
+
+  /**
+   * Tests that contents which are already compressed are stored raw.
+   */
+  @Test
+  public void testSkipsCompressedContents() {
+    String asImage = ContentCodec.DEFLATE.encode(TEXT, "image/png", 6);
+    String gzipped = ContentCodec.DEFLATE.encode(ContentCodec.GZIP.compress(TEXT, 6), null, 6);
+    String asText = ContentCodec.DEFLATE.encode(TEXT, null, 6);
+
+    assertEquals(0, Base64.getDecoder().decode(asImage.substring(1))[0]);
+    assertEquals(0, Base64.getDecoder().decode(gzipped.substring(1))[0]);
+    assertEquals(1, Base64.getDecoder().decode(asText.substring(1))[0]);
+  }
+
+  /**
+   * Tests that contents stored before codecs existed are still read.
+   */
+  @Test
+  public void testDecodesLegacyContents() {
+    String legacy = "#" + Base64.getEncoder().encodeToString(TEXT);
+    assertArrayEquals(TEXT, ContentCodec.decode(legacy));
+    assertEquals(legacy, ContentCodec.toFileString(legacy));
+    assertEquals(legacy, ContentCodec.toFileString(ContentCodec.GZIP.encode(TEXT, null, 6)));
+    assertEquals("#", ContentCodec.toFileString(null));
+  }
+
+  /**
+   * Tests that malformed stored contents are rejected.
+   */
+  @Test
+  public void testRejectsMalformedContents() {
+    String stored = ContentCodec.DEFLATE.encode(TEXT, null, 6);
+    String truncated = stored.substring(0, stored.length() - 8);
+    assertThrows(IllegalArgumentException.class, () -> ContentCodec.decode(truncated));
+    assertThrows(IllegalArgumentException.class, () -> ContentCodec.decode("!" + "CQ=="));
+  }
+}
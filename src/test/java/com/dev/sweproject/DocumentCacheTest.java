@@ -0,0 +1,156 @@
+package com.dev.sweproject;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.ValueEventListener;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+/**
+ * Tests for the byte-bounded document cache.
+ */
+class DocumentCacheTest {
+
+  /**
+   * Tests that cached metadata and contents are served and counted as hits.
+   */
+  @Test
+  public void testHitsAndMisses() {
+    DocumentCache cache = new DocumentCache(10_000, null);
+    DataSnapshot metadata = metadata("docId", "Title");
+
+    assertNull(cache.getMetadata("net", "Title"));
+    cache.putMetadata("net", metadata, cache.generation());
+    cache.putContents("net", "docId", "#abcd", cache.generation());
+
+    assertSame(metadata, cache.getMetadata("net", "Title"));
+    assertEquals("#abcd", cache.getContents("net", "docId"));
+    assertNull(cache.getMetadata("otherNet", "Title"));
+    Map<String, Long> statistics = cache.getStatistics();
+    assertEquals(2L, statistics.get("hits"));
+    assertEquals(2L, statistics.get("misses"));
+    assertEquals(1L, statistics.get("documents"));
+  }
+
+  /**
+   * Tests that the least recently used documents are evicted once the bytes held
+   * exceed the bound.
+   */
+  @Test
+  public void testEvictsLeastRecentlyUsedByBytes() {
+    DocumentCache cache = new DocumentCache(2_000, null);
+    String contents = "#" + "a".repeat(600);
+    for (String id : new String[] {"one", "two"}) {
+      cache.putMetadata("net", metadata(id, id), cache.generation());
+      cache.putContents("net", id, contents, cache.generation());
+    }
+    //touching "one" makes "two" the least recently used
+    cache.getMetadata("net", "one");
+    cache.putMetadata("net", metadata("three", "three"), cache.generation());
+    cache.putContents("net", "three", contents, cache.generation());
+
+    assertNull(cache.getMetadata("net", "two"));
+    assertEquals(contents, cache.getContents("net", "one"));
+    assertEquals(contents, cache.getContents("net", "three"));
+    assertEquals(1L, cache.getStatistics().get("evictions"));
+  }
+
+  /**
+   * Tests that invalidated documents are dropped and that reads started before an
+   * invalidation are not cached.
+   */
+  @Test
+  public void testInvalidation() {
+    DocumentCache cache = new DocumentCache(10_000, null);
+    cache.putMetadata("net", metadata("docId", "Title"), cache.generation());
+
+    long readGeneration = cache.generation();
+    cache.invalidate("net", "docId");
+    assertNull(cache.getMetadata("net", "Title"));
+
+    cache.putMetadata("net", metadata("docId", "Title"), readGeneration);
+    assertNull(cache.getMetadata("net", "Title"));
+
+    cache.putMetadata("net", metadata("docId", "Title"), cache.generation());
+    cache.invalidateNetwork("net");
+    assertNull(cache.getMetadata("net", "Title"));
+    assertEquals(2L, cache.getStatistics().get("invalidations"));
+  }
+
+  /**
+   * Tests that a read is only refused when its own document or network was invalidated, so
+   * that writes to other documents do not keep a document from being cached.
+   */
+  @Test
+  public void testInvalidationIsPerDocument() {
+    DocumentCache cache = new DocumentCache(10_000, null);
+
+    long readGeneration = cache.generation();
+    cache.invalidate("net", "otherDocId");
+    cache.invalidate("otherNet", "docId");
+    cache.invalidateNetwork("otherNet");
+    cache.putMetadata("net", metadata("docId", "Title"), readGeneration);
+    cache.putContents("net", "docId", "#abcd", readGeneration);
+    assertEquals("#abcd", cache.getContents("net", "docId"));
+
+    readGeneration = cache.generation();
+    cache.invalidateNetwork("net");
+    cache.putMetadata("net", metadata("docId", "Title"), readGeneration);
+    assertNull(cache.getMetadata("net", "Title"));
+  }
+
+  /**
+   * Tests that only the metadata of each cached document is watched, that a change made
+   * elsewhere drops the document and that its listener is detached once it leaves the cache.
+   */
+  @Test
+  public void testWatchesCachedDocumentsOnly() {
+    Map<String, DatabaseReference> references = new HashMap<>();
+    DocumentCache cache = new DocumentCache(10_000, (collectionName, documentId) ->
+        references.computeIfAbsent(collectionName + "/" + documentId,
+            path -> Mockito.mock(DatabaseReference.class)));
+    DataSnapshot metadata = metadata("docId", "Title");
+    cache.putMetadata("net", metadata, cache.generation());
+    cache.putMetadata("net", metadata("otherDocId", "Other"), cache.generation());
+    assertEquals(2, references.size());
+
+    DatabaseReference reference = references.get("net/docId");
+    ArgumentCaptor<ValueEventListener> listener =
+        ArgumentCaptor.forClass(ValueEventListener.class);
+    Mockito.verify(reference).addValueEventListener(listener.capture());
+    //the first event describes the document as it was cached
+    listener.getValue().onDataChange(metadata);
+    assertSame(metadata, cache.getMetadata("net", "Title"));
+
+    listener.getValue().onDataChange(metadata("docId", "Renamed"));
+    assertNull(cache.getMetadata("net", "Title"));
+    Mockito.verify(reference).removeEventListener(listener.getValue());
+    Mockito.verify(references.get("net/otherDocId"), Mockito.never())
+        .removeEventListener(Mockito.any(ValueEventListener.class));
+  }
+
+  private static DataSnapshot metadata(String documentId, String title) {
+    Map<String, Object> value = new HashMap<>();
+    value.put("docId", documentId);
+    value.put("title", title);
+    value.put("userId", "userId");
+
+    DataSnapshot snapshot = Mockito.mock(DataSnapshot.class);
+    DataSnapshot titleSnapshot = Mockito.mock(DataSnapshot.class);
+    DataSnapshot userSnapshot = Mockito.mock(DataSnapshot.class);
+    Mockito.when(snapshot.getKey()).thenReturn(documentId);
+    Mockito.when(snapshot.getValue()).thenReturn(value);
+    Mockito.when(snapshot.child("title")).thenReturn(titleSnapshot);
+    Mockito.when(snapshot.child("userId")).thenReturn(userSnapshot);
+    Mockito.when(titleSnapshot.getValue(String.class)).thenReturn(title);
+    Mockito.when(userSnapshot.getValue()).thenReturn("userId");
+    return snapshot;
+  }
+}
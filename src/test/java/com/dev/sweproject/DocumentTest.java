@@ -1,13 +1,20 @@
 package com.dev.sweproject;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import org.junit.jupiter.api.Test;
 import org.junit.runner.RunWith;
 import org.springframework.boot.test.context.SpringBootTest;
@@ -321,6 +328,26 @@ class DocumentTest {
     assertFalse(document.equals(null));
   }
 
+  /**
+   * Tests that equal documents have equal hash codes and that documents with different
+   * contents are not equal.
+   *
+   * @throws IOException if an I/O exception occurs during the test.
+   */
+  @Test
+  void testHashCodeAndContentHash() throws IOException {
+    Document document1 = new Document("user1", "client1", null, "doc1", "Title", 100);
+    Document document2 = new Document("user1", "client1", null, "doc1", "Title", 100);
+    assertEquals(document1.hashCode(), document2.hashCode());
+    assertEquals(1, new HashSet<>(List.of(document1, document2)).size());
+
+    document2.setFileString("#YWJj");
+    assertFalse(document1.equals(document2));
+    assertEquals("ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad",
+        document2.getContentHash());
+    assertEquals(Document.hashContents("abc".getBytes()), document2.getContentHash());
+  }
+
   /**
    * Tests compareTo() with Documents of same word count.
    *
@@ -497,4 +524,74 @@ class DocumentTest {
     assertEquals(result.toString(), doc.generateUsageStatistics());
     assertEquals(result2.toString(), doc2.generateUsageStatistics());
   }
+
+  /**
+   * Tests that the metadata of a document leaves out its contents and previous versions.
+   *
+   * @throws IOException if an I/O exception occurs during the test.
+   */
+  @Test
+  public void testToMetadata() throws IOException {
+    Document doc = new Document("userId", "clientId", null, "docId", "Title", 100);
+    doc.addPreviousVersion(new Document("userId", "clientId", null, "docId", "Title", 80));
+
+    Map<String, Object> metadata = doc.toMetadata();
+    assertEquals("userId", metadata.get("userId"));
+    assertEquals("clientId", metadata.get("clientId"));
+    assertEquals("docId", metadata.get("docId"));
+    assertEquals("Title", metadata.get("title"));
+    assertEquals(100, metadata.get("wordCount"));
+    assertEquals(1, metadata.get("versionCount"));
+    assertEquals(0L, metadata.get("size"));
+    assertEquals(doc.getTimestamp(), metadata.get("timestamp"));
+    assertFalse(metadata.containsKey("fileString"));
+    assertFalse(metadata.containsKey("previousVersions"));
+  }
+
+  /**
+   * Tests that a document read from its metadata alone reports the stored version count.
+   *
+   * @throws IOException if an I/O exception occurs during the test.
+   */
+  @Test
+  public void testConvertMetadataToDocument() throws IOException {
+    HashMap<String, Object> metadata = new HashMap<>();
+    metadata.put("userId", "userId");
+    metadata.put("clientId", "clientId");
+    metadata.put("docId", "docId");
+    metadata.put("title", "Title");
+    metadata.put("wordCount", 100L);
+    metadata.put("versionCount", 3L);
+
+    Document doc = Document.convertToDocument(metadata);
+    assertNull(doc.getPreviousVersions());
+    assertEquals(3, doc.getVersionCount());
+    assertEquals("#", doc.getFileString());
+    assertTrue(doc.generateUsageStatistics()
+        .endsWith("There is/are 3 previous versions on record"));
+  }
+
+  /**
+   * Tests that a document converted from a map keeps the file string it was given and
+   * only decodes it when the raw contents are requested.
+   *
+   * @throws IOException if an I/O exception occurs during the test.
+   */
+  @Test
+  public void testConvertKeepsFileString() throws IOException {
+    String fileString = "#" + Base64.getEncoder().encodeToString("File Contents".getBytes());
+    HashMap<String, Object> map = new HashMap<>();
+    map.put("userId", "userId");
+    map.put("clientId", "clientId");
+    map.put("docId", "docId");
+    map.put("title", "Title");
+    map.put("wordCount", 2L);
+    map.put("fileString", fileString);
+
+    Document doc = Document.convertToDocument(map);
+    assertSame(fileString, doc.getFileString());
+    assertArrayEquals("File Contents".getBytes(), doc.getContents());
+    assertEquals(13, doc.getSize());
+    assertEquals(Document.hashContents("File Contents".getBytes()), doc.getContentHash());
+  }
 }
@@ -2,6 +2,7 @@ package com.dev.sweproject;
 
 import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
@@ -351,6 +352,43 @@ class FirebaseServiceTest {
     }
   }
 
+  /**
+   * Tests that two concurrent uploads following the same version both write a version of
+   * their own instead of one overwriting the other, and that two concurrent first uploads
+   * of a title create a single document.
+   */
+  @Test
+  @Order(16)
+  public void testConcurrentRepeatedUploads() throws Exception {
+    String collectionName = "testCollectionDocs";
+    String fileName = "yourFileName";
+    String userId = "yourUserId";
+
+    CompletableFuture<Object> first = firebaseService.uploadFile(new MockMultipartFile("file",
+        fileName, "text/plain", "First concurrent content".getBytes()), collectionName,
+        fileName, userId);
+    CompletableFuture<Object> second = firebaseService.uploadFile(new MockMultipartFile("file",
+        fileName, "text/plain", "Second concurrent content".getBytes()), collectionName,
+        fileName, userId);
+    int firstVersion = ((Document) first.get()).getVersionCount();
+    int secondVersion = ((Document) second.get()).getVersionCount();
+    assertNotEquals(firstVersion, secondVersion);
+    assertEquals(1, Math.abs(firstVersion - secondVersion));
+
+    String newFileName = "concurrentFirstFile";
+    CompletableFuture<Object> created = firebaseService.uploadFile(new MockMultipartFile(
+        "file", newFileName, "text/plain", "First new content".getBytes()), collectionName,
+        newFileName, userId);
+    CompletableFuture<Object> followed = firebaseService.uploadFile(new MockMultipartFile(
+        "file", newFileName, "text/plain", "Second new content".getBytes()), collectionName,
+        newFileName, userId);
+    Document createdDocument = (Document) created.get();
+    Document followedDocument = (Document) followed.get();
+    assertEquals(createdDocument.getDocId(), followedDocument.getDocId());
+    assertEquals(1, Math.abs(createdDocument.getVersionCount()
+        - followedDocument.getVersionCount()));
+  }
+
   /**
    * Tests for successful removal of collection.
    */
@@ -381,4 +419,31 @@ class FirebaseServiceTest {
     assertNotEquals(result1, result2);
   }
 
-}
\ No newline at end of file
+  /**
+   * Tests that titles are encoded into valid and distinct database keys.
+   */
+  @Test
+  @Order(19)
+  public void testEncodeKey() {
+    assertEquals("my first doc", FirebaseService.encodeKey("my first doc"));
+    assertEquals("notes%2Etxt", FirebaseService.encodeKey("notes.txt"));
+    assertEquals("a%2Fb%23c%24d%5Be%5D", FirebaseService.encodeKey("a/b#c$d[e]"));
+    assertEquals("100%25", FirebaseService.encodeKey("100%"));
+    assertEquals("%", FirebaseService.encodeKey(""));
+    assertNotEquals(FirebaseService.encodeKey("a.b"), FirebaseService.encodeKey("a%2Eb"));
+  }
+
+  /**
+   * Tests that user membership is matched exactly rather than by substring.
+   */
+  @Test
+  @Order(20)
+  public void testHasUser() {
+    assertTrue(FirebaseService.hasUser("user1/user2", "user2"));
+    assertTrue(FirebaseService.hasUser("user1", "user1"));
+    assertFalse(FirebaseService.hasUser("user10/user2", "user1"));
+    assertFalse(FirebaseService.hasUser("user1/user2", "user"));
+    assertFalse(FirebaseService.hasUser(null, "user1"));
+  }
+
+}
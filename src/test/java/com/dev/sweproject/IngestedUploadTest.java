@@ -0,0 +1,212 @@
+package com.dev.sweproject;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.web.multipart.MaxUploadSizeExceededException;
+
+/**
+ * Tests that reading or streaming an upload in one pass derives the same digest, word
+ * count, stored form and chunks as computing each of them from the whole contents.
+ */
+class IngestedUploadTest {
+
+  private static final int CHUNK_SIZE = 4096;
+
+  /**
+   * Tests text below and above the chunk size with every codec, read in short reads.
+   */
+  @Test
+  public void testMatchesWholeContents() throws IOException {
+    Random random = new Random(10);
+    for (ContentCodec codec : ContentCodec.values()) {
+      for (int length : new int[] {0, 1, 100, CHUNK_SIZE, CHUNK_SIZE + 1, 200_000}) {
+        byte[] contents = text(random, length);
+        IngestedUpload upload = IngestedUpload.read(new TrickleInputStream(contents),
+            length, "text/plain", codec, 6, CHUNK_SIZE);
+        assertMatches(contents, upload);
+      }
+    }
+  }
+
+  /**
+   * Tests uploads whose size is unknown or announced wrongly, which are encoded or chunked
+   * again once read.
+   */
+  @Test
+  public void testUnknownOrWrongSize() throws IOException {
+    Random random = new Random(11);
+    for (int length : new int[] {0, 100, CHUNK_SIZE, CHUNK_SIZE + 1, 300_000}) {
+      byte[] contents = text(random, length);
+      for (long announced : new long[] {-1, 0, length / 2, length + 1, CHUNK_SIZE * 2L}) {
+        IngestedUpload upload = IngestedUpload.read(new ByteArrayInputStream(contents),
+            announced, null, ContentCodec.DEFLATE, 6, CHUNK_SIZE);
+        assertMatches(contents, upload);
+      }
+    }
+  }
+
+  /**
+   * Tests that incompressible and already compressed contents are stored raw, as encode
+   * stores them.
+   */
+  @Test
+  public void testIncompressibleStoredRaw() throws IOException {
+    byte[] noise = new byte[3000];
+    new Random(12).nextBytes(noise);
+    IngestedUpload upload = IngestedUpload.read(
+        new MockMultipartFile("file", "noise", "application/octet-stream", noise),
+        ContentCodec.DEFLATE, 6, CHUNK_SIZE);
+    assertMatches(noise, upload);
+    assertEquals(ContentCodec.RAW.encode(noise, null, 6), upload.getStoredContents());
+
+    byte[] png = text(new Random(13), 3000);
+    png[0] = (byte) 0x89;
+    png[1] = 'P';
+    png[2] = 'N';
+    png[3] = 'G';
+    upload = IngestedUpload.read(new ByteArrayInputStream(png), png.length, null,
+        ContentCodec.GZIP, 6, CHUNK_SIZE);
+    assertEquals(ContentCodec.GZIP.encode(png, null, 6), upload.getStoredContents());
+  }
+
+  /**
+   * Tests that a streamed upload stores every distinct chunk once, with no more stores
+   * pending than allowed, and is otherwise derived like a read upload.
+   */
+  @Test
+  public void testStreamStoresChunks() throws IOException {
+    byte[] contents = text(new Random(15), 300_000);
+    Map<String, byte[]> stored = new HashMap<>();
+    AtomicInteger pending = new AtomicInteger();
+    IngestedUpload upload = IngestedUpload.stream(new TrickleInputStream(contents),
+        contents.length, "text/plain", ContentCodec.DEFLATE, 6, CHUNK_SIZE, (hash, chunk) -> {
+          assertNull(stored.put(hash, chunk));
+          assertTrue(pending.incrementAndGet() <= 2);
+          return CompletableFuture.runAsync(pending::decrementAndGet,
+              CompletableFuture.delayedExecutor(1, TimeUnit.MILLISECONDS));
+        }, 2);
+    assertEquals(0, pending.get());
+
+    assertTrue(upload.isChunked());
+    assertNull(upload.getContents());
+    assertEquals(contents.length, upload.getSize());
+    assertEquals(Document.hashContents(contents), upload.getContentHash());
+    assertEquals(WordCounter.count(contents), upload.getWordCount());
+    List<String> expected = new ArrayList<>();
+    for (byte[] chunk : ContentChunker.split(contents, CHUNK_SIZE)) {
+      expected.add(Document.hashContents(chunk));
+      assertArrayEquals(chunk, stored.get(Document.hashContents(chunk)));
+    }
+    assertEquals(expected, upload.getManifest());
+    assertEquals(new HashSet<>(expected), stored.keySet());
+  }
+
+  /**
+   * Tests that a streamed upload up to the chunk size is held rather than stored.
+   */
+  @Test
+  public void testSmallStreamIsHeld() throws IOException {
+    for (int length : new int[] {0, 100, CHUNK_SIZE}) {
+      byte[] contents = text(new Random(16), length);
+      IngestedUpload upload = IngestedUpload.stream(new ByteArrayInputStream(contents),
+          CHUNK_SIZE, null, ContentCodec.GZIP, 6, CHUNK_SIZE, (hash, chunk) -> {
+            throw new AssertionError("stored a chunk of a small upload");
+          }, 4);
+      assertMatches(contents, upload);
+    }
+  }
+
+  /**
+   * Tests that a stream over the maximum size or whose chunks can not be stored fails.
+   */
+  @Test
+  public void testStreamFailures() {
+    byte[] contents = text(new Random(17), 100_000);
+    assertThrows(MaxUploadSizeExceededException.class, () -> IngestedUpload.stream(
+        new ByteArrayInputStream(contents), contents.length - 1, null, ContentCodec.RAW, 6,
+        CHUNK_SIZE, (hash, chunk) -> CompletableFuture.completedFuture(null), 4));
+
+    IOException error = assertThrows(IOException.class, () -> IngestedUpload.stream(
+        new ByteArrayInputStream(contents), contents.length, null, ContentCodec.RAW, 6,
+        CHUNK_SIZE, (hash, chunk) -> CompletableFuture.failedFuture(
+            new RuntimeException("Simulated error")), 1));
+    assertEquals("Simulated error", error.getCause().getMessage());
+  }
+
+  private static void assertMatches(byte[] contents, IngestedUpload upload) {
+    assertArrayEquals(contents, upload.getContents());
+    assertEquals(Document.hashContents(contents), upload.getContentHash());
+    assertEquals(WordCounter.count(contents), upload.getWordCount());
+    if (contents.length <= CHUNK_SIZE) {
+      assertFalse(upload.isChunked());
+      assertTrue(upload.getManifest().isEmpty());
+      assertArrayEquals(contents, ContentCodec.decode(upload.getStoredContents()));
+      return;
+    }
+    assertTrue(upload.isChunked());
+    assertNull(upload.getStoredContents());
+    List<String> expected = new ArrayList<>();
+    for (byte[] chunk : ContentChunker.split(contents, CHUNK_SIZE)) {
+      String hash = Document.hashContents(chunk);
+      expected.add(hash);
+      assertArrayEquals(chunk, upload.getChunks().get(hash));
+    }
+    assertEquals(expected, upload.getManifest());
+  }
+
+  //repetitive words so that chunks repeat and the text compresses
+  private static byte[] text(Random random, int length) {
+    String[] words = {"alpha ", "beta\n", "gamma\t", "café ", "日本 "};
+    StringBuilder text = new StringBuilder();
+    while (text.length() < length) {
+      text.append(words[random.nextInt(words.length)]);
+      if (random.nextInt(50) == 0) {
+        text.append(random.nextLong());
+      }
+    }
+    byte[] bytes = text.toString().getBytes(StandardCharsets.UTF_8);
+    byte[] contents = new byte[length];
+    System.arraycopy(bytes, 0, contents, 0, length);
+    return contents;
+  }
+
+  //returns at most a few hundred bytes per read, as a network stream may
+  private static final class TrickleInputStream extends InputStream {
+    private final ByteArrayInputStream in;
+    private final Random random = new Random(14);
+
+    private TrickleInputStream(byte[] contents) {
+      this.in = new ByteArrayInputStream(contents);
+    }
+
+    @Override
+    public int read() {
+      return in.read();
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) {
+      return in.read(buffer, offset, Math.min(length, 1 + random.nextInt(300)));
+    }
+  }
+}
@@ -1,14 +1,22 @@
 package com.dev.sweproject;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 
 import com.google.firebase.database.DataSnapshot;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.ConcurrentModificationException;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.MethodOrderer;
 import org.junit.jupiter.api.Order;
@@ -16,9 +24,13 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestMethodOrder;
 import org.mockito.Mockito;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.web.multipart.MaxUploadSizeExceededException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 /**
  * This is a test class designed to perform internal integration between
@@ -36,7 +48,11 @@ class InternalIntegrationTest {
   @BeforeAll
   static void setup() {
     myService = new SweProjectApplication();
-    fbService = Mockito.mock(FirebaseService.class);
+    //the handlers call the view bound to their deadline, the mock itself, so the stubs
+    //made on it answer them; the default answer outlives Mockito.reset
+    fbService = Mockito.mock(FirebaseService.class, invocation ->
+        invocation.getMethod().getName().equals("within") ? invocation.getMock()
+            : Mockito.RETURNS_DEFAULTS.answer(invocation));
     myService.setFirebaseDataService(fbService);
   }
 
@@ -69,15 +85,11 @@ class InternalIntegrationTest {
     MockMultipartFile contents = new MockMultipartFile("contents", "file.txt",
         "text/plain", "File Contents".getBytes());
 
-
-    Mockito.when(fbService.searchForDocument(networkId, documentName))
-        .thenReturn(CompletableFuture.completedFuture(null));
-
     Mockito.when(fbService.uploadFile(contents, networkId, documentName, userId))
         .thenReturn(CompletableFuture.completedFuture("Upload Success"));
 
     ResponseEntity<?> responseEntity = myService.uploadDoc(networkId, documentName,
-        userId, contents);
+        userId, contents).join();
 
     assertEquals(HttpStatus.OK, responseEntity.getStatusCode());
     assertEquals("File Uploaded Successfully!", responseEntity.getBody());
@@ -92,16 +104,36 @@ class InternalIntegrationTest {
     MockMultipartFile contents = new MockMultipartFile("contents",
         "file.txt", "text/plain", "File Contents".getBytes());
 
-    Mockito.when(fbService.searchForDocument(networkId, documentName))
+    Mockito.when(fbService.uploadFile(contents, networkId, documentName, userId))
         .thenThrow(new RuntimeException("Simulated error"));
 
     ResponseEntity<?> responseEntity = myService.uploadDoc(networkId, documentName,
-        userId, contents);
+        userId, contents).join();
 
     assertEquals(HttpStatus.INTERNAL_SERVER_ERROR, responseEntity.getStatusCode());
     assertEquals("File didn't upload", responseEntity.getBody());
   }
 
+  @Test
+  @Order(18)
+  void testUploadDocDuplicate() throws Exception {
+    String networkId = "networkId";
+    String documentName = "documentName";
+    String userId = "userId";
+    MockMultipartFile contents = new MockMultipartFile("contents",
+        "file.txt", "text/plain", "File Contents".getBytes());
+
+    Mockito.reset(fbService);
+    Mockito.when(fbService.uploadFile(contents, networkId, documentName, userId))
+        .thenReturn(CompletableFuture.completedFuture(FirebaseService.DUPLICATE_UPLOAD));
+
+    ResponseEntity<?> responseEntity = myService.uploadDoc(networkId, documentName,
+        userId, contents).join();
+
+    assertEquals(HttpStatus.OK, responseEntity.getStatusCode());
+    assertEquals("File already exists!", responseEntity.getBody());
+  }
+
   @Test
   @Order(5)
   void testShareDocument() throws Exception {
@@ -118,7 +150,7 @@ class InternalIntegrationTest {
     String userId1 = "userId1";
     String userId2 = "userId2";
     ResponseEntity<?> responseEntity = myService.shareDocument(networkId,
-        documentName, userId1, userId2);
+        documentName, userId1, userId2).join();
 
     assertEquals(HttpStatus.OK, responseEntity.getStatusCode());
     assertEquals("Service executed", responseEntity.getBody());
@@ -137,7 +169,7 @@ class InternalIntegrationTest {
         .thenReturn(CompletableFuture.completedFuture(null));
 
     ResponseEntity<?> responseEntity = myService.shareDocument(networkId,
-        documentName, userId1, userId2);
+        documentName, userId1, userId2).join();
 
     assertEquals(HttpStatus.NOT_FOUND, responseEntity.getStatusCode());
     assertEquals("No such document exists.", responseEntity.getBody());
@@ -156,7 +188,7 @@ class InternalIntegrationTest {
         .thenReturn(CompletableFuture.completedFuture(null));
 
     ResponseEntity<?> responseEntity = myService.seePreviousVersion(networkId,
-        documentName, userId, revisionNumber);
+        documentName, userId, revisionNumber).join();
 
     assertEquals(HttpStatus.NOT_FOUND, responseEntity.getStatusCode());
   }
@@ -176,7 +208,7 @@ class InternalIntegrationTest {
 
     String userId = "userId";
     ResponseEntity<?> responseEntity = myService.generateDiffSummary(networkId,
-        documentName1, documentName2, userId);
+        documentName1, documentName2, userId).join();
 
     assertEquals(HttpStatus.NOT_FOUND, responseEntity.getStatusCode());
   }
@@ -191,7 +223,7 @@ class InternalIntegrationTest {
     Mockito.when(fbService.collectEntries(networkId, userId))
         .thenReturn(CompletableFuture.completedFuture(null));
 
-    ResponseEntity<?> responseEntity = myService.retrieveDocs(networkId, userId);
+    ResponseEntity<?> responseEntity = myService.retrieveDocs(networkId, userId).join();
 
     assertEquals(HttpStatus.INTERNAL_SERVER_ERROR, responseEntity.getStatusCode());
   }
@@ -207,7 +239,7 @@ class InternalIntegrationTest {
     Mockito.when(fbService.getDocumentTitles(networkId, userId))
         .thenReturn(CompletableFuture.completedFuture(titles));
 
-    ResponseEntity<?> responseEntity = myService.retrieveDocument(networkId, userId);
+    ResponseEntity<?> responseEntity = myService.retrieveDocument(networkId, userId).join();
 
     assertEquals(HttpStatus.OK, responseEntity.getStatusCode());
   }
@@ -241,9 +273,18 @@ class InternalIntegrationTest {
         + "ring\":\"#VGhpcyBpcyBhIGRlbW8gZG9jdW1lbnQgZm9yIHRoZSBkZW1vIGluIGNsYXNzLg0KDQpDa"
         + "GVmIE1pa2UncyBpcyBhIDEwLzEwLiA6RA==\"}";
     ResponseEntity<?> responseEntity = myService.downloadDoc(networkId, documentName, userId,
-        jsonObject);
+        new HttpHeaders(), jsonObject).join();
 
     assertEquals(HttpStatus.OK, responseEntity.getStatusCode());
+    ByteArrayOutputStream written = new ByteArrayOutputStream();
+    ((StreamingResponseBody) responseEntity.getBody()).writeTo(written);
+    assertEquals("This is a demo document for the demo in class.\r\n\r\nChef Mike's is a "
+        + "10/10. :D", written.toString());
+    assertEquals(written.size(), responseEntity.getHeaders().getContentLength());
+
+    ResponseEntity<?> malformed = myService.downloadDoc(networkId, documentName, userId,
+        new HttpHeaders(), "{\"title\":\"my first doc\",\"fileString\":\"#VGhp?cyBp\"}").join();
+    assertEquals(HttpStatus.BAD_REQUEST, malformed.getStatusCode());
   }
 
   //Document Statistics (seeDocumentStats method):
@@ -274,7 +315,8 @@ class InternalIntegrationTest {
     Mockito.when(fbService.searchForDocument(networkId, documentName))
         .thenReturn(CompletableFuture.completedFuture(dataSnapshot));
     String userId = "userId";
-    ResponseEntity<?> responseEntity = myService.seeDocumentStats(networkId, documentName, userId);
+    ResponseEntity<?> responseEntity = myService.seeDocumentStats(networkId, documentName,
+        userId).join();
 
     assertEquals(HttpStatus.OK, responseEntity.getStatusCode());
   }
@@ -306,7 +348,10 @@ class InternalIntegrationTest {
     String userId = "userId";
     Mockito.when(fbService.searchForDocument(networkId, documentName))
         .thenReturn(CompletableFuture.completedFuture(dataSnapshot));
-    ResponseEntity<?> responseEntity = myService.checkForDoc(networkId, documentName, userId);
+    Mockito.when(fbService.assembleDocument(networkId, dataSnapshot))
+        .thenReturn(CompletableFuture.completedFuture(documentData));
+    ResponseEntity<?> responseEntity = myService.checkForDoc(networkId, documentName, userId,
+        new HttpHeaders()).join();
     System.out.println(responseEntity.getBody());
     assertEquals(HttpStatus.OK, responseEntity.getStatusCode());
   }
@@ -339,7 +384,7 @@ class InternalIntegrationTest {
     Mockito.when(fbService.searchForDocument(networkId, documentName))
         .thenReturn(CompletableFuture.completedFuture(dataSnapshot));
     ResponseEntity<?> responseEntity = myService.seePreviousVersion(networkId, documentName,
-        userId, 0);
+        userId, 0).join();
     System.out.println(responseEntity.getBody());
     assertEquals(HttpStatus.BAD_REQUEST, responseEntity.getStatusCode());
   }
@@ -377,7 +422,7 @@ class InternalIntegrationTest {
                 .thenReturn(CompletableFuture.completedFuture(result.get()));
 
         // Test case: Successful retrieval of documents
-        ResponseEntity<?> responseEntity = myService.retrieveDocs(networkId, userId);
+        ResponseEntity<?> responseEntity = myService.retrieveDocs(networkId, userId).join();
 
         assertEquals(HttpStatus.OK, responseEntity.getStatusCode());
     }
@@ -407,8 +452,444 @@ class InternalIntegrationTest {
     String userId = "userId";
     Mockito.when(fbService.searchForDocument(networkId, documentName))
         .thenReturn(CompletableFuture.completedFuture(dataSnapshot));
-    ResponseEntity<?> responseEntity = myService.deleteDoc(networkId, documentName, userId);
+    Mockito.when(fbService.deleteDocument(Mockito.eq(networkId), Mockito.any()))
+        .thenReturn(CompletableFuture.completedFuture("testDocId"));
+    ResponseEntity<?> responseEntity = myService.deleteDoc(networkId, documentName, userId).join();
     System.out.println(responseEntity.getBody());
     assertEquals(HttpStatus.OK, responseEntity.getStatusCode());
   }
-}
\ No newline at end of file
+
+  @Test
+  @Order(16)
+  void testListVersionsInvalidPageSize() throws Exception {
+    Mockito.reset(fbService);
+    ResponseEntity<?> responseEntity = myService.listVersions("networkId", "documentName",
+        "userId", 0, 0).join();
+    assertEquals(HttpStatus.BAD_REQUEST, responseEntity.getStatusCode());
+  }
+
+  @Test
+  @Order(17)
+  void testListVersions() throws Exception {
+    Mockito.reset(fbService);
+    DataSnapshot dataSnapshot = Mockito.mock(DataSnapshot.class);
+    Mockito.when(dataSnapshot.exists()).thenReturn(true);
+    HashMap<String, Object> documentData = new HashMap<>();
+    documentData.put("title", "documentName");
+    documentData.put("userId", "userId");
+    documentData.put("clientId", "networkId");
+    documentData.put("docId", "testDocId");
+    documentData.put("wordCount", 1L);
+    documentData.put("versionCount", 3L);
+    Mockito.when(dataSnapshot.getValue()).thenReturn(documentData);
+
+    Map<String, Object> page = new HashMap<>();
+    page.put("versions", new ArrayList<>());
+    page.put("nextCursor", 2);
+    String networkId = "networkId";
+    String documentName = "documentName";
+    Mockito.when(fbService.searchForDocument(networkId, documentName))
+        .thenReturn(CompletableFuture.completedFuture(dataSnapshot));
+    Mockito.when(fbService.listVersions(networkId, dataSnapshot, 0, 2))
+        .thenReturn(CompletableFuture.completedFuture(page));
+
+    ResponseEntity<?> responseEntity = myService.listVersions(networkId, documentName,
+        "userId", 0, 2).join();
+    assertEquals(HttpStatus.OK, responseEntity.getStatusCode());
+    ResponseEntity<?> forbidden = myService.listVersions(networkId, documentName,
+        "otherUser", 0, 2).join();
+    assertEquals(HttpStatus.FORBIDDEN, forbidden.getStatusCode());
+  }
+
+  @Test
+  @Order(19)
+  void testDownloadDocStreamsChunksInOrder() throws Exception {
+    Mockito.reset(fbService);
+    DataSnapshot dataSnapshot = Mockito.mock(DataSnapshot.class);
+    Mockito.when(dataSnapshot.exists()).thenReturn(true);
+    HashMap<String, Object> documentData = new HashMap<>();
+    documentData.put("title", "documentName");
+    documentData.put("userId", "userId");
+    documentData.put("clientId", "networkId");
+    documentData.put("docId", "testDocId");
+    documentData.put("wordCount", 2L);
+    documentData.put("chunkCount", 2L);
+    Mockito.when(dataSnapshot.getValue()).thenReturn(documentData);
+
+    String networkId = "networkId";
+    String documentName = "documentName";
+    CompletableFuture<byte[]> secondChunk = new CompletableFuture<>();
+    Mockito.when(fbService.searchForDocument(networkId, documentName))
+        .thenReturn(CompletableFuture.completedFuture(dataSnapshot));
+    List<CompletableFuture<byte[]>> chunks = List.of(
+        CompletableFuture.completedFuture("first ".getBytes()), secondChunk);
+    Mockito.when(fbService.openDocument(networkId, dataSnapshot, 0)).thenReturn(
+        CompletableFuture.completedFuture(new ChunkInputStream(2, chunks::get, 1)));
+
+    ResponseEntity<?> responseEntity = myService.downloadDoc(networkId, documentName,
+        "userId", new HttpHeaders(), null).join();
+    assertEquals(HttpStatus.OK, responseEntity.getStatusCode());
+
+    secondChunk.complete("second".getBytes());
+    ByteArrayOutputStream written = new ByteArrayOutputStream();
+    ((StreamingResponseBody) responseEntity.getBody()).writeTo(written);
+    assertEquals("first second", written.toString());
+  }
+
+  @Test
+  @Order(20)
+  void testDownloadDocNotModified() throws Exception {
+    Mockito.reset(fbService);
+    DataSnapshot dataSnapshot = storedDocument();
+    Mockito.when(fbService.searchForDocument("networkId", "documentName"))
+        .thenReturn(CompletableFuture.completedFuture(dataSnapshot));
+
+    HttpHeaders requestHeaders = new HttpHeaders();
+    requestHeaders.setIfNoneMatch("\"abc123\"");
+    ResponseEntity<?> responseEntity = myService.downloadDoc("networkId", "documentName",
+        "userId", requestHeaders, null).join();
+    assertEquals(HttpStatus.NOT_MODIFIED, responseEntity.getStatusCode());
+    assertEquals("\"abc123\"", responseEntity.getHeaders().getETag());
+    Mockito.verify(fbService, Mockito.never()).openDocument(Mockito.any(), Mockito.any(),
+        Mockito.anyLong());
+  }
+
+  @Test
+  @Order(21)
+  void testDownloadDocRange() throws Exception {
+    Mockito.reset(fbService);
+    DataSnapshot dataSnapshot = storedDocument();
+    Mockito.when(fbService.searchForDocument("networkId", "documentName"))
+        .thenReturn(CompletableFuture.completedFuture(dataSnapshot));
+    Mockito.when(fbService.openDocument("networkId", dataSnapshot, 4)).thenReturn(
+        CompletableFuture.completedFuture(new ByteArrayInputStream("efghij".getBytes())));
+
+    HttpHeaders requestHeaders = new HttpHeaders();
+    requestHeaders.set(HttpHeaders.RANGE, "bytes=4-7");
+    requestHeaders.set(HttpHeaders.IF_RANGE, "\"abc123\"");
+    ResponseEntity<?> responseEntity = myService.downloadDoc("networkId", "documentName",
+        "userId", requestHeaders, null).join();
+    assertEquals(HttpStatus.PARTIAL_CONTENT, responseEntity.getStatusCode());
+    assertEquals("bytes 4-7/10", responseEntity.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE));
+    assertEquals(4, responseEntity.getHeaders().getContentLength());
+    ByteArrayOutputStream written = new ByteArrayOutputStream();
+    ((StreamingResponseBody) responseEntity.getBody()).writeTo(written);
+    assertEquals("efgh", written.toString());
+
+    requestHeaders.set(HttpHeaders.RANGE, "bytes=10-");
+    ResponseEntity<?> unsatisfiable = myService.downloadDoc("networkId", "documentName",
+        "userId", requestHeaders, null).join();
+    assertEquals(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE, unsatisfiable.getStatusCode());
+    assertEquals("bytes */10", unsatisfiable.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE));
+  }
+
+  @Test
+  @Order(22)
+  void testCheckForDocNotModified() throws Exception {
+    Mockito.reset(fbService);
+    DataSnapshot dataSnapshot = storedDocument();
+    Mockito.when(fbService.searchForDocument("networkId", "documentName"))
+        .thenReturn(CompletableFuture.completedFuture(dataSnapshot));
+    Mockito.when(fbService.assembleDocument("networkId", dataSnapshot))
+        .thenReturn(CompletableFuture.completedFuture(new HashMap<>()));
+
+    ResponseEntity<?> responseEntity = myService.checkForDoc("networkId", "documentName",
+        "userId", new HttpHeaders()).join();
+    assertEquals(HttpStatus.OK, responseEntity.getStatusCode());
+    String entityTag = responseEntity.getHeaders().getETag();
+    assertNotNull(entityTag);
+
+    HttpHeaders requestHeaders = new HttpHeaders();
+    requestHeaders.setIfNoneMatch("W/" + entityTag);
+    ResponseEntity<?> notModified = myService.checkForDoc("networkId", "documentName",
+        "userId", requestHeaders).join();
+    assertEquals(HttpStatus.NOT_MODIFIED, notModified.getStatusCode());
+    Mockito.verify(fbService, Mockito.times(1)).assembleDocument("networkId", dataSnapshot);
+  }
+
+  @Test
+  @Order(23)
+  void testUploadDocStream() throws Exception {
+    Mockito.reset(fbService);
+    ByteArrayInputStream contents = new ByteArrayInputStream("File Contents".getBytes());
+    HttpHeaders requestHeaders = new HttpHeaders();
+    requestHeaders.setContentType(MediaType.TEXT_PLAIN);
+    requestHeaders.setContentLength(13);
+    AtomicReference<String> readingThread = new AtomicReference<>();
+    Mockito.when(fbService.uploadStream(contents, 13, "text/plain", "networkId",
+            "documentName", "userId"))
+        .thenAnswer(invocation -> {
+          readingThread.set(Thread.currentThread().getName());
+          return CompletableFuture.completedFuture("Upload Success");
+        });
+
+    ResponseEntity<?> responseEntity = myService.uploadDocStream("networkId", "documentName",
+        "userId", requestHeaders, contents).join();
+    assertEquals(HttpStatus.OK, responseEntity.getStatusCode());
+    assertEquals("File Uploaded Successfully!", responseEntity.getBody());
+    //the body is read off the calling thread, on the bounded upload executor
+    assertEquals("upload", readingThread.get());
+
+    Mockito.when(fbService.uploadStream(contents, 13, "text/plain", "networkId",
+            "documentName", "userId"))
+        .thenThrow(new MaxUploadSizeExceededException(10));
+    ResponseEntity<?> tooLarge = myService.uploadDocStream("networkId", "documentName",
+        "userId", requestHeaders, contents).join();
+    assertEquals(HttpStatus.PAYLOAD_TOO_LARGE, tooLarge.getStatusCode());
+
+    Mockito.reset(fbService);
+    Mockito.when(fbService.uploadStream(contents, 13, "text/plain", "networkId",
+            "documentName", "userId"))
+        .thenReturn(CompletableFuture.failedFuture(new ConcurrentModificationException(
+            "The document documentName is being uploaded concurrently")));
+    ResponseEntity<?> conflict = myService.uploadDocStream("networkId", "documentName",
+        "userId", requestHeaders, contents).join();
+    assertEquals(HttpStatus.CONFLICT, conflict.getStatusCode());
+  }
+
+  @Test
+  @Order(24)
+  void testUploadSession() throws Exception {
+    Mockito.reset(fbService);
+    Mockito.when(fbService.createUploadSession("networkId", "documentName", "userId",
+            "text/plain"))
+        .thenReturn(CompletableFuture.completedFuture("session-1"));
+    ResponseEntity<?> created = myService.createUploadSession("networkId", "documentName",
+        "userId", "text/plain").join();
+    assertEquals(HttpStatus.OK, created.getStatusCode());
+    assertEquals("{\"sessionId\":\"session-1\"}", created.getBody());
+
+    Map<String, Object> session = new HashMap<>();
+    session.put("sessionId", "session-1");
+    session.put("parts", List.of());
+    Mockito.when(fbService.getUploadSession("networkId", "session-1"))
+        .thenReturn(CompletableFuture.completedFuture(session));
+    Mockito.when(fbService.getUploadSession("networkId", "session-2"))
+        .thenReturn(CompletableFuture.completedFuture(null));
+    assertEquals(HttpStatus.OK,
+        myService.getUploadSession("networkId", "session-1").join().getStatusCode());
+    assertEquals(HttpStatus.NOT_FOUND,
+        myService.getUploadSession("networkId", "session-2").join().getStatusCode());
+
+    Mockito.when(fbService.abortUploadSession("networkId", "session-1"))
+        .thenReturn(CompletableFuture.completedFuture(true));
+    Mockito.when(fbService.abortUploadSession("networkId", "session-2"))
+        .thenReturn(CompletableFuture.completedFuture(false));
+    assertEquals(HttpStatus.OK,
+        myService.abortUploadSession("networkId", "session-1").join().getStatusCode());
+    assertEquals(HttpStatus.NOT_FOUND,
+        myService.abortUploadSession("networkId", "session-2").join().getStatusCode());
+  }
+
+  @Test
+  @Order(25)
+  void testUploadPart() throws Exception {
+    Mockito.reset(fbService);
+    byte[] part = "Part Contents".getBytes();
+    String hash = Document.hashContents(part);
+    Mockito.when(fbService.uploadPart("networkId", "session-1", 1, part, hash))
+        .thenReturn(CompletableFuture.completedFuture(true));
+    Mockito.when(fbService.uploadPart("networkId", "session-2", 1, part, hash))
+        .thenReturn(CompletableFuture.completedFuture(false));
+    Mockito.when(fbService.uploadPart("networkId", "session-1", 1, part, "bad"))
+        .thenThrow(new IllegalArgumentException("Part 1 does not match its hash"));
+
+    ResponseEntity<?> stored = myService.uploadPart("networkId", "session-1", 1, hash,
+        new ByteArrayInputStream(part)).join();
+    assertEquals(HttpStatus.OK, stored.getStatusCode());
+    assertEquals("Part 1 stored", stored.getBody());
+    assertEquals(HttpStatus.NOT_FOUND, myService.uploadPart("networkId", "session-2", 1, hash,
+        new ByteArrayInputStream(part)).join().getStatusCode());
+    ResponseEntity<?> mismatch = myService.uploadPart("networkId", "session-1", 1, "bad",
+        new ByteArrayInputStream(part)).join();
+    assertEquals(HttpStatus.BAD_REQUEST, mismatch.getStatusCode());
+    assertEquals("Part 1 does not match its hash", mismatch.getBody());
+
+    ResponseEntity<?> tooLarge = myService.uploadPart("networkId", "session-1", 2, hash,
+        new ByteArrayInputStream(new byte[FirebaseService.MAX_PART_BYTES + 1])).join();
+    assertEquals(HttpStatus.PAYLOAD_TOO_LARGE, tooLarge.getStatusCode());
+  }
+
+  @Test
+  @Order(26)
+  void testCommitUploadSession() throws Exception {
+    Mockito.reset(fbService);
+    Mockito.when(fbService.commitUploadSession("networkId", "session-1", 2))
+        .thenReturn(CompletableFuture.completedFuture("Upload Success"));
+    Mockito.when(fbService.commitUploadSession("networkId", "session-1", 3))
+        .thenReturn(CompletableFuture.failedFuture(
+            new IllegalStateException("Missing parts [3]")));
+    Mockito.when(fbService.commitUploadSession("networkId", "session-2", 2))
+        .thenReturn(CompletableFuture.completedFuture(null));
+    Mockito.when(fbService.commitUploadSession("networkId", "session-3", 2))
+        .thenReturn(CompletableFuture.completedFuture(FirebaseService.DUPLICATE_UPLOAD));
+
+    ResponseEntity<?> committed = myService.commitUploadSession("networkId", "session-1", 2).join();
+    assertEquals(HttpStatus.OK, committed.getStatusCode());
+    assertEquals("File Uploaded Successfully!", committed.getBody());
+    ResponseEntity<?> missing = myService.commitUploadSession("networkId", "session-1", 3).join();
+    assertEquals(HttpStatus.CONFLICT, missing.getStatusCode());
+    assertEquals("Missing parts [3]", missing.getBody());
+    assertEquals(HttpStatus.NOT_FOUND,
+        myService.commitUploadSession("networkId", "session-2", 2).join().getStatusCode());
+    assertEquals("File already exists!",
+        myService.commitUploadSession("networkId", "session-3", 2).join().getBody());
+
+    //a commit refused while the commits before it run is retried by the client
+    Mockito.when(fbService.commitUploadSession("networkId", "session-4", 2))
+        .thenReturn(CompletableFuture.failedFuture(
+            new DatabaseUnavailableException("Too many uploads are in progress")));
+    assertEquals(HttpStatus.SERVICE_UNAVAILABLE,
+        myService.commitUploadSession("networkId", "session-4", 2).join().getStatusCode());
+  }
+
+  @Test
+  @Order(27)
+  void testHandlersDoNotWaitForFirebase() {
+    Mockito.reset(fbService);
+    CompletableFuture<DataSnapshot> lookup = new CompletableFuture<>();
+    Mockito.when(fbService.searchForDocument("networkId", "documentName")).thenReturn(lookup);
+    Mockito.when(fbService.deleteDocument(Mockito.eq("networkId"), Mockito.any()))
+        .thenReturn(CompletableFuture.completedFuture("testDocId"));
+
+    CompletableFuture<ResponseEntity<?>> response = myService.checkForDoc("networkId",
+        "documentName", "otherUserId", new HttpHeaders());
+    CompletableFuture<ResponseEntity<?>> deleted = myService.deleteDoc("networkId",
+        "documentName", "userId");
+    assertFalse(response.isDone());
+    assertFalse(deleted.isDone());
+
+    lookup.complete(storedDocument());
+    assertEquals(HttpStatus.FORBIDDEN, response.join().getStatusCode());
+    assertEquals(HttpStatus.OK, deleted.join().getStatusCode());
+
+    Mockito.when(fbService.searchForDocument("networkId", "documentName"))
+        .thenReturn(CompletableFuture.failedFuture(new RuntimeException("Simulated error")));
+    assertEquals(HttpStatus.NOT_FOUND,
+        myService.deleteDoc("networkId", "documentName", "userId").join().getStatusCode());
+  }
+
+  /**
+   * Tests that a database that does not answer in time is answered with 504, one that can
+   * not be reached with 503, and that a handler answers once the request deadline passed.
+   */
+  @Test
+  @Order(28)
+  void testDatabaseFailures() {
+    Mockito.reset(fbService);
+    Mockito.when(fbService.searchForDocument("networkId", "documentName"))
+        .thenReturn(CompletableFuture.failedFuture(new TimeoutException()));
+    assertEquals(HttpStatus.GATEWAY_TIMEOUT, myService.checkForDoc("networkId",
+        "documentName", "userId", new HttpHeaders()).join().getStatusCode());
+    assertEquals(HttpStatus.GATEWAY_TIMEOUT, myService.downloadDoc("networkId",
+        "documentName", "userId", new HttpHeaders(), null).join().getStatusCode());
+
+    Mockito.when(fbService.searchForDocument("networkId", "documentName"))
+        .thenReturn(CompletableFuture.failedFuture(
+            new DatabaseUnavailableException("Simulated error")));
+    assertEquals(HttpStatus.SERVICE_UNAVAILABLE,
+        myService.deleteDoc("networkId", "documentName", "userId").join().getStatusCode());
+
+    //the writes that follow the lookup are answered alike
+    DataSnapshot dataSnapshot = storedDocument();
+    Mockito.when(fbService.searchForDocument("networkId", "documentName"))
+        .thenReturn(CompletableFuture.completedFuture(dataSnapshot));
+    Mockito.when(fbService.deleteDocument(Mockito.eq("networkId"), Mockito.any()))
+        .thenReturn(CompletableFuture.failedFuture(
+            new DatabaseUnavailableException("Simulated error")));
+    Mockito.when(fbService.shareDocument(Mockito.eq("networkId"), Mockito.any(),
+            Mockito.eq("otherUserId")))
+        .thenReturn(CompletableFuture.failedFuture(new TimeoutException()));
+    assertEquals(HttpStatus.SERVICE_UNAVAILABLE,
+        myService.deleteDoc("networkId", "documentName", "userId").join().getStatusCode());
+    assertEquals(HttpStatus.GATEWAY_TIMEOUT, myService.shareDocument("networkId",
+        "documentName", "userId", "otherUserId").join().getStatusCode());
+
+    SweProjectApplication timedService = new SweProjectApplication();
+    timedService.setRequestTimeoutMillis(50);
+    Mockito.when(fbService.searchForDocument("networkId", "documentName"))
+        .thenReturn(new CompletableFuture<>());
+    assertEquals(HttpStatus.GATEWAY_TIMEOUT, timedService.seeDocumentStats("networkId",
+        "documentName", "userId").join().getStatusCode());
+  }
+
+  /**
+   * Tests that a user is only a member of a document listing exactly that user, so that
+   * "user1" is neither given access to nor considered sharing a document of "user10".
+   */
+  @Test
+  @Order(29)
+  void testExactUserMembership() {
+    Mockito.reset(fbService);
+    DataSnapshot dataSnapshot = storedDocument("user10/user2");
+    Mockito.when(fbService.searchForDocument("networkId", "documentName"))
+        .thenReturn(CompletableFuture.completedFuture(dataSnapshot));
+    Mockito.when(fbService.shareDocument(Mockito.eq("networkId"), Mockito.any(),
+            Mockito.eq("user1")))
+        .thenReturn(CompletableFuture.completedFuture("user10/user2/user1"));
+
+    assertEquals(HttpStatus.FORBIDDEN, myService.checkForDoc("networkId", "documentName",
+        "user1", new HttpHeaders()).join().getStatusCode());
+    assertEquals(HttpStatus.FORBIDDEN, myService.downloadDoc("networkId", "documentName",
+        "user1", new HttpHeaders(), null).join().getStatusCode());
+    assertEquals(HttpStatus.FORBIDDEN, myService.seeDocumentStats("networkId",
+        "documentName", "user1").join().getStatusCode());
+    assertEquals(HttpStatus.FORBIDDEN,
+        myService.deleteDoc("networkId", "documentName", "user1").join().getStatusCode());
+    Mockito.verify(fbService, Mockito.never()).deleteDocument(Mockito.any(), Mockito.any());
+
+    ResponseEntity<?> shared = myService.shareDocument("networkId", "documentName",
+        "user10", "user1").join();
+    assertEquals(HttpStatus.OK, shared.getStatusCode());
+    assertEquals("The document has been shared with the desired user", shared.getBody());
+    Mockito.verify(fbService).shareDocument(Mockito.eq("networkId"), Mockito.any(),
+        Mockito.eq("user1"));
+  }
+
+  /**
+   * Tests that the continuations of a handler do not run on the thread completing the
+   * lookup, which for Firebase is its event thread.
+   */
+  @Test
+  @Order(30)
+  void testContinuationsLeaveFirebaseThread() {
+    Mockito.reset(fbService);
+    CompletableFuture<DataSnapshot> lookup = new CompletableFuture<>();
+    DataSnapshot dataSnapshot = storedDocument();
+    Mockito.when(fbService.searchForDocument("networkId", "documentName")).thenReturn(lookup);
+    List<Thread> continuations = new ArrayList<>();
+    Mockito.when(fbService.listVersions("networkId", dataSnapshot, 0, 20)).thenAnswer(
+        invocation -> {
+          continuations.add(Thread.currentThread());
+          return CompletableFuture.completedFuture(Map.of("versions", List.of()));
+        });
+
+    CompletableFuture<ResponseEntity<?>> response = myService.listVersions("networkId",
+        "documentName", "userId", 0, 20);
+    lookup.complete(dataSnapshot);
+    assertEquals(HttpStatus.OK, response.join().getStatusCode());
+    assertEquals(1, continuations.size());
+    assertNotEquals(Thread.currentThread(), continuations.get(0));
+  }
+
+  //the metadata of a ten byte document stored with its digest
+  private static DataSnapshot storedDocument() {
+    return storedDocument("userId");
+  }
+
+  private static DataSnapshot storedDocument(String userIds) {
+    DataSnapshot dataSnapshot = Mockito.mock(DataSnapshot.class);
+    Mockito.when(dataSnapshot.exists()).thenReturn(true);
+    Mockito.when(dataSnapshot.hasChild("size")).thenReturn(true);
+    HashMap<String, Object> documentData = new HashMap<>();
+    documentData.put("title", "documentName");
+    documentData.put("userId", userIds);
+    documentData.put("clientId", "networkId");
+    documentData.put("docId", "testDocId");
+    documentData.put("wordCount", 1L);
+    documentData.put("size", 10L);
+    documentData.put("contentHash", "abc123");
+    Mockito.when(dataSnapshot.getValue()).thenReturn(documentData);
+    return dataSnapshot;
+  }
+}
@@ -0,0 +1,172 @@
+package com.dev.sweproject;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.ValueEventListener;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeoutException;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+/**
+ * Tests that concurrent identical reads made through the FirebaseService share a single
+ * read of the database, and that reads the database does not answer are given up.
+ */
+class ReadCoalescingTest {
+
+  /**
+   * Tests that identical reads started together are served by one listener, and that a
+   * read started once the shared read completed reads the database again.
+   */
+  @Test
+  public void testIdenticalReadsShareOneRead() {
+    List<ValueEventListener> listeners = new ArrayList<>();
+    FirebaseService service = serviceReading("network/entry", listeners, 200, 0);
+
+    final CompletableFuture<Object> first = service.getEntry("network", "entry");
+    final CompletableFuture<Object> second = service.getEntry("network", "entry");
+    assertEquals(1, listeners.size());
+    assertFalse(first.isDone());
+
+    listeners.get(0).onDataChange(snapshot("value"));
+    assertEquals("value", first.join());
+    assertEquals("value", second.join());
+    assertEquals(1L, service.getCacheStatistics().get("coalescedReads"));
+
+    service.getEntry("network", "entry");
+    assertEquals(2, listeners.size());
+  }
+
+  /**
+   * Tests that a write only keeps the reads of the location it writes, and of the locations
+   * above and below it, from being shared with the reads started after it.
+   */
+  @Test
+  public void testWritesOnlyForgetOverlappingReads() {
+    List<ValueEventListener> listeners = new ArrayList<>();
+    FirebaseService service = serviceReading("network/entry", listeners, 200, 0);
+
+    service.getEntry("network", "entry");
+    service.updateEntry("network", "other", "value");
+    service.getEntry("network", "entry");
+    assertEquals(1, listeners.size());
+
+    service.updateEntry("network", "entry", "value");
+    service.getEntry("network", "entry");
+    assertEquals(2, listeners.size());
+  }
+
+  /**
+   * Tests that every read goes to the database when coalescing is disabled.
+   */
+  @Test
+  public void testCoalescingDisabled() {
+    List<ValueEventListener> listeners = new ArrayList<>();
+    FirebaseService service = serviceReading("network/entry", listeners, 0, 0);
+
+    service.getEntry("network", "entry");
+    service.getEntry("network", "entry");
+    assertEquals(2, listeners.size());
+  }
+
+  /**
+   * Tests that a read the database does not answer fails once the timeout has passed,
+   * removing its listener, and that the next read starts a new one.
+   */
+  @Test
+  public void testStalledReadTimesOut() {
+    List<ValueEventListener> listeners = new ArrayList<>();
+    FirebaseService service = serviceReading("network/entry", listeners, 200, 50);
+
+    CompletionException error = assertThrows(CompletionException.class,
+        () -> service.getEntry("network", "entry").join());
+    assertInstanceOf(TimeoutException.class, error.getCause());
+    assertTrue(listeners.isEmpty());
+
+    service.getEntry("network", "entry");
+    assertEquals(1, listeners.size());
+  }
+
+  /**
+   * Tests that the reads of a view bound to a deadline time out once it has passed, a read
+   * of its own removing its listener and a read shared with other callers going on for them.
+   */
+  @Test
+  public void testBoundReadTimesOut() {
+    List<ValueEventListener> listeners = new ArrayList<>();
+    FirebaseService service = serviceReading("network/entry", listeners, 200, 0);
+
+    final CompletableFuture<Object> bound = service.within(50).getEntry("network", "entry");
+    final CompletableFuture<Object> unbound = service.getEntry("network", "entry");
+    CompletionException error = assertThrows(CompletionException.class, bound::join);
+    assertInstanceOf(TimeoutException.class, error.getCause());
+    assertEquals(1, listeners.size());
+    listeners.get(0).onDataChange(snapshot("value"));
+    assertEquals("value", unbound.join());
+
+    List<ValueEventListener> ownListeners = new ArrayList<>();
+    FirebaseService alone = serviceReading("network/entry", ownListeners, 0, 0);
+    error = assertThrows(CompletionException.class,
+        () -> alone.within(50).getEntry("network", "entry").join());
+    assertInstanceOf(TimeoutException.class, error.getCause());
+    assertTrue(ownListeners.isEmpty());
+  }
+
+  /**
+   * Tests that a read failing because the database can not be reached is reported as
+   * unavailability, and one the database refused is not.
+   */
+  @Test
+  public void testUnreachableDatabase() {
+    List<ValueEventListener> listeners = new ArrayList<>();
+    FirebaseService service = serviceReading("network/entry", listeners, 0, 0);
+
+    CompletableFuture<Object> disconnected = service.getEntry("network", "entry");
+    listeners.get(0).onCancelled(DatabaseError.fromCode(DatabaseError.DISCONNECTED));
+    CompletionException error = assertThrows(CompletionException.class, disconnected::join);
+    assertInstanceOf(DatabaseUnavailableException.class, error.getCause());
+
+    CompletableFuture<Object> denied = service.getEntry("network", "entry");
+    listeners.get(0).onCancelled(DatabaseError.fromCode(DatabaseError.PERMISSION_DENIED));
+    error = assertThrows(CompletionException.class, denied::join);
+    assertFalse(error.getCause() instanceof DatabaseUnavailableException);
+  }
+
+  //the listeners registered and not yet removed are kept in listeners
+  private static FirebaseService serviceReading(String path, List<ValueEventListener> listeners,
+                                                long coalescingWindowMillis,
+                                                long timeoutMillis) {
+    FirebaseService service = Mockito.spy(new FirebaseService(null, 0, coalescingWindowMillis,
+        "deflate", 6, 1 << 20, 1 << 20, timeoutMillis));
+    DatabaseReference root = Mockito.mock(DatabaseReference.class);
+    DatabaseReference collection = Mockito.mock(DatabaseReference.class);
+    DatabaseReference entry = Mockito.mock(DatabaseReference.class);
+    Mockito.doReturn(root).when(service).getDatabaseReference();
+    Mockito.when(root.child(path)).thenReturn(entry);
+    Mockito.when(root.child("network")).thenReturn(collection);
+    Mockito.when(collection.child(Mockito.anyString()))
+        .thenReturn(Mockito.mock(DatabaseReference.class));
+    Mockito.when(collection.child("entry")).thenReturn(entry);
+    Mockito.doAnswer(invocation -> listeners.add(invocation.getArgument(0)))
+        .when(entry).addListenerForSingleValueEvent(Mockito.any());
+    Mockito.doAnswer(invocation -> listeners.remove(invocation.getArgument(0)))
+        .when(entry).removeEventListener(Mockito.any(ValueEventListener.class));
+    return service;
+  }
+
+  private static DataSnapshot snapshot(Object value) {
+    DataSnapshot snapshot = Mockito.mock(DataSnapshot.class);
+    Mockito.when(snapshot.getValue()).thenReturn(value);
+    return snapshot;
+  }
+}
@@ -0,0 +1,102 @@
+package com.dev.sweproject;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for computing and applying deltas between versions of a file.
+ */
+class VersionDeltaTest {
+
+  /**
+   * Tests that a small edit in a large file produces a delta close to the size of the edit.
+   */
+  @Test
+  public void testSmallEditProducesSmallDelta() {
+    byte[] newer = randomText(new Random(1), 100_000);
+    byte[] older = newer.clone();
+    System.arraycopy("an edited sentence".getBytes(StandardCharsets.UTF_8), 0,
+        older, 50_000, 18);
+
+    byte[] delta = VersionDelta.encode(newer, older);
+    assertTrue(delta.length < 100, "delta was " + delta.length + " bytes");
+    assertArrayEquals(older, VersionDelta.apply(newer, delta));
+  }
+
+  /**
+   * Tests round trips with insertions, deletions and moved regions.
+   */
+  @Test
+  public void testRoundTripWithInsertionsAndDeletions() {
+    Random random = new Random(2);
+    for (int i = 0; i < 50; i++) {
+      byte[] newer = randomText(random, random.nextInt(5_000));
+      byte[] older = mutate(random, newer);
+      assertArrayEquals(older, VersionDelta.apply(newer, VersionDelta.encode(newer, older)));
+      assertArrayEquals(newer, VersionDelta.apply(older, VersionDelta.encode(older, newer)));
+    }
+  }
+
+  /**
+   * Tests round trips involving empty and very short versions.
+   */
+  @Test
+  public void testRoundTripEdgeCases() {
+    byte[] empty = new byte[0];
+    byte[] shortText = "short".getBytes(StandardCharsets.UTF_8);
+    byte[] text = randomText(new Random(3), 1_000);
+
+    assertArrayEquals(empty, VersionDelta.apply(text, VersionDelta.encode(text, empty)));
+    assertArrayEquals(text, VersionDelta.apply(empty, VersionDelta.encode(empty, text)));
+    assertArrayEquals(shortText, VersionDelta.apply(text, VersionDelta.encode(text, shortText)));
+    assertArrayEquals(text, VersionDelta.apply(text, VersionDelta.encode(text, text)));
+  }
+
+  /**
+   * Tests that a delta applied to a base it was not computed against is rejected.
+   */
+  @Test
+  public void testApplyToWrongBase() {
+    byte[] newer = randomText(new Random(4), 2_000);
+    byte[] delta = VersionDelta.encode(newer, newer);
+    assertThrows(IllegalArgumentException.class,
+        () -> VersionDelta.apply(new byte[10], delta));
+  }
+
+  private static byte[] randomText(Random random, int length) {
+    String[] words = {"the", "service", "stores", "documents", "for", "each", "network", "\n"};
+    StringBuilder text = new StringBuilder();
+    while (text.length() < length) {
+      text.append(words[random.nextInt(words.length)]).append(' ');
+      if (random.nextInt(10) == 0) {
+        text.append(random.nextInt(100_000));
+      }
+    }
+    return text.substring(0, length).getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static byte[] mutate(Random random, byte[] data) {
+    StringBuilder text = new StringBuilder(new String(data, StandardCharsets.UTF_8));
+    for (int edit = 0; edit < 5 && text.length() > 0; edit++) {
+      int position = random.nextInt(text.length());
+      switch (random.nextInt(3)) {
+        case 0:
+          text.insert(position, "inserted " + random.nextInt());
+          break;
+        case 1:
+          text.delete(position, Math.min(text.length(), position + random.nextInt(200)));
+          break;
+        default:
+          String moved = text.substring(position, Math.min(text.length(), position + 100));
+          text.append(moved);
+          break;
+      }
+    }
+    return text.toString().getBytes(StandardCharsets.UTF_8);
+  }
+}
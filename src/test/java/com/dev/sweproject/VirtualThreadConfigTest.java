@@ -0,0 +1,49 @@
+package com.dev.sweproject;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.ExecutorService;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.runner.WebApplicationContextRunner;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+
+/**
+ * Tests that requests are moved to virtual threads only when the mode is enabled and the
+ * JVM has them.
+ */
+class VirtualThreadConfigTest {
+
+  /**
+   * Tests that the configuration only applies with spring.threads.virtual.enabled set.
+   */
+  @Test
+  public void testEnabledByProperty() {
+    WebApplicationContextRunner runner = new WebApplicationContextRunner()
+        .withUserConfiguration(VirtualThreadConfig.class);
+    runner.run(context -> assertEquals(0,
+        context.getBeansOfType(TomcatProtocolHandlerCustomizer.class).size()));
+    runner.withPropertyValues("spring.threads.virtual.enabled=true").run(context ->
+        assertEquals(1, context.getBeansOfType(TomcatProtocolHandlerCustomizer.class).size()));
+  }
+
+  /**
+   * Tests that the executor runs tasks on virtual threads from Java 21 and that there is
+   * none before.
+   */
+  @Test
+  public void testExecutorMatchesJvm() throws Exception {
+    ExecutorService executor = VirtualThreadConfig.newVirtualThreadExecutor();
+    if (Runtime.version().feature() < 21) {
+      assertNull(executor);
+      return;
+    }
+    try {
+      Thread thread = executor.submit(Thread::currentThread).get();
+      assertTrue((Boolean) Thread.class.getMethod("isVirtual").invoke(thread));
+    } finally {
+      executor.shutdown();
+    }
+  }
+}
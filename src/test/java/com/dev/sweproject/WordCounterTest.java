@@ -0,0 +1,174 @@
+package com.dev.sweproject;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that the byte-level word counter agrees with counting the words of the decoded
+ * text line by line, as words were originally counted, and that counting in parallel or
+ * a vector at a time agrees with counting a byte at a time.
+ */
+class WordCounterTest {
+
+  private static final String[] CORPUS = {
+    "",
+    " ",
+    "one",
+    "  leading and trailing  ",
+    "This is a demo document for the demo in class.\r\n\r\nChef Mike's is a 10/10. :D",
+    "tabs\tand\u000Bvertical\ftabs\rcarriage\nreturns\r\n",
+    "no\u00A0break\u2003em\u2028line\u0085next are not whitespace",
+    "café naïve 日本語 😀 emoji",
+    "\uFEFFbyte order mark",
+  };
+
+  /**
+   * Tests the counter against the reference on a fixed corpus.
+   */
+  @Test
+  public void testMatchesReferenceOnCorpus() throws IOException {
+    for (String text : CORPUS) {
+      assertCountsAgree(text.getBytes(StandardCharsets.UTF_8));
+    }
+    //malformed UTF-8 next to whitespace
+    assertCountsAgree(new byte[] {(byte) 0xC3, ' ', 'a', (byte) 0xE2, (byte) 0x82, '\n',
+        (byte) 0x80, '\t', (byte) 0xFF, 'b', (byte) 0xF0, (byte) 0x9F, ' '});
+  }
+
+  /**
+   * Tests the counter against the reference on random text mixing every kind of
+   * whitespace with multi-byte and malformed sequences.
+   */
+  @Test
+  public void testMatchesReferenceOnRandomText() throws IOException {
+    byte[][] pieces = {
+      {' '}, {'\t'}, {'\n'}, {'\r'}, {'\u000B'}, {'\f'}, {'a'}, {'Z'}, {'.'}, {0},
+      "\u00A0".getBytes(StandardCharsets.UTF_8), "\u2003".getBytes(StandardCharsets.UTF_8),
+      "😀".getBytes(StandardCharsets.UTF_8), {(byte) 0xC3}, {(byte) 0x80},
+    };
+    Random random = new Random(4);
+    for (int i = 0; i < 2_000; i++) {
+      ByteArrayOutputStream text = new ByteArrayOutputStream();
+      int length = random.nextInt(60);
+      for (int j = 0; j < length; j++) {
+        text.writeBytes(pieces[random.nextInt(pieces.length)]);
+      }
+      assertCountsAgree(text.toByteArray());
+    }
+  }
+
+  /**
+   * Tests that counting in parallel matches counting sequentially for random texts cut
+   * into segments of random sizes, including segments of a single byte and edges falling
+   * inside words, whitespace runs and multi-byte sequences.
+   */
+  @Test
+  public void testParallelMatchesSequential() {
+    Random random = new Random(5);
+    for (int i = 0; i < 300; i++) {
+      byte[] contents = randomText(random, random.nextInt(20_000));
+      int expected = WordCounter.countWordStarts(contents, 0, contents.length);
+      int segmentSize = 1 + random.nextInt(random.nextBoolean() ? 16 : 4_096);
+      assertEquals(expected, WordCounter.countParallel(contents, segmentSize));
+    }
+  }
+
+  /**
+   * Tests that the counts of any partition of a text into ranges add up to its count.
+   */
+  @Test
+  public void testRangesAddUp() {
+    Random random = new Random(6);
+    for (int i = 0; i < 300; i++) {
+      byte[] contents = randomText(random, random.nextInt(2_000));
+      int total = 0;
+      int from = 0;
+      while (from < contents.length) {
+        int to = Math.min(contents.length, from + 1 + random.nextInt(50));
+        total += WordCounter.countWordStarts(contents, from, to);
+        from = to;
+      }
+      assertEquals(WordCounter.countWordStarts(contents, 0, contents.length), total);
+    }
+  }
+
+  /**
+   * Tests that counting a vector at a time matches counting a byte at a time for ranges
+   * starting and ending anywhere, shorter and longer than a vector.
+   */
+  @Test
+  public void testVectorMatchesScalar() {
+    assumeTrue(WordCounter.VECTORIZED, "the JVM was started without jdk.incubator.vector");
+    Random random = new Random(8);
+    for (int i = 0; i < 2_000; i++) {
+      byte[] contents = randomText(random, random.nextInt(i < 1_000 ? 300 : 5_000));
+      int from = contents.length == 0 ? 0 : random.nextInt(contents.length);
+      int to = from + random.nextInt(contents.length - from + 1);
+      assertEquals(WordCounter.countScalar(contents, from, to),
+          VectorWordCounter.countWordStarts(contents, from, to));
+    }
+  }
+
+  /**
+   * Tests that a text above the threshold, which is counted in parallel, matches the
+   * reference.
+   */
+  @Test
+  public void testLargeTextMatchesReference() throws IOException {
+    byte[] contents = randomText(new Random(7), WordCounter.PARALLEL_THRESHOLD * 3 + 17);
+    assertEquals(referenceCount(contents), WordCounter.count(contents));
+  }
+
+  //words of random lengths separated by random whitespace, with multi-byte characters
+  private static byte[] randomText(Random random, int length) {
+    byte[] alphabet = "ab \t\n\r".getBytes(StandardCharsets.UTF_8);
+    byte[] multiByte = "é😀".getBytes(StandardCharsets.UTF_8);
+    byte[] contents = new byte[length];
+    for (int i = 0; i < length; i++) {
+      contents[i] = random.nextInt(8) == 0 ? multiByte[random.nextInt(multiByte.length)]
+          : alphabet[random.nextInt(alphabet.length)];
+    }
+    return contents;
+  }
+
+  private static void assertCountsAgree(byte[] contents) throws IOException {
+    int expected = referenceCount(contents);
+    assertEquals(expected, WordCounter.count(contents));
+    assertEquals(expected, Document.countWords(contents));
+    assertEquals(expected, WordCounter.count(new ByteArrayInputStream(contents)));
+
+    //a word split across buffers is counted once
+    WordCounter counter = new WordCounter();
+    for (int offset = 0; offset < contents.length; offset += 3) {
+      counter.update(contents, offset, Math.min(3, contents.length - offset));
+    }
+    assertEquals(expected, counter.getCount());
+  }
+
+  //the original implementation, splitting every decoded line on \s+
+  private static int referenceCount(byte[] contents) throws IOException {
+    int wordCount = 0;
+    try (BufferedReader reader = new BufferedReader(new StringReader(
+        new String(contents, StandardCharsets.UTF_8)))) {
+      String line = reader.readLine();
+      while (line != null) {
+        for (String word : line.split("\\s+")) {
+          if (!word.isEmpty()) {
+            wordCount++;
+          }
+        }
+        line = reader.readLine();
+      }
+    }
+    return wordCount;
+  }
+}
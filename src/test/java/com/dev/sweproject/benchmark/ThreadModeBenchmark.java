@@ -0,0 +1,196 @@
+package com.dev.sweproject.benchmark;
+
+import com.dev.sweproject.FirebaseService;
+import com.dev.sweproject.SweProjectApplication;
+import com.google.firebase.database.DataSnapshot;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import org.mockito.Mockito;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * Compares serving a burst of concurrent clients with Tomcat's platform thread pool and
+ * with a virtual thread per request. Each operation sends one request per client at once
+ * and waits for every response, a check-for-doc waiting on two Firebase reads or an
+ * upload-doc-stream whose body is read on the request's thread. Firebase is replaced by a
+ * stand-in answering after LATENCY_MILLIS, as the database would over the network, so no
+ * request leaves the machine.
+ *
+ * <p>
+ * The virtual mode needs a Java 21 JDK, on an older one it keeps the platform pool.
+ * Opening 10000 connections may need a higher limit of open files (ulimit -n). The
+ * application context is started as usual, so firebase_config.json must be present.
+ * Only compiled with the jmh profile:
+ * mvn -Pjdk21,jmh test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.dev.sweproject.benchmark.ThreadModeBenchmark
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ThreadModeBenchmark {
+
+  private static final long LATENCY_MILLIS = 20;
+
+  private static final int UPLOAD_BYTES = 16384;
+
+  @Param({"platform", "virtual"})
+  private String threads;
+
+  @Param({"1000", "5000", "10000"})
+  private int clients;
+
+  @Param({"check-for-doc", "upload-doc-stream"})
+  private String endpoint;
+
+  private ConfigurableApplicationContext context;
+  private HttpClient client;
+  private HttpRequest request;
+
+  /**
+   * Starts the application with the requested thread mode in front of the stand-in.
+   */
+  @Setup(Level.Trial)
+  public void setUp() {
+    context = new SpringApplicationBuilder(SweProjectApplication.class).properties(
+        "server.port=0",
+        "spring.threads.virtual.enabled=" + "virtual".equals(threads),
+        "server.tomcat.max-connections=" + (clients * 2),
+        "server.tomcat.accept-count=" + clients).run();
+    new SweProjectApplication().setFirebaseDataService(new StandInFirebaseService());
+    int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+
+    String query = "?network-id=net&document-name=document&your-user-id=user&user-id=user";
+    URI uri = URI.create("http://localhost:" + port + "/" + endpoint + query);
+    request = "check-for-doc".equals(endpoint)
+        ? HttpRequest.newBuilder(uri).GET().build()
+        : HttpRequest.newBuilder(uri).header("Content-Type", "text/plain")
+            .POST(HttpRequest.BodyPublishers.ofByteArray(new byte[UPLOAD_BYTES])).build();
+    client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+  }
+
+  /**
+   * Stops the application.
+   */
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    context.close();
+  }
+
+  /**
+   * Sends a request for every client at once and waits for all the responses.
+   *
+   * @return The number of successful responses.
+   */
+  @Benchmark
+  public int burst() {
+    List<CompletableFuture<HttpResponse<Void>>> responses = new ArrayList<>(clients);
+    for (int i = 0; i < clients; i++) {
+      responses.add(client.sendAsync(request, HttpResponse.BodyHandlers.discarding()));
+    }
+    int successful = 0;
+    for (CompletableFuture<HttpResponse<Void>> response : responses) {
+      if (response.join().statusCode() == 200) {
+        successful++;
+      }
+    }
+    if (successful != clients) {
+      throw new IllegalStateException((clients - successful) + " requests failed");
+    }
+    return successful;
+  }
+
+  /**
+   * Runs the benchmarks.
+   *
+   * @param args Unused.
+   * @throws RunnerException If a benchmark fails.
+   */
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder()
+        .include(ThreadModeBenchmark.class.getSimpleName())
+        .build()).run();
+  }
+
+  //answers the calls the benchmarked endpoints make after the latency of a database read
+  private static final class StandInFirebaseService extends FirebaseService {
+    private final Executor database = CompletableFuture.delayedExecutor(LATENCY_MILLIS,
+        TimeUnit.MILLISECONDS);
+    //stub only, a mock recording every call would grow with the requests served
+    private final DataSnapshot document = Mockito.mock(DataSnapshot.class,
+        Mockito.withSettings().stubOnly());
+
+    private StandInFirebaseService() {
+      super(null, 0, 0, "raw", 1, 65536, Long.MAX_VALUE, 0);
+      Map<String, Object> metadata = new HashMap<>();
+      metadata.put("title", "document");
+      metadata.put("userId", "user");
+      metadata.put("clientId", "net");
+      metadata.put("docId", "doc");
+      metadata.put("wordCount", 1L);
+      metadata.put("size", 10L);
+      metadata.put("contentHash", "abc123");
+      Mockito.when(document.exists()).thenReturn(true);
+      Mockito.when(document.getValue()).thenReturn(metadata);
+    }
+
+    //the handlers call the view bound to their deadline, which would not be the stand-in
+    @Override
+    public FirebaseService within(long timeoutMillis) {
+      return this;
+    }
+
+    @Override
+    public CompletableFuture<DataSnapshot> searchForDocument(String collectionName,
+                                                             String title) {
+      return CompletableFuture.supplyAsync(() -> document, database);
+    }
+
+    @Override
+    public CompletableFuture<Map<String, Object>> assembleDocument(String collectionName,
+                                                                   DataSnapshot snapshot) {
+      return CompletableFuture.supplyAsync(() -> Map.of("title", "document"), database);
+    }
+
+    @Override
+    public CompletableFuture<Object> uploadStream(InputStream contents, long size,
+                                                  String contentType, String collectionName,
+                                                  String fileName, String userId)
+        throws IOException {
+      contents.readAllBytes();
+      return CompletableFuture.supplyAsync(() -> "Upload Success", database);
+    }
+  }
+}
@@ -0,0 +1,122 @@
+package com.dev.sweproject.benchmark;
+
+import com.dev.sweproject.WordCounter;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the ways of counting the words of a document: splitting the decoded lines as
+ * words were originally counted, classifying a byte at a time, and classifying a vector at
+ * a time. WordCounter picks the vector path when its JVM was started with the incubator
+ * module, so the same method is measured in a fork with the module and in one without.
+ * The sizes stay below WordCounter.PARALLEL_THRESHOLD to measure a single thread.
+ *
+ * <p>
+ * Only compiled with the jmh profile:
+ * mvn -Pjmh test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.dev.sweproject.benchmark.WordCountBenchmark
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WordCountBenchmark {
+
+  @Param({"1024", "65536", "524288"})
+  private int size;
+
+  //prose has a word every few bytes, code has long runs of indentation
+  @Param({"prose", "code"})
+  private String corpus;
+
+  private byte[] contents;
+
+  /**
+   * Builds a document of the requested size from the requested corpus.
+   */
+  @Setup
+  public void setUp() {
+    String[] words = "prose".equals(corpus)
+        ? new String[] {"the ", "document ", "was ", "uploaded ", "café ", "to ", "a ",
+          "network\n", "and ", "shared, ", "then ", "revised.\r\n"}
+        : new String[] {"    ", "if ", "(count ", "== ", "0) ", "{\n", "        ", "return ",
+          "null;\n", "\t", "}\n", "// 日本語\n"};
+    Random random = new Random(8);
+    StringBuilder text = new StringBuilder(size);
+    while (text.length() < size) {
+      text.append(words[random.nextInt(words.length)]);
+    }
+    contents = text.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Counts by splitting every decoded line on whitespace, as Document.countWords once did.
+   */
+  @Benchmark
+  public int split() throws IOException {
+    int wordCount = 0;
+    try (BufferedReader reader = new BufferedReader(new StringReader(
+        new String(contents, StandardCharsets.UTF_8)))) {
+      String line = reader.readLine();
+      while (line != null) {
+        for (String word : line.split("\\s+")) {
+          if (!word.isEmpty()) {
+            wordCount++;
+          }
+        }
+        line = reader.readLine();
+      }
+    }
+    return wordCount;
+  }
+
+  /**
+   * Counts a byte at a time, in a JVM without the Vector API.
+   */
+  @Benchmark
+  public int scalar() {
+    return WordCounter.count(contents);
+  }
+
+  /**
+   * Counts a vector at a time.
+   */
+  @Benchmark
+  @Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+  public int vector() {
+    return WordCounter.count(contents);
+  }
+
+  /**
+   * Runs the benchmarks.
+   *
+   * @param args Unused.
+   * @throws RunnerException If a benchmark fails.
+   */
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder()
+        .include(WordCountBenchmark.class.getSimpleName())
+        .build()).run();
+  }
+}